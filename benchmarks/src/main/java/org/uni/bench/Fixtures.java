@@ -0,0 +1,153 @@
+package org.uni.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+// Benchmark inputs. The HTML and JSON documents are real pages shipped with the Node.js docs
+// (MIT licensed). The Bing results page follows the live markup (ad, organic results with
+// sitelinks and fact rows, "People also ask", pagination, related searches) with its inline
+// scripts and styles cut down. The generated page keeps a live page's script/style weight and
+// is the one earlier numbers were taken on.
+public final class Fixtures {
+    private static final String[] WORDS = {
+            "the", "client", "request", "connection", "server", "response", "header", "stream", "cache",
+            "socket", "java", "http", "example", "keep-alive", "timeout", "pool", "reuse", "documentation",
+            "tutorial", "guide", "how", "to", "with", "using", "performance", "latency", "network", "api"
+    };
+
+    public static final String ARTICLE_HTML = resource("fixtures/nodejs-http2.html");
+    public static final String LARGE_JSON = resource("fixtures/nodejs-http2.json");
+    public static final String BING_RESULTS = resource("fixtures/bing-serp.html");
+    public static final String BING_GENERATED = bingResultsPage("java http client keep alive", 42);
+
+    private Fixtures() {
+    }
+
+    public static String resource(String name) {
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String bingResultsPage(String query, long seed) {
+        Random random = new Random(seed);
+        StringBuilder page = new StringBuilder(160 * 1024);
+        page.append("<!DOCTYPE html><html dir=\"ltr\" lang=\"en\" xml:lang=\"en\"><head><meta content=\"text/html; charset=utf-8\" http-equiv=\"content-type\" />")
+                .append("<title>").append(query).append(" - Search</title><style type=\"text/css\">");
+        for (int i = 0; i < 900; i++) {
+            page.append(".b_").append(word(random)).append(i).append("{margin:").append(random.nextInt(20))
+                    .append("px 0;color:#").append(Integer.toHexString(0x100000 + random.nextInt(0xEFFFFF))).append("}");
+        }
+        page.append("</style><script type=\"text/javascript\">//<![CDATA[\n");
+        for (int i = 0; i < 700; i++) {
+            page.append("_G.").append(word(random)).append(i).append("=function(n,t){return n<t&&\"")
+                    .append(word(random)).append("\"!==typeof n?n:t};");
+        }
+        page.append("\n//]]></script></head><body><header id=\"b_header\"><form action=\"/search\" id=\"sb_form\">")
+                .append("<input id=\"sb_form_q\" name=\"q\" value=\"").append(query).append("\" /></form>")
+                .append("<nav><ul><li><a href=\"/?scope=web\">All</a></li><li><a href=\"/images/search?q=x\">Images</a></li>")
+                .append("<li><a href=\"/videos/search?q=x\">Videos</a></li><li><a href=\"/news/search?q=x\">News</a></li></ul></nav></header>")
+                .append("<main aria-label=\"Search Results\"><ol id=\"b_results\">");
+        for (int i = 0; i < 10; i++) {
+            String host = "www." + word(random) + "-" + word(random) + ".com";
+            String url = "https://" + host + "/" + word(random) + "/" + word(random) + "-" + i;
+            page.append("<li class=\"b_algo\" data-tag=\"\" data-id=\"\"><div class=\"b_tpcn\"><a class=\"tilk\" href=\"")
+                    .append(url).append("\" h=\"ID=SERP,").append(5100 + i).append(".1\"><div class=\"tpic\"><img src=\"data:image/png;base64,")
+                    .append("iVBORw0KGgoAAAANSUhEUgAAABAAAAAQCAMAAAAoLQ9TAAAAM1BMVEX".repeat(4))
+                    .append("\" /></div><div class=\"tptxt\"><div class=\"tptt\">").append(host).append("</div><cite>")
+                    .append(url).append("</cite></div></a></div><h2><a href=\"").append(url).append("\" h=\"ID=SERP,")
+                    .append(5100 + i).append(".2\">").append(sentence(random, 4)).append(" <strong>").append(word(random))
+                    .append("</strong> ").append(sentence(random, 3)).append("</a></h2><div class=\"b_caption\"><p class=\"b_lineclamp2\">")
+                    .append("<span class=\"news_dt\">Mar 3, 2024</span>&nbsp;&#0183; ").append(sentence(random, 30))
+                    .append("</p></div></li>");
+        }
+        page.append("</ol></main><aside id=\"b_context\"><ol>");
+        for (int i = 0; i < 8; i++) {
+            page.append("<li class=\"b_ans\"><h2>Related searches</h2><a href=\"/search?q=").append(word(random)).append("\">")
+                    .append(sentence(random, 4)).append("</a></li>");
+        }
+        page.append("</ol></aside><footer><a href=\"https://go.microsoft.com/fwlink/?LinkId=521839\">Privacy</a>")
+                .append("<a href=\"https://go.microsoft.com/fwlink/?LinkID=246338\">Terms</a></footer>")
+                .append("<script type=\"text/javascript\">//<![CDATA[\n");
+        for (int i = 0; i < 400; i++) {
+            page.append("sj_evt.bind(\"").append(word(random)).append("\",function(){").append(word(random)).append(i).append("()});");
+        }
+        page.append("\n//]]></script></body></html>");
+        return page.toString();
+    }
+
+    // A complete HTTP/1.1 response as it arrives on the socket, optionally chunked and gzip-encoded
+    public static byte[] rawResponse(String body, String contentType, boolean chunked, boolean gzip) {
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        if (gzip) {
+            payload = gzip(payload);
+        }
+        StringBuilder head = new StringBuilder(512);
+        head.append("HTTP/1.1 200 OK\r\n")
+                .append("Date: Sun, 10 Mar 2024 12:00:00 GMT\r\n")
+                .append("Server: nginx\r\n")
+                .append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Cache-Control: max-age=600, stale-while-revalidate=60\r\n")
+                .append("ETag: \"5f2a-61a9c3b8\"\r\n")
+                .append("Last-Modified: Sat, 09 Mar 2024 08:30:00 GMT\r\n")
+                .append("Vary: Accept-Encoding\r\n")
+                .append("Set-Cookie: session=abc123; Path=/; HttpOnly\r\n")
+                .append("Set-Cookie: pref=dark; Path=/\r\n")
+                .append("Connection: keep-alive\r\n");
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 1024);
+        if (chunked) {
+            head.append("Transfer-Encoding: chunked\r\n\r\n");
+            out.writeBytes(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            for (int offset = 0; offset < payload.length; offset += 8192) {
+                int length = Math.min(8192, payload.length - offset);
+                out.writeBytes((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(payload, offset, length);
+                out.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            }
+            out.writeBytes("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        } else {
+            head.append("Content-Length: ").append(payload.length).append("\r\n\r\n");
+            out.writeBytes(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.writeBytes(payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(word(random));
+        }
+        return sentence.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package org.uni.html;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uni.bench.Fixtures;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// HtmlParser.parseHtmlContent against the regex pipeline it replaced, and the renderer fed in
+// socket-sized chunks the way a streaming response would drive it.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlRenderingBenchmark {
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"article", "bing", "bing-generated"})
+    public String document;
+
+    private String html;
+    private char[] chars;
+
+    @Setup
+    public void setUp() {
+        html = document.equals("bing") ? Fixtures.BING_RESULTS
+                : document.equals("bing-generated") ? Fixtures.BING_GENERATED : Fixtures.ARTICLE_HTML;
+        chars = html.toCharArray();
+    }
+
+    @Benchmark
+    public String render() {
+        return HtmlParser.parseHtmlContent(html);
+    }
+
+    @Benchmark
+    public String renderLegacyRegex() {
+        return HtmlParser.parseHtmlContentLegacy(html);
+    }
+
+    @Benchmark
+    public StringBuilder renderChunked() throws IOException {
+        StringBuilder out = new StringBuilder(chars.length / 2);
+        HtmlRenderer renderer = new HtmlRenderer(out);
+        for (int offset = 0; offset < chars.length; offset += CHUNK_SIZE) {
+            renderer.feed(chars, offset, Math.min(CHUNK_SIZE, chars.length - offset));
+        }
+        renderer.finish();
+        return out;
+    }
+}
@@ -0,0 +1,162 @@
+package org.uni.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uni.bench.Fixtures;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Key derivation, both cache tiers on their own and CacheManager on top of them, plus a
+// read-mostly mix from several threads to show lock contention in the memory tier.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    private static final int KEY_COUNT = 1024;
+
+    private String[] urls;
+    private CacheKey[] keys;
+    private byte[][] digests;
+    private CacheEntry smallEntry;
+    private CacheEntry largeEntry;
+    private MemoryCache<CacheKey> memoryCache;
+    private CacheManager cacheManager;
+    private Path storeDirectory;
+    private SegmentStore store;
+
+    // Per-thread position in the key set, so threads do not all hammer the same entry
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 1) & (KEY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        urls = new String[KEY_COUNT];
+        keys = new CacheKey[KEY_COUNT];
+        digests = new byte[KEY_COUNT][];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            urls[i] = "https://www.example.com/articles/" + i + "?ref=benchmark&page=" + (i % 7);
+            digests[i] = CacheManager.digest(urls[i]);
+            keys[i] = CacheKey.of(digests[i]);
+        }
+        smallEntry = new CacheEntry("{\"id\": 1, \"name\": \"small\"}", "application/json", "\"e1\"", 3600);
+        largeEntry = new CacheEntry(Fixtures.ARTICLE_HTML, "text/html", "\"e2\"", 3600);
+
+        memoryCache = new MemoryCache<>(CacheManager.DEFAULT_MEMORY_BUDGET_BYTES);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            memoryCache.put(keys[i], smallEntry);
+        }
+
+        cacheManager = new CacheManager(false, CacheManager.DEFAULT_MEMORY_BUDGET_BYTES);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            cacheManager.put(urls[i], smallEntry);
+        }
+
+        storeDirectory = Files.createTempDirectory("go2web-bench");
+        store = SegmentStore.open(storeDirectory);
+    }
+
+    // Keeps the segment files from growing across the whole run
+    @Setup(Level.Iteration)
+    public void resetStore() throws IOException {
+        store.clear();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            store.put(digests[i], (i & 1) == 0 ? smallEntry : largeEntry);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(storeDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public CacheKey cacheKey(Cursor cursor) {
+        return CacheKey.of(CacheManager.digest(urls[cursor.advance()]));
+    }
+
+    @Benchmark
+    public CacheEntry memoryGet(Cursor cursor) {
+        return memoryCache.get(keys[cursor.advance()]);
+    }
+
+    @Benchmark
+    public void memoryPut(Cursor cursor) {
+        memoryCache.put(keys[cursor.advance()], smallEntry);
+    }
+
+    @Benchmark
+    public CacheEntry managerGet(Cursor cursor) {
+        return cacheManager.get(urls[cursor.advance()]);
+    }
+
+    @Benchmark
+    public void managerPut(Cursor cursor) {
+        cacheManager.put(urls[cursor.advance()], smallEntry);
+    }
+
+    @Benchmark
+    public CacheEntry diskGet(Cursor cursor) throws IOException {
+        return store.get(digests[cursor.advance()]);
+    }
+
+    @Benchmark
+    public String diskGetLargeContent(Cursor cursor) throws IOException {
+        return store.get(digests[cursor.advance() | 1]).getContent();
+    }
+
+    @Benchmark
+    public void diskPut(Cursor cursor) throws IOException {
+        store.put(digests[cursor.advance()], smallEntry);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public CacheEntry memoryGetContended(Cursor cursor) {
+        return memoryCache.get(keys[cursor.advance()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public CacheEntry mixedReaders(Cursor cursor) {
+        return memoryCache.get(keys[cursor.advance()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedWriters(Cursor cursor) {
+        memoryCache.put(keys[cursor.advance()], smallEntry);
+    }
+}
@@ -0,0 +1,75 @@
+package org.uni.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uni.bench.Fixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The per-response work in HttpClient after the bytes arrive: parsing the head, unframing and
+// decoding the body, and turning it into printable text (JSON pretty-printing, HTML rendering).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseProcessingBenchmark {
+    private HttpClient client;
+    private HttpHeaders headers;
+
+    // Only the wire-level benchmarks depend on the framing, so only they are run once per value
+    @State(Scope.Benchmark)
+    public static class Wire {
+        @Param({"content-length", "chunked", "chunked-gzip"})
+        public String framing;
+
+        byte[] htmlResponse;
+
+        @Setup
+        public void setUp() {
+            htmlResponse = Fixtures.rawResponse(Fixtures.ARTICLE_HTML, "text/html; charset=utf-8",
+                    !framing.equals("content-length"), framing.endsWith("gzip"));
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        client = new HttpClient(false, new ConnectionPool(0, 0, 0));
+        byte[] response = Fixtures.rawResponse(Fixtures.ARTICLE_HTML, "text/html; charset=utf-8", false, false);
+        headers = new HttpResponseReader(new ByteArrayInputStream(response)).readHead().getHeaders();
+    }
+
+    @Benchmark
+    public HttpResponse readHead(Wire wire) throws IOException {
+        return new HttpResponseReader(new ByteArrayInputStream(wire.htmlResponse)).readHead();
+    }
+
+    @Benchmark
+    public String readResponse(Wire wire) throws IOException {
+        return new HttpResponseReader(new ByteArrayInputStream(wire.htmlResponse)).read(false).getBodyAsString();
+    }
+
+    @Benchmark
+    public String prettyPrintJson() {
+        return client.processBody("http://example.com/api", "application/json", "application/json", headers,
+                Fixtures.LARGE_JSON);
+    }
+
+    @Benchmark
+    public String processHtml() {
+        return client.processBody("http://example.com/docs", "text/html; charset=UTF-8", "text/html", headers,
+                Fixtures.ARTICLE_HTML);
+    }
+}
@@ -0,0 +1,51 @@
+package org.uni.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.uni.bench.Fixtures;
+import org.uni.http.HttpClient;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Result extraction from a results page, single-pass scanner against the original regexes.
+// "article" has no result markup at all, so it measures the fallback paths (for the regexes,
+// every pattern over the whole page).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchExtractionBenchmark {
+    @Param({"bing", "bing-generated", "article"})
+    public String page;
+
+    @Param({"scanner", "regex"})
+    public String extractor;
+
+    private SearchService searchService;
+    private String html;
+
+    @Setup
+    public void setUp() {
+        SearchResultExtractor resultExtractor = extractor.equals("scanner") ? new BingResultExtractor() : new RegexResultExtractor();
+        searchService = new SearchService(new HttpClient(false), resultExtractor);
+        html = page.equals("bing") ? Fixtures.BING_RESULTS
+                : page.equals("bing-generated") ? Fixtures.BING_GENERATED : Fixtures.ARTICLE_HTML;
+    }
+
+    @Benchmark
+    public List<SearchResult> extractSearchResults() {
+        return searchService.extractSearchResults(html);
+    }
+}
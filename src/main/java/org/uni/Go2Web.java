@@ -1,31 +1,185 @@
 package org.uni;
 
+import org.uni.batch.BatchFetcher;
+import org.uni.crawl.Crawler;
+import org.uni.http.FetchResult;
 import org.uni.http.HttpClient;
-import org.uni.html.HtmlParser;
+import org.uni.http.Prefetcher;
+import org.uni.http.SegmentedDownload;
 import org.uni.search.SearchService;
 import org.uni.http.CacheManager;
+import org.uni.http.ConnectionPool;
+import org.uni.daemon.DaemonProtocol;
+import org.uni.daemon.DaemonServer;
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Go2Web {
-    private final HttpClient httpClient;
-    private final HtmlParser htmlParser;
-    private final SearchService searchService;
-    private final CacheManager cacheManager;
+    // The stale copy is already printed; this only gives the refresh a chance to reach the cache
+    private static final long REVALIDATION_WAIT_MILLIS = 5_000;
+    // Prefetched pages are only worth anything once they are in the cache
+    private static final long PREFETCH_WAIT_MILLIS = 5_000;
+    // Created on first use, so -h and argument errors never open the cache or start a client
+    private HttpClient httpClient;
+    private SearchService searchService;
+    private boolean http2Requested;
+    private boolean prefetchRequested;
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Path workingDirectory;
+    // Running inside the daemon: the client, caches and logging outlive this invocation
+    private final boolean resident;
+    // Non-zero once a request failed
+    private int exitCode;
 
     public Go2Web() {
-        this.cacheManager = new CacheManager(true);
-        this.httpClient = new HttpClient(true);
-        this.htmlParser = new HtmlParser();
-        this.searchService = new SearchService();
+        this(null, System.in, System.out, System.err, Paths.get(""), false);
+    }
+
+    public Go2Web(HttpClient httpClient, InputStream in, PrintStream out, PrintStream err, Path workingDirectory,
+                  boolean resident) {
+        this.httpClient = httpClient;
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.workingDirectory = workingDirectory;
+        this.resident = resident;
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            DaemonServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals(DaemonProtocol.STOP_COMMAND)) {
+            System.out.println("No go2web daemon is running");
+            return;
+        }
         Go2Web go2web = new Go2Web();
         go2web.run(args);
+        if (go2web.getExitCode() != 0) {
+            System.exit(go2web.getExitCode());
+        }
+    }
+
+    public int getExitCode() {
+        return exitCode;
     }
 
+    // Global options (--stats, --stats-json <file|->, --http2, --prefetch, -v) may appear anywhere on the command line.
     public void run(String[] args) {
+        List<String> commandArgs = new ArrayList<>();
+        boolean printStats = false;
+        String statsJsonTarget = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--stats":
+                    printStats = true;
+                    break;
+                case "--stats-json":
+                    if (i + 1 >= args.length) {
+                        out.println("Error: --stats-json needs a file name (or - for stdout)");
+                        return;
+                    }
+                    statsJsonTarget = args[++i];
+                    break;
+                case "--http2":
+                case "--prefetch":
+                case "-v":
+                    if (resident) {
+                        // The daemon's client and log level are shared by every call
+                        err.println("Note: " + args[i] + " has no effect on a running daemon; start it with go2web --daemon " + args[i]);
+                    } else if (args[i].equals("-v")) {
+                        Log.setLevel(Log.Level.DEBUG);
+                    } else if (args[i].equals("--prefetch")) {
+                        prefetchRequested = true;
+                    } else {
+                        http2Requested = true;
+                    }
+                    break;
+                default:
+                    commandArgs.add(args[i]);
+            }
+        }
+
+        // A daemon runs every call in one process, so only what this command adds is reported
+        Metrics before = printStats || statsJsonTarget != null ? Metrics.global().snapshot() : null;
+        runCommand(commandArgs.toArray(new String[0]));
+
+        if (before != null) {
+            Metrics metrics = Metrics.global().since(before);
+            if (printStats) {
+                err.println("\n=== Stats ===");
+                metrics.printReport(err);
+            }
+            if (statsJsonTarget != null) {
+                writeStatsJson(metrics, statsJsonTarget);
+            }
+        }
+    }
+
+    private HttpClient httpClient() {
+        if (httpClient == null) {
+            httpClient = new HttpClient(new CacheManager(true), ConnectionPool.shared());
+        }
+        if (http2Requested) {
+            httpClient.setHttp2Enabled(true);
+        }
+        if (prefetchRequested) {
+            httpClient.getPrefetcher().setEnabled(true);
+        }
+        return httpClient;
+    }
+
+    private SearchService searchService() {
+        if (searchService == null) {
+            searchService = new SearchService(httpClient());
+        }
+        return searchService;
+    }
+
+    // A short-lived process must not exit before stale-while-revalidate refreshes and prefetches
+    // land in the cache; the daemon lives on, so it lets them finish in the background.
+    private void awaitBackgroundRefreshes() {
+        if (!resident) {
+            httpClient().awaitBackgroundRefreshes(REVALIDATION_WAIT_MILLIS);
+            httpClient().getPrefetcher().await(PREFETCH_WAIT_MILLIS);
+        }
+    }
+
+    private void writeStatsJson(Metrics metrics, String target) {
+        String json = metrics.toJson();
+        if (target.equals("-")) {
+            out.print(json);
+            return;
+        }
+        try {
+            Files.write(workingDirectory.resolve(target), json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            out.println("Error: could not write stats to " + target + ": " + e.getMessage());
+        }
+    }
+
+    private void runCommand(String[] args) {
         if (args.length == 0) {
             printHelp();
             return;
@@ -35,92 +189,323 @@ public class Go2Web {
         switch (command) {
             case "-u":
                 if (args.length < 2) {
-                    System.out.println("Error: URL is required");
+                    out.println("Error: URL is required");
                     printHelp();
                     return;
                 }
                 String url = args[1];
                 String format = "auto";
-                if (args.length >= 4 && args[2].equals("-f")) {
-                    format = args[3];
+                String outputFile = null;
+                int segments = SegmentedDownload.DEFAULT_SEGMENTS;
+                try {
+                    for (int i = 2; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "-f":
+                                format = args[++i];
+                                break;
+                            case "-o":
+                                outputFile = args[++i];
+                                break;
+                            case "-j":
+                                segments = Integer.parseInt(args[++i]);
+                                break;
+                            default:
+                                out.println("Error: Unknown request option " + args[i]);
+                                printHelp();
+                                return;
+                        }
+                    }
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    out.println("Error: Missing or invalid value for " + args[args.length - 1]);
+                    printHelp();
+                    return;
                 }
                 
                 try {
-                    String acceptHeader;
-                    switch (format) {
-                        case "json":
-                            acceptHeader = "application/json";
-                            break;
-                        case "html":
-                            acceptHeader = "text/html; charset=UTF-8";
-                            break;
-                        case "auto":
-                        default:
-                            // For auto-detect, accept both HTML and JSON
-                            acceptHeader = "text/html,application/json;q=0.9";
-                            break;
+                    String acceptHeader = acceptHeaderFor(format);
+
+                    if (outputFile != null) {
+                        download(url, acceptHeader, workingDirectory.resolve(outputFile), segments);
+                    } else {
+                        // Bodies that need no rendering are written out as they arrive
+                        FetchResult result = httpClient().fetchTo(url, acceptHeader, Channels.newChannel(out), false);
+                        String content = result.getContent();
+                        if (result.isStreamed()) {
+                            out.flush();
+                        } else if (content.endsWith("\n")) {
+                            // A cached copy of a body that was streamed the first time
+                            out.print(content);
+                            out.flush();
+                        } else {
+                            out.println(content);
+                        }
+                        Prefetcher prefetcher = httpClient().getPrefetcher();
+                        prefetcher.recordUse(result);
+                        prefetcher.prefetch(result.getLinks(), acceptHeader, result.getUrl());
                     }
-                    
-                    // Use the new socket-based request method
-                    String response = httpClient.makeSocketRequest(url, acceptHeader);
-                    System.out.println(response);
+                    awaitBackgroundRefreshes();
                 } catch (Exception e) {
-                    System.out.println("Error: " + e.getMessage());
-                    e.printStackTrace();
+                    out.println("Error: " + e.getMessage());
+                    e.printStackTrace(err);
+                    exitCode = 1;
                 }
                 break;
             case "-s":
                 if (args.length < 2) {
-                    System.out.println("Error: Search term is required");
+                    out.println("Error: Search term is required");
                     printHelp();
                     return;
                 }
                 String searchTerm = args[1];
-                String searchFormat = "html";
-                if (args.length >= 4 && args[2].equals("-f")) {
-                    searchFormat = args[3];
-                }
+                int resultCount = SearchService.DEFAULT_RESULT_COUNT;
                 try {
-                    List<String> results = searchService.search(searchTerm);
-                    for (String result : results) {
-                        System.out.println(result);
+                    for (int i = 2; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "-f":
+                                // Results are always printed as text; accepted for compatibility
+                                i++;
+                                break;
+                            case "-n":
+                                resultCount = Integer.parseInt(args[++i]);
+                                break;
+                            default:
+                                out.println("Error: Unknown search option " + args[i]);
+                                printHelp();
+                                return;
+                        }
                     }
+                    if (resultCount < 1) {
+                        out.println("Error: -n needs a positive number of results");
+                        return;
+                    }
+                    // Results are printed page by page as the pages arrive
+                    List<String> resultUrls = new ArrayList<>();
+                    searchService().search(searchTerm, resultCount, result -> {
+                        out.println(result);
+                        if (!result.getSnippet().isEmpty()) {
+                            out.println("    " + result.getSnippet());
+                        }
+                        resultUrls.add(result.getUrl());
+                    });
+                    out.flush();
+                    httpClient().getPrefetcher().prefetch(resultUrls, acceptHeaderFor("auto"), null);
+                    awaitBackgroundRefreshes();
                 } catch (Exception e) {
-                    System.out.println("Error: " + e.getMessage());
-                    e.printStackTrace();
+                    out.println("Error: " + e.getMessage());
+                    e.printStackTrace(err);
+                }
+                break;
+            case "-b":
+                if (args.length < 2) {
+                    out.println("Error: URL list file is required (use - for stdin)");
+                    printHelp();
+                    return;
                 }
+                runBatch(args);
+                break;
+            case "-crawl":
+                if (args.length < 2) {
+                    out.println("Error: Start URL is required");
+                    printHelp();
+                    return;
+                }
+                runCrawl(args);
                 break;
             case "-c":
-                cacheManager.clearAll();
-                System.out.println("Cache has been cleared successfully");
+                httpClient().getCacheManager().clearAll();
+                out.println("Cache has been cleared successfully");
                 break;
             case "-h":
                 printHelp();
                 break;
             default:
-                System.out.println("Error: Unknown command");
+                out.println("Error: Unknown command");
                 printHelp();
         }
     }
 
+    private void runCrawl(String[] args) {
+        int depth = Crawler.DEFAULT_DEPTH;
+        int maxPages = Crawler.DEFAULT_MAX_PAGES;
+        int concurrency = Crawler.DEFAULT_MAX_CONCURRENCY;
+        int perHost = Crawler.DEFAULT_MAX_PER_HOST;
+        long delayMillis = Crawler.DEFAULT_DELAY_MILLIS;
+        boolean allHosts = false;
+        try {
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-depth":
+                        depth = Integer.parseInt(args[++i]);
+                        break;
+                    case "-pages":
+                        maxPages = Integer.parseInt(args[++i]);
+                        break;
+                    case "-j":
+                        concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "-p":
+                        perHost = Integer.parseInt(args[++i]);
+                        break;
+                    case "-delay":
+                        delayMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--all-hosts":
+                        allHosts = true;
+                        break;
+                    default:
+                        out.println("Error: Unknown crawl option " + args[i]);
+                        printHelp();
+                        return;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            out.println("Error: Missing or invalid value for " + args[args.length - 1]);
+            return;
+        }
+        try {
+            new Crawler(httpClient(), concurrency, perHost, delayMillis).run(args[1], depth, maxPages, allHosts, out);
+            awaitBackgroundRefreshes();
+        } catch (Exception e) {
+            out.println("Error: " + e.getMessage());
+            e.printStackTrace(err);
+        }
+    }
+
+    // The body goes to a .part file next to the target, which only replaces the target once
+    // the whole response has arrived. Servers that offer byte ranges are downloaded in parallel
+    // segments, and a .part file they left behind is resumed rather than started over.
+    private void download(String url, String acceptHeader, Path target, int segments) throws IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        SegmentedDownload segmented = new SegmentedDownload(httpClient(), segments);
+        FetchResult result = null;
+        if (segmented.download(url, acceptHeader, partial) < 0) {
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                result = httpClient().fetchTo(url, acceptHeader, channel, true);
+                if (!result.isStreamed()) {
+                    // Rendered HTML, or a body that came from the cache
+                    channel.write(ByteBuffer.wrap(result.getContent().getBytes(StandardCharsets.UTF_8)));
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(partial);
+                throw e;
+            }
+        }
+        if (result != null && result.getStatusCode() >= 400) {
+            // An error page is not the download; whatever was at the target stays
+            Files.deleteIfExists(partial);
+            throw new IOException("HTTP " + result.getStatusCode() + " from " + url + ", nothing saved to " + target);
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        String note = "";
+        if (segmented.getResumedBytes() > 0) {
+            note = " (resumed after " + segmented.getResumedBytes() + " bytes)";
+        }
+        out.println("Saved " + Files.size(target) + " bytes to " + target + note);
+    }
+
+    private void runBatch(String[] args) {
+        String batchFormat = "auto";
+        int concurrency = BatchFetcher.DEFAULT_MAX_CONCURRENCY;
+        int perHost = BatchFetcher.DEFAULT_MAX_PER_HOST;
+        boolean ordered = false;
+        try {
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-f":
+                        batchFormat = args[++i];
+                        break;
+                    case "-j":
+                        concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "-p":
+                        perHost = Integer.parseInt(args[++i]);
+                        break;
+                    case "--ordered":
+                        ordered = true;
+                        break;
+                    default:
+                        out.println("Error: Unknown batch option " + args[i]);
+                        printHelp();
+                        return;
+                }
+            }
+
+            List<String> urls;
+            if (args[1].equals("-")) {
+                urls = BatchFetcher.readUrls(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            } else {
+                try (BufferedReader reader = Files.newBufferedReader(workingDirectory.resolve(args[1]), StandardCharsets.UTF_8)) {
+                    urls = BatchFetcher.readUrls(reader);
+                }
+            }
+            new BatchFetcher(httpClient(), concurrency, perHost).run(urls, acceptHeaderFor(batchFormat), ordered, out);
+            awaitBackgroundRefreshes();
+        } catch (Exception e) {
+            out.println("Error: " + e.getMessage());
+            e.printStackTrace(err);
+        }
+    }
+
+    private static String acceptHeaderFor(String format) {
+        switch (format) {
+            case "json":
+                return "application/json";
+            case "html":
+                return "text/html; charset=UTF-8";
+            case "auto":
+            default:
+                // For auto-detect, accept both HTML and JSON
+                return "text/html,application/json;q=0.9";
+        }
+    }
+
     private void printHelp() {
-        System.out.println("Go2Web - HTTP Client with caching and content negotiation");
-        System.out.println("\nUsage:");
-        System.out.println("  go2web -u <URL> [-f <format>]  Make an HTTP request to the specified URL");
-        System.out.println("  go2web -s <search term>        Search the web");
-        System.out.println("  go2web -c                      Clear the cache");
-        System.out.println("  go2web -h                      Show this help message");
-        System.out.println("\nFormat options:");
-        System.out.println("  auto (default)                Automatically detect format from response");
-        System.out.println("                                (Using Content-Type header and content structure)");
-        System.out.println("  html                         Format response as HTML");
-        System.out.println("  json                         Format response as JSON");
-        System.out.println("\nFeatures:");
-        System.out.println("  - Content negotiation (JSON/HTML)");
-        System.out.println("  - HTTP caching with ETag support");
-        System.out.println("  - Redirect handling");
-        System.out.println("  - Socket-based connections with automatic SSL detection");
-        System.out.println("  - Uses port 443 or HTTPS protocol for SSL connections");
-        System.out.println("  - Web search with Bing");
+        out.println("Go2Web - HTTP Client with caching and content negotiation");
+        out.println("\nUsage:");
+        out.println("  go2web -u <URL> [-f <format>]  Make an HTTP request to the specified URL");
+        out.println("  go2web -u <URL> -o <file> [-j <n>]  Save the response to a file (raw bytes unless it is HTML)");
+        out.println("  go2web -s <term> [-n <count>]  Search the web (" + SearchService.DEFAULT_RESULT_COUNT + " results unless -n is given)");
+        out.println("  go2web -b <file|-> [options]   Fetch a list of URLs concurrently (- reads stdin)");
+        out.println("  go2web -crawl <URL> [options]  Follow links from URL, breadth first");
+        out.println("  go2web -c                      Clear the cache");
+        out.println("  go2web -h                      Show this help message");
+        out.println("  go2web --daemon [-v] [--http2] Keep a resident go2web running; later calls are forwarded to it");
+        out.println("  go2web --daemon-stop           Stop the resident go2web");
+        out.println("\nGlobal options:");
+        out.println("  --stats                       Print per-phase timings and counters to stderr on exit");
+        out.println("  --stats-json <file|->         Write the same metrics as JSON (- for stdout)");
+        out.println("  --http2                       Use HTTP/2 for HTTPS hosts that support it (also -Dgo2web.http2=true)");
+        out.println("  --prefetch                    Fetch the first links of a page or search into the cache in the background");
+        out.println("                                (also -Dgo2web.prefetch=true; -Dgo2web.prefetch.count, default " + Prefetcher.DEFAULT_COUNT + ")");
+        out.println("  -v                            Debug logging to stderr (also -Dgo2web.log=debug)");
+        out.println("\nFormat options:");
+        out.println("  auto (default)                Automatically detect format from response");
+        out.println("                                (Using Content-Type header and content structure)");
+        out.println("  html                         Format response as HTML");
+        out.println("  json                         Format response as JSON");
+        out.println("\nDownload options:");
+        out.println("  -j <n>                        Byte ranges fetched at once when the server supports them (default " + SegmentedDownload.DEFAULT_SEGMENTS + ")");
+        out.println("                                An interrupted download resumes when the same command is run again");
+        out.println("\nBatch options:");
+        out.println("  -f <format>                   Format used for every URL");
+        out.println("  -j <n>                        Maximum concurrent fetches (default " + BatchFetcher.DEFAULT_MAX_CONCURRENCY + ")");
+        out.println("  -p <n>                        Maximum concurrent fetches per host (default " + BatchFetcher.DEFAULT_MAX_PER_HOST + ")");
+        out.println("  --ordered                     Print results in input order instead of completion order");
+        out.println("\nCrawl options:");
+        out.println("  -depth <n>                    Links followed from the start page (default " + Crawler.DEFAULT_DEPTH + ")");
+        out.println("  -pages <n>                    Maximum pages fetched (default " + Crawler.DEFAULT_MAX_PAGES + ")");
+        out.println("  -j <n>                        Maximum concurrent fetches (default " + Crawler.DEFAULT_MAX_CONCURRENCY + ")");
+        out.println("  -p <n>                        Maximum concurrent fetches per host (default " + Crawler.DEFAULT_MAX_PER_HOST + ")");
+        out.println("  -delay <ms>                   Time between requests to one host (default " + Crawler.DEFAULT_DELAY_MILLIS
+                + "; a longer robots.txt Crawl-delay wins)");
+        out.println("  --all-hosts                   Also follow links to other hosts");
+        out.println("\nFeatures:");
+        out.println("  - Content negotiation (JSON/HTML)");
+        out.println("  - HTTP caching with ETag support");
+        out.println("  - Redirect handling");
+        out.println("  - Socket-based connections with automatic SSL detection");
+        out.println("  - Uses port 443 or HTTPS protocol for SSL connections");
+        out.println("  - Web search with Bing");
     }
 } 
\ No newline at end of file
@@ -0,0 +1,136 @@
+package org.uni;
+
+import org.uni.http.CacheManager;
+import org.uni.http.ConnectionPool;
+import org.uni.http.HttpClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPOutputStream;
+
+// Training run for the AppCDS archive built by `mvn package`. It drives the usual commands
+// against a loopback server inside this process, so the archive holds the classes a real
+// fetch loads (sockets, response parsing, HTML rendering, JSON formatting, both cache tiers,
+// the TLS client up to its first handshake message) without needing the network at build
+// time. Run it with -Dgo2web.cache.dir pointing at a scratch directory.
+public class StartupTraining {
+    private static final String PAGE = "<!DOCTYPE html><html><head><title>go2web</title><style>p{}</style></head>"
+            + "<body><h1>Heading</h1><p>Some <b>bold</b> text &amp; an <a href=\"/data\">entity link</a>.</p>"
+            + "<ul><li>one</li><li>two</li></ul><script>var x = 1;</script></body></html>";
+    private static final String DATA = "{\"name\":\"go2web\",\"items\":[1,2,3],\"nested\":{\"ok\":true,\"value\":null}}";
+
+    public static void main(String[] args) throws Exception {
+        ServerSocket http = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        ServerSocket tls = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        startAcceptor(http, true);
+        startAcceptor(tls, false);
+        String base = "http://127.0.0.1:" + http.getLocalPort();
+
+        Path urls = Files.createTempFile("go2web-training", ".txt");
+        Files.write(urls, (base + "/page\n" + base + "/data\n" + base + "/redirect\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpClient httpClient = new HttpClient(new CacheManager(true), ConnectionPool.shared());
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream(), true, StandardCharsets.UTF_8);
+        String[][] commands = {
+                {"-h"},
+                {"-u", base + "/page"},
+                {"-u", base + "/data", "-f", "json"},
+                {"-u", base + "/redirect", "--stats"},
+                {"-u", base + "/page"},
+                {"-b", urls.toString(), "--ordered"},
+                {"--http2", "-u", "https://127.0.0.1:" + tls.getLocalPort() + "/"},
+                {"-c"},
+        };
+        try {
+            for (String[] command : commands) {
+                new Go2Web(httpClient, InputStream.nullInputStream(), discard, discard, Paths.get(""), false).run(command);
+            }
+        } finally {
+            Files.deleteIfExists(urls);
+        }
+        // The archive is written as the JVM exits
+        System.exit(0);
+    }
+
+    private static void startAcceptor(ServerSocket server, boolean http) {
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    Thread handler = new Thread(() -> {
+                        try (Socket connection = socket) {
+                            if (http) {
+                                serve(connection);
+                            } else {
+                                // Read the ClientHello and hang up; the client gets as far as it can
+                                connection.getInputStream().read(new byte[16 * 1024]);
+                            }
+                        } catch (IOException e) {
+                            // The client closed the connection
+                        }
+                    });
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "go2web-training-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // Keep-alive HTTP/1.1 server with one fixed-length, one chunked gzip and one redirect response
+    private static void serve(Socket connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        OutputStream out = connection.getOutputStream();
+        String head;
+        while ((head = readHead(in)) != null) {
+            String path = head.split(" ", 3)[1];
+            if (path.equals("/redirect")) {
+                out.write(("HTTP/1.1 301 Moved Permanently\r\nLocation: /page\r\nContent-Length: 0\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+            } else if (path.equals("/data")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(DATA.getBytes(StandardCharsets.UTF_8));
+                }
+                byte[] body = compressed.toByteArray();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Encoding: gzip\r\n"
+                        + "Transfer-Encoding: chunked\r\nCache-Control: max-age=60\r\nETag: \"d1\"\r\n\r\n"
+                        + Integer.toHexString(body.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.write("\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            } else {
+                byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\nContent-Length: " + body.length
+                        + "\r\nCache-Control: max-age=60, stale-while-revalidate=30\r\nLast-Modified: Thu, 01 Jan 2026 00:00:00 GMT\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+            }
+            out.flush();
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.append((char) b);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                return head.toString();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,272 @@
+package org.uni.batch;
+
+import org.uni.http.FetchResult;
+import org.uni.http.HttpClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.ObjIntConsumer;
+
+public class BatchFetcher {
+    public static final int DEFAULT_MAX_CONCURRENCY = 32;
+    public static final int DEFAULT_MAX_PER_HOST = 6;
+
+    private final HttpClient httpClient;
+    private final int maxConcurrency;
+    private final int maxPerHost;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public BatchFetcher(HttpClient httpClient, int maxConcurrency, int maxPerHost) {
+        this.httpClient = httpClient;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxPerHost = Math.max(1, maxPerHost);
+    }
+
+    public static List<String> readUrls(BufferedReader reader) throws IOException {
+        List<String> urls = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                urls.add(line);
+            }
+        }
+        return urls;
+    }
+
+    // Fetches all URLs concurrently and prints one status line per URL, either as each
+    // fetch completes or, when ordered, as soon as every earlier URL has been printed.
+    public void run(List<String> urls, String acceptHeader, boolean ordered, PrintStream out) throws InterruptedException {
+        Result[] results = new Result[urls.size()];
+        int[] nextToPrint = {0};
+        Semaphore globalPermits = new Semaphore(maxConcurrency);
+        CountDownLatch done = new CountDownLatch(urls.size());
+        long batchStart = System.nanoTime();
+        long coalescedBefore = httpClient.getCoalescedFetchCount();
+
+        ObjIntConsumer<Result> record = (result, index) -> {
+            synchronized (results) {
+                results[index] = result;
+                if (!ordered) {
+                    out.println(result.format());
+                } else {
+                    while (nextToPrint[0] < results.length && results[nextToPrint[0]] != null) {
+                        out.println(results[nextToPrint[0]++].format());
+                    }
+                }
+            }
+            done.countDown();
+        };
+
+        if (!httpClient.isHttp2Enabled()) {
+            new AsyncDispatch(urls, acceptHeader, record).dispatch();
+            done.await();
+        } else {
+            // HTTP/2 multiplexing is only available to the blocking client
+            ExecutorService executor = newExecutor();
+            try {
+                for (int i = 0; i < urls.size(); i++) {
+                    int index = i;
+                    String url = urls.get(i);
+                    executor.execute(() -> {
+                        Result result;
+                        try {
+                            result = fetchOne(url, acceptHeader, globalPermits);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            result = new Result(url, null, new IOException("Interrupted"), 0);
+                        }
+                        record.accept(result, index);
+                    });
+                }
+                done.await();
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        int failed = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                failed++;
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - batchStart) / 1_000_000;
+        out.println("Fetched " + results.length + " URLs in " + elapsedMillis + " ms ("
+                + (results.length - failed) + " ok, " + failed + " failed, "
+                + (httpClient.getCoalescedFetchCount() - coalescedBefore) + " shared an in-flight fetch)");
+    }
+
+    private Result fetchOne(String url, String acceptHeader, Semaphore globalPermits) throws InterruptedException {
+        Semaphore hostPermit = hostPermits.computeIfAbsent(hostOf(url), k -> new Semaphore(maxPerHost));
+        hostPermit.acquire();
+        try {
+            globalPermits.acquire();
+            try {
+                long start = System.nanoTime();
+                try {
+                    FetchResult fetchResult = httpClient.fetch(url, acceptHeader);
+                    return new Result(url, fetchResult, null, System.nanoTime() - start);
+                } catch (Exception e) {
+                    return new Result(url, null, e, System.nanoTime() - start);
+                }
+            } finally {
+                globalPermits.release();
+            }
+        } finally {
+            hostPermit.release();
+        }
+    }
+
+    // Keeps up to the global and per-host limits of fetchAsync calls running without a thread
+    // per URL: every completion frees its slot and starts whatever may run next.
+    private class AsyncDispatch {
+        private final List<String> urls;
+        private final String acceptHeader;
+        private final ObjIntConsumer<Result> record;
+        private final Deque<Integer> pending = new ArrayDeque<>();
+        private final Map<String, Integer> activePerHost = new HashMap<>();
+        private int active;
+        private boolean dispatching;
+        private boolean redispatch;
+
+        AsyncDispatch(List<String> urls, String acceptHeader, ObjIntConsumer<Result> record) {
+            this.urls = urls;
+            this.acceptHeader = acceptHeader;
+            this.record = record;
+            for (int i = 0; i < urls.size(); i++) {
+                pending.add(i);
+            }
+        }
+
+        // Only one thread dispatches at a time; a completion arriving meanwhile (on another
+        // thread, or inline for a cached result) just asks it for another round, so a batch of
+        // cached URLs does not recurse once per URL.
+        void dispatch() {
+            synchronized (this) {
+                if (dispatching) {
+                    redispatch = true;
+                    return;
+                }
+                dispatching = true;
+            }
+            while (true) {
+                List<Integer> startable = new ArrayList<>();
+                synchronized (this) {
+                    Iterator<Integer> iterator = pending.iterator();
+                    while (active < maxConcurrency && iterator.hasNext()) {
+                        int index = iterator.next();
+                        String host = hostOf(urls.get(index));
+                        int running = activePerHost.getOrDefault(host, 0);
+                        if (running < maxPerHost) {
+                            iterator.remove();
+                            activePerHost.put(host, running + 1);
+                            active++;
+                            startable.add(index);
+                        }
+                    }
+                }
+                for (int index : startable) {
+                    start(index);
+                }
+                synchronized (this) {
+                    if (!redispatch) {
+                        dispatching = false;
+                        return;
+                    }
+                    redispatch = false;
+                }
+            }
+        }
+
+        private void start(int index) {
+            String url = urls.get(index);
+            long start = System.nanoTime();
+            CompletableFuture<FetchResult> fetch;
+            try {
+                fetch = httpClient.fetchAsync(url, acceptHeader);
+            } catch (RuntimeException e) {
+                fetch = CompletableFuture.failedFuture(e);
+            }
+            fetch.whenComplete((fetchResult, error) -> {
+                synchronized (this) {
+                    active--;
+                    activePerHost.merge(hostOf(url), -1, Integer::sum);
+                }
+                record.accept(new Result(url, fetchResult, asException(error), System.nanoTime() - start), index);
+                dispatch();
+            });
+        }
+    }
+
+    private static Exception asException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null || error instanceof Exception) {
+            return (Exception) error;
+        }
+        return new IOException(error);
+    }
+
+    private static String hostOf(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (IOException e) {
+            return url;
+        }
+    }
+
+    // Virtual threads are used when the runtime has them (Java 21+); otherwise a cached
+    // pool of daemon platform threads, still bounded by the concurrency permits.
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "go2web-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static class Result {
+        private final String url;
+        private final FetchResult fetchResult;
+        private final Exception error;
+        private final long elapsedNanos;
+
+        Result(String url, FetchResult fetchResult, Exception error, long elapsedNanos) {
+            this.url = url;
+            this.fetchResult = fetchResult;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        String format() {
+            long millis = elapsedNanos / 1_000_000;
+            if (error != null) {
+                return String.format("[ERR] %6d ms  %s - %s", millis, url, error.getMessage());
+            }
+            return String.format("[%d] %6d ms  %8d chars  %s%s", fetchResult.getStatusCode(), millis,
+                    fetchResult.getContent().length(), url, fetchResult.isFromCache() ? " (cached)" : "");
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.uni.crawl;
+
+import org.uni.html.LinkExtractor;
+import org.uni.http.FetchResult;
+import org.uni.http.HttpClient;
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Breadth-first crawl from one URL. Pages are fetched with fetchSourceAsync, so a re-crawl is
+// served by the shared cache and only revalidates what went stale. Each host has its own queue:
+// its robots.txt is read before its first page, and its requests are spaced by the politeness
+// delay (or the robots.txt Crawl-delay, if longer) and capped per host as well as overall.
+public class Crawler {
+    public static final int DEFAULT_DEPTH = 2;
+    public static final int DEFAULT_MAX_PAGES = 100;
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+    public static final long DEFAULT_DELAY_MILLIS = 500;
+    static final String PRODUCT_TOKEN = "Go2Web";
+    // A longer Crawl-delay would stall a command-line crawl; such hosts get this instead
+    private static final long MAX_CRAWL_DELAY_MILLIS = 60_000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 2_000;
+    private static final String ACCEPT = "text/html, application/xhtml+xml, */*;q=0.8";
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "go2web-crawl");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HttpClient httpClient;
+    private final int maxConcurrency;
+    private final int maxPerHost;
+    private final long delayMillis;
+    private final Metrics metrics = Metrics.global();
+
+    public Crawler(HttpClient httpClient, int maxConcurrency, int maxPerHost, long delayMillis) {
+        this.httpClient = httpClient;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.delayMillis = Math.max(0, delayMillis);
+    }
+
+    // Prints one line per page as it completes and a progress line every couple of seconds.
+    // Links are followed up to maxDepth hops from startUrl, on its host only unless allHosts.
+    public void run(String startUrl, int maxDepth, int maxPages, boolean allHosts, PrintStream out)
+            throws InterruptedException {
+        String start = normalize(startUrl);
+        if (start == null) {
+            throw new IllegalArgumentException("Not an http or https URL: " + startUrl);
+        }
+        Crawl crawl = new Crawl(start, maxDepth, maxPages, allHosts, out);
+        crawl.dispatch();
+        try {
+            crawl.finished.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        crawl.printSummary();
+    }
+
+    // Lower-case scheme and host, no default port, no fragment, "/" for an empty path; null for
+    // anything that is not an absolute http(s) URL
+    static String normalize(String url) {
+        try {
+            URI uri = new URI(url);
+            String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : null;
+            if (!"http".equals(scheme) && !"https".equals(scheme) || uri.getHost() == null) {
+                return null;
+            }
+            int port = uri.getPort();
+            boolean defaultPort = port == -1 || (scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443);
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + (defaultPort ? "" : ":" + port)
+                    + path + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    // scheme://host[:port] of a normalized URL
+    private static String originOf(String url) {
+        return url.substring(0, url.indexOf('/', url.indexOf("://") + 3));
+    }
+
+    private static String pathOf(String url) {
+        return url.substring(originOf(url).length());
+    }
+
+    private static boolean isHtml(FetchResult result) {
+        String contentType = result.getContentType();
+        if (contentType != null) {
+            return contentType.toLowerCase(Locale.ROOT).contains("html");
+        }
+        return result.getContent() != null && result.getContent().stripLeading().startsWith("<");
+    }
+
+    private static final class Page {
+        final String url;
+        final int depth;
+
+        Page(String url, int depth) {
+            this.url = url;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Host {
+        final String origin;
+        final Deque<Page> pending = new ArrayDeque<>();
+        RobotsRules robots;
+        boolean robotsRequested;
+        long delayMillis;
+        long nextStart;
+        int active;
+
+        Host(String origin) {
+            this.origin = origin;
+        }
+    }
+
+    // State of one run. Everything except the output is guarded by the Crawl's lock; fetches
+    // are started and their results printed outside it.
+    private class Crawl {
+        private final String startOrigin;
+        private final int maxDepth;
+        private final int maxPages;
+        private final boolean allHosts;
+        private final PrintStream out;
+        private final UrlSet seen = new UrlSet();
+        private final Map<String, Host> hosts = new LinkedHashMap<>();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+        // Pages queued or fetched; robots.txt refusals give their place back
+        private int claimed;
+        private int active;
+        private int robotsLoading;
+        private int pages;
+        private int failed;
+        private int cached;
+        private int disallowed;
+        private long lastProgress = System.currentTimeMillis();
+        private long wakeupAt = Long.MAX_VALUE;
+        private boolean dispatching;
+        private boolean redispatch;
+
+        Crawl(String start, int maxDepth, int maxPages, boolean allHosts, PrintStream out) {
+            this.startOrigin = originOf(start);
+            this.maxDepth = Math.max(0, maxDepth);
+            this.maxPages = Math.max(1, maxPages);
+            this.allHosts = allHosts;
+            this.out = out;
+            synchronized (this) {
+                enqueue(start, 0);
+            }
+        }
+
+        private void enqueue(String url, int depth) {
+            String normalized = normalize(url);
+            if (normalized == null || claimed >= maxPages || !LinkExtractor.isLikelyPage(normalized)) {
+                return;
+            }
+            String origin = originOf(normalized);
+            if (!allHosts && !origin.equals(startOrigin)) {
+                return;
+            }
+            if (!seen.add(normalized)) {
+                return;
+            }
+            claimed++;
+            hosts.computeIfAbsent(origin, Host::new).pending.add(new Page(normalized, depth));
+        }
+
+        // Same trampoline as the batch dispatcher: one thread starts work at a time, and
+        // completions that arrive meanwhile ask it for another round.
+        void dispatch() {
+            synchronized (this) {
+                if (dispatching) {
+                    redispatch = true;
+                    return;
+                }
+                dispatching = true;
+            }
+            while (true) {
+                List<Host> robotsToLoad = new ArrayList<>();
+                List<Page> toFetch = new ArrayList<>();
+                List<Host> fetchHosts = new ArrayList<>();
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    long earliest = Long.MAX_VALUE;
+                    boolean anyPending = false;
+                    for (Host host : hosts.values()) {
+                        if (host.pending.isEmpty()) {
+                            continue;
+                        }
+                        if (host.robots == null) {
+                            if (!host.robotsRequested) {
+                                host.robotsRequested = true;
+                                robotsLoading++;
+                                robotsToLoad.add(host);
+                            }
+                            anyPending = true;
+                            continue;
+                        }
+                        while (!host.pending.isEmpty() && active < maxConcurrency && host.active < maxPerHost) {
+                            if (now < host.nextStart) {
+                                earliest = Math.min(earliest, host.nextStart);
+                                break;
+                            }
+                            Page page = host.pending.poll();
+                            if (!host.robots.isAllowed(pathOf(page.url))) {
+                                disallowed++;
+                                claimed--;
+                                metrics.increment(Metrics.CRAWL_DISALLOWED);
+                                continue;
+                            }
+                            host.active++;
+                            active++;
+                            host.nextStart = now + host.delayMillis;
+                            toFetch.add(page);
+                            fetchHosts.add(host);
+                        }
+                        anyPending |= !host.pending.isEmpty();
+                    }
+                    if (earliest < wakeupAt) {
+                        wakeupAt = earliest;
+                        TIMER.schedule(this::wakeUp, Math.max(0, earliest - now), TimeUnit.MILLISECONDS);
+                    }
+                    if (!anyPending && active == 0 && robotsLoading == 0 && toFetch.isEmpty() && robotsToLoad.isEmpty()) {
+                        finished.complete(null);
+                    }
+                }
+                for (Host host : robotsToLoad) {
+                    loadRobots(host);
+                }
+                for (int i = 0; i < toFetch.size(); i++) {
+                    fetch(toFetch.get(i), fetchHosts.get(i));
+                }
+                synchronized (this) {
+                    if (!redispatch) {
+                        dispatching = false;
+                        return;
+                    }
+                    redispatch = false;
+                }
+            }
+        }
+
+        private void wakeUp() {
+            synchronized (this) {
+                wakeupAt = Long.MAX_VALUE;
+            }
+            dispatch();
+        }
+
+        // A missing robots.txt (4xx) allows everything; one that cannot be fetched (5xx or a
+        // network error) disallows everything for now, as RFC 9309 asks
+        private void loadRobots(Host host) {
+            String robotsUrl = host.origin + "/robots.txt";
+            httpClient.fetchSourceAsync(robotsUrl, "text/plain, */*").whenComplete((result, error) -> {
+                RobotsRules rules;
+                if (error != null) {
+                    Log.warn("Cannot read " + robotsUrl + ", skipping the host: " + unwrap(error).getMessage());
+                    rules = RobotsRules.DISALLOW_ALL;
+                } else if (result.getStatusCode() >= 500) {
+                    Log.warn(robotsUrl + " answered " + result.getStatusCode() + ", skipping the host");
+                    rules = RobotsRules.DISALLOW_ALL;
+                } else if (result.getStatusCode() >= 400 || result.getStatusCode() < 200) {
+                    rules = RobotsRules.ALLOW_ALL;
+                } else {
+                    rules = RobotsRules.parse(result.getContent(), PRODUCT_TOKEN);
+                }
+                long crawlDelay = rules.getCrawlDelayMillis();
+                if (crawlDelay > MAX_CRAWL_DELAY_MILLIS) {
+                    Log.warn(robotsUrl + " asks for " + crawlDelay / 1000 + " s between requests, using "
+                            + MAX_CRAWL_DELAY_MILLIS / 1000 + " s");
+                    crawlDelay = MAX_CRAWL_DELAY_MILLIS;
+                }
+                synchronized (this) {
+                    host.robots = rules;
+                    host.delayMillis = Math.max(delayMillis, crawlDelay);
+                    robotsLoading--;
+                }
+                dispatch();
+            });
+        }
+
+        private void fetch(Page page, Host host) {
+            long start = System.nanoTime();
+            CompletableFuture<FetchResult> fetch;
+            try {
+                fetch = httpClient.fetchSourceAsync(page.url, ACCEPT);
+            } catch (RuntimeException e) {
+                fetch = CompletableFuture.failedFuture(e);
+            }
+            fetch.whenComplete((result, error) -> {
+                List<String> links = error == null && page.depth < maxDepth && isHtml(result)
+                        ? LinkExtractor.extract(result.getContent(), result.getUrl()) : List.of();
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                String line;
+                synchronized (this) {
+                    host.active--;
+                    active--;
+                    pages++;
+                    metrics.increment(Metrics.CRAWL_PAGES);
+                    if (error != null) {
+                        failed++;
+                        line = String.format("[ERR] d%d %6d ms  %s - %s", page.depth, millis, page.url, unwrap(error).getMessage());
+                    } else {
+                        if (result.isFromCache()) {
+                            cached++;
+                        }
+                        // Redirect targets count as visited too
+                        String finalUrl = normalize(result.getUrl());
+                        if (finalUrl != null) {
+                            seen.add(finalUrl);
+                        }
+                        for (String link : links) {
+                            enqueue(link, page.depth + 1);
+                        }
+                        line = String.format("[%d] d%d %6d ms  %4d links  %s%s", result.getStatusCode(), page.depth,
+                                millis, links.size(), page.url, result.isFromCache() ? " (cached)" : "");
+                    }
+                }
+                synchronized (out) {
+                    out.println(line);
+                    printProgressIfDue();
+                }
+                dispatch();
+            });
+        }
+
+        private void printProgressIfDue() {
+            long now = System.currentTimeMillis();
+            String progress;
+            synchronized (this) {
+                if (now - lastProgress < PROGRESS_INTERVAL_MILLIS) {
+                    return;
+                }
+                lastProgress = now;
+                int queued = 0;
+                for (Host host : hosts.values()) {
+                    queued += host.pending.size();
+                }
+                double seconds = (System.nanoTime() - startNanos) / 1e9;
+                progress = String.format("--- %d pages in %.1f s, %.1f pages/s, %d queued", pages, seconds,
+                        pages / seconds, queued);
+            }
+            out.println(progress);
+        }
+
+        void printSummary() {
+            String summary;
+            synchronized (this) {
+                double seconds = (System.nanoTime() - startNanos) / 1e9;
+                summary = String.format("Crawled %d pages on %d hosts in %.1f s (%.1f pages/s, %d failed, %d from cache, "
+                        + "%d disallowed by robots.txt)", pages, hosts.size(), seconds, pages / seconds, failed, cached,
+                        disallowed);
+            }
+            out.println(summary);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
@@ -0,0 +1,159 @@
+package org.uni.crawl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// The part of a robots.txt (RFC 9309) that applies to us: the groups naming our product token,
+// or the * groups when none does. Paths may use * and $; the longest matching rule decides and
+// Allow wins a tie. Crawl-delay is not in the RFC but widely used, so it is honoured as well.
+public class RobotsRules {
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), 0);
+    public static final RobotsRules DISALLOW_ALL = new RobotsRules(List.of(new Rule("/", false)), 0);
+
+    private final List<Rule> rules;
+    private final long crawlDelayMillis;
+
+    private RobotsRules(List<Rule> rules, long crawlDelayMillis) {
+        this.rules = rules;
+        this.crawlDelayMillis = crawlDelayMillis;
+    }
+
+    public static RobotsRules parse(String text, String productToken) {
+        String token = productToken.toLowerCase(Locale.ROOT);
+        List<Rule> ours = new ArrayList<>();
+        List<Rule> anyone = new ArrayList<>();
+        long ourDelay = 0;
+        long anyoneDelay = 0;
+        boolean oursNamed = false;
+        boolean groupIsOurs = false;
+        boolean groupIsAnyone = false;
+        // A user-agent line after rules starts a new group
+        boolean groupHasRules = false;
+
+        for (String line : text.split("\r?\n|\r")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            switch (field) {
+                case "user-agent": {
+                    if (groupHasRules) {
+                        groupIsOurs = false;
+                        groupIsAnyone = false;
+                        groupHasRules = false;
+                    }
+                    String agent = value.toLowerCase(Locale.ROOT);
+                    if (agent.equals(token)) {
+                        groupIsOurs = true;
+                        oursNamed = true;
+                    } else if (agent.equals("*")) {
+                        groupIsAnyone = true;
+                    }
+                    break;
+                }
+                case "allow":
+                case "disallow": {
+                    groupHasRules = true;
+                    // An empty Disallow allows everything, which is the default anyway
+                    if (value.isEmpty()) {
+                        break;
+                    }
+                    Rule rule = new Rule(value, field.equals("allow"));
+                    if (groupIsOurs) {
+                        ours.add(rule);
+                    }
+                    if (groupIsAnyone) {
+                        anyone.add(rule);
+                    }
+                    break;
+                }
+                case "crawl-delay": {
+                    groupHasRules = true;
+                    long delay;
+                    try {
+                        delay = (long) (Double.parseDouble(value) * 1000);
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                    if (groupIsOurs) {
+                        ourDelay = delay;
+                    }
+                    if (groupIsAnyone) {
+                        anyoneDelay = delay;
+                    }
+                    break;
+                }
+                default:
+                    // Sitemap and unknown records belong to no group
+            }
+        }
+        return oursNamed ? new RobotsRules(ours, ourDelay) : new RobotsRules(anyone, anyoneDelay);
+    }
+
+    // pathAndQuery as in the request line, e.g. /search?q=x
+    public boolean isAllowed(String pathAndQuery) {
+        if (pathAndQuery.equals("/robots.txt")) {
+            return true;
+        }
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.matches(pathAndQuery) && (best == null || rule.length() > best.length()
+                    || (rule.length() == best.length() && rule.allow))) {
+                best = rule;
+            }
+        }
+        return best == null || best.allow;
+    }
+
+    public long getCrawlDelayMillis() {
+        return crawlDelayMillis;
+    }
+
+    private static class Rule {
+        private final String path;
+        private final boolean allow;
+        private final Pattern pattern;
+
+        Rule(String path, boolean allow) {
+            this.path = path;
+            this.allow = allow;
+            this.pattern = compile(path);
+        }
+
+        int length() {
+            return path.length();
+        }
+
+        boolean matches(String pathAndQuery) {
+            return pattern != null ? pattern.matcher(pathAndQuery).lookingAt() : pathAndQuery.startsWith(path);
+        }
+
+        // Only paths with wildcards need a regular expression; the rest are plain prefixes
+        private static Pattern compile(String path) {
+            if (path.indexOf('*') < 0 && !path.endsWith("$")) {
+                return null;
+            }
+            boolean anchored = path.endsWith("$");
+            String body = anchored ? path.substring(0, path.length() - 1) : path;
+            StringBuilder regex = new StringBuilder();
+            String[] literals = body.split("\\*", -1);
+            for (int i = 0; i < literals.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                if (!literals[i].isEmpty()) {
+                    regex.append(Pattern.quote(literals[i]));
+                }
+            }
+            return Pattern.compile(anchored ? regex + "$" : regex.toString(), Pattern.DOTALL);
+        }
+    }
+}
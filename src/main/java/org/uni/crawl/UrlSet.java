@@ -0,0 +1,60 @@
+package org.uni.crawl;
+
+// URLs already seen by a crawl, kept as 64-bit fingerprints in an open-addressing table: 8 to
+// 16 bytes per URL instead of a String plus a hash map node. Two URLs with the same fingerprint
+// (odds of about one in 30 million across a million URLs) would make the second look visited.
+public class UrlSet {
+    private long[] table = new long[1024];
+    private int size;
+
+    // True if the URL was not in the set yet
+    public synchronized boolean add(String url) {
+        if ((size + 1) * 4 > table.length * 3) {
+            long[] old = table;
+            table = new long[old.length * 2];
+            for (long fingerprint : old) {
+                if (fingerprint != 0) {
+                    insert(table, fingerprint);
+                }
+            }
+        }
+        if (!insert(table, fingerprint(url))) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static boolean insert(long[] table, long fingerprint) {
+        int mask = table.length - 1;
+        for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+            if (table[i] == 0) {
+                table[i] = fingerprint;
+                return true;
+            }
+            if (table[i] == fingerprint) {
+                return false;
+            }
+        }
+    }
+
+    // FNV-1a over the characters, then the MurmurHash3 finalizer so the low bits that pick the
+    // slot depend on the whole URL. 0 marks an empty slot and is never returned.
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,98 @@
+package org.uni.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+
+// Forwards one go2web command to a running daemon and replays its output. This is the whole
+// program the JVM runs in that case, and it only touches java.base, so it starts in a fraction
+// of the time a full go2web run needs. Exits with DaemonProtocol.EXIT_NO_DAEMON when nothing
+// is listening, so the go2web script can run the command itself.
+public class DaemonClient {
+
+    public static void main(String[] args) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(DaemonProtocol.socketPath()));
+        } catch (IOException e) {
+            System.exit(DaemonProtocol.EXIT_NO_DAEMON);
+            return;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(DaemonProtocol.inputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(DaemonProtocol.outputStream(channel)));
+            // The go2web script changes directory before starting Java, so it passes the caller's
+            String workingDirectory = System.getProperty("go2web.cwd", System.getProperty("user.dir"));
+            out.writeInt(DaemonProtocol.MAGIC);
+            out.writeUTF(workingDirectory);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            System.exit(relay(in, out));
+        } catch (IOException e) {
+            System.err.println("Error: lost connection to the go2web daemon: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static int relay(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                throw new IOException("daemon closed the connection");
+            }
+            byte[] payload = DaemonProtocol.readPayload(in);
+            switch (type) {
+                case DaemonProtocol.OUT:
+                    System.out.write(payload, 0, payload.length);
+                    break;
+                case DaemonProtocol.ERR:
+                    System.out.flush();
+                    System.err.write(payload, 0, payload.length);
+                    System.err.flush();
+                    break;
+                case DaemonProtocol.STDIN_REQUEST:
+                    startStdinPump(out);
+                    break;
+                case DaemonProtocol.EXIT:
+                    System.out.flush();
+                    System.err.flush();
+                    return new DataInputStream(new ByteArrayInputStream(payload)).readInt();
+                default:
+                    throw new IOException("unexpected frame type " + type);
+            }
+        }
+    }
+
+    private static void startStdinPump(DataOutputStream out) {
+        Thread pump = new Thread(() -> {
+            byte[] buffer = new byte[8192];
+            try {
+                InputStream stdin = System.in;
+                int n;
+                while ((n = stdin.read(buffer)) != -1) {
+                    DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, n);
+                }
+                DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, 0);
+            } catch (IOException e) {
+                // The command finished or the daemon went away; the main loop reports it
+            }
+        }, "go2web-stdin");
+        pump.setDaemon(true);
+        pump.start();
+    }
+}
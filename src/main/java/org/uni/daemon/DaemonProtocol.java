@@ -0,0 +1,107 @@
+package org.uni.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Wire format between the go2web client and the daemon over a Unix domain socket.
+// The client opens with a request: MAGIC, working directory, argument count, arguments.
+// After that both sides exchange frames of one type byte, an int length and the payload.
+// The daemon sends OUT and ERR for the command's output, STDIN_REQUEST the first time the
+// command reads standard input, and finally EXIT with the exit code. The client answers a
+// STDIN_REQUEST with STDIN frames, ending with an empty one at EOF.
+// Only java.base is used here, so the client JVM loads nothing else.
+public final class DaemonProtocol {
+    public static final int MAGIC = 0x67327701;
+    public static final String STOP_COMMAND = "--daemon-stop";
+
+    public static final byte OUT = 1;
+    public static final byte ERR = 2;
+    public static final byte EXIT = 3;
+    public static final byte STDIN_REQUEST = 4;
+    public static final byte STDIN = 5;
+
+    // Exit code of the client when no daemon answers, so the script runs the command itself
+    public static final int EXIT_NO_DAEMON = 75;
+    private static final int MAX_FRAME = 1 << 20;
+
+    private DaemonProtocol() {
+    }
+
+    public static Path socketPath() {
+        String configured = System.getProperty("go2web.daemon.socket");
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("user.home"), ".go2web_daemon.sock");
+    }
+
+    // Channels.newInputStream/newOutputStream make a read and a write on a blocking channel wait
+    // for each other, and the client reads frames while its stdin pump writes. These do not.
+    public static InputStream inputStream(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] data, int offset, int length) throws IOException {
+                return length == 0 ? 0 : channel.read(ByteBuffer.wrap(data, offset, length));
+            }
+        };
+    }
+
+    public static OutputStream outputStream(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    public static void writeFrame(DataOutputStream out, byte type, byte[] data, int offset, int length) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(length);
+            out.write(data, offset, length);
+            out.flush();
+        }
+    }
+
+    public static void writeExit(DataOutputStream out, int code) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(4);
+            out.writeInt(code);
+            out.flush();
+        }
+    }
+
+    // Reads a frame's payload once its type byte has been read
+    public static byte[] readPayload(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Invalid daemon frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,282 @@
+package org.uni.daemon;
+
+import org.uni.Go2Web;
+import org.uni.http.CacheManager;
+import org.uni.http.ConnectionPool;
+import org.uni.http.HttpClient;
+import org.uni.metrics.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Long-lived go2web process. Commands forwarded by DaemonClient run here against one shared
+// HttpClient, so the memory cache, pooled (and HTTP/2) connections, the DNS and TLS session
+// caches and JIT-compiled code survive from one go2web call to the next. Each connection runs
+// one command on its own thread; its output goes back to the caller, not to the daemon's
+// stdout, which only carries the daemon's own log.
+public class DaemonServer {
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 30;
+    private static final int OUTPUT_CHUNK = 64 * 1024;
+
+    private final Path socketPath;
+    private final HttpClient httpClient;
+    private final ExecutorService handlers = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "go2web-daemon-command");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = true;
+    private ServerSocketChannel server;
+
+    public DaemonServer(Path socketPath, HttpClient httpClient) {
+        this.socketPath = socketPath;
+        this.httpClient = httpClient;
+    }
+
+    // go2web --daemon [-v] [--http2] [--prefetch]
+    public static void main(String[] args) {
+        HttpClient httpClient = new HttpClient(new CacheManager(true), ConnectionPool.shared());
+        for (String arg : args) {
+            switch (arg) {
+                case "-v":
+                    Log.setLevel(Log.Level.DEBUG);
+                    break;
+                case "--http2":
+                    httpClient.setHttp2Enabled(true);
+                    break;
+                case "--prefetch":
+                    httpClient.getPrefetcher().setEnabled(true);
+                    break;
+                default:
+                    System.err.println("Error: unknown daemon option " + arg);
+                    return;
+            }
+        }
+        try {
+            new DaemonServer(DaemonProtocol.socketPath(), httpClient).serve();
+        } catch (IOException e) {
+            System.err.println("Error: daemon failed: " + e.getMessage());
+        }
+    }
+
+    public void serve() throws IOException {
+        if (Files.exists(socketPath)) {
+            if (isAnswering(socketPath)) {
+                throw new IOException("a daemon is already listening on " + socketPath);
+            }
+            // Left behind by a daemon that was killed
+            Files.delete(socketPath);
+        }
+        // Whoever can connect can make us fetch URLs and clear the cache. The socket is created in
+        // a directory only we can enter and made owner-only there, then moved into place, so it
+        // is never reachable with the umask's permissions.
+        Path privateDirectory = Files.createTempDirectory(socketPath.toAbsolutePath().getParent(), ".go2web-daemon",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        Path boundPath = privateDirectory.resolve("socket");
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(boundPath));
+            Files.setPosixFilePermissions(boundPath, PosixFilePermissions.fromString("rw-------"));
+            Files.move(boundPath, socketPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            server.close();
+            Files.deleteIfExists(boundPath);
+            throw e;
+        } finally {
+            Files.deleteIfExists(privateDirectory);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::removeSocket));
+
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "go2web-daemon-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        System.out.println("go2web daemon listening on " + socketPath);
+
+        try {
+            while (running) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    if (!running) {
+                        break;
+                    }
+                    throw e;
+                }
+                handlers.execute(() -> handle(channel));
+            }
+        } finally {
+            maintenance.shutdownNow();
+            httpClient.getConnectionPool().closeAll();
+            removeSocket();
+        }
+        System.out.println("go2web daemon stopped");
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // accept() fails and the loop ends either way
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(DaemonProtocol.inputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(DaemonProtocol.outputStream(channel)));
+            if (in.readInt() != DaemonProtocol.MAGIC) {
+                return;
+            }
+            Path workingDirectory = Paths.get(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            if (args.length == 1 && args[0].equals(DaemonProtocol.STOP_COMMAND)) {
+                byte[] message = "go2web daemon stopping\n".getBytes(StandardCharsets.UTF_8);
+                DaemonProtocol.writeFrame(out, DaemonProtocol.OUT, message, 0, message.length);
+                DaemonProtocol.writeExit(out, 0);
+                stop();
+                return;
+            }
+
+            PrintStream stdout = new PrintStream(new FrameOutputStream(out, DaemonProtocol.OUT), true, StandardCharsets.UTF_8);
+            PrintStream stderr = new PrintStream(new FrameOutputStream(out, DaemonProtocol.ERR), true, StandardCharsets.UTF_8);
+            int exitCode = 0;
+            try {
+                Go2Web go2web = new Go2Web(httpClient, new RemoteStdin(in, out), stdout, stderr, workingDirectory, true);
+                go2web.run(args);
+                exitCode = go2web.getExitCode();
+            } catch (RuntimeException e) {
+                stderr.println("Error: " + e);
+                exitCode = 1;
+            }
+            stdout.flush();
+            stderr.flush();
+            DaemonProtocol.writeExit(out, exitCode);
+        } catch (IOException e) {
+            // The client went away; nothing is left to report to
+            Log.debug("Daemon client disconnected: " + e.getMessage());
+        }
+    }
+
+    private void maintain() {
+        httpClient.getConnectionPool().evictIdle();
+        httpClient.getCacheManager().purgeExpired();
+    }
+
+    private void removeSocket() {
+        try {
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            // Nothing more we can do on the way out
+        }
+    }
+
+    static boolean isAnswering(Path socketPath) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Sends everything written to it to the client as frames of one type
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            for (int chunk; length > 0; offset += chunk, length -= chunk) {
+                chunk = Math.min(length, OUTPUT_CHUNK);
+                DaemonProtocol.writeFrame(out, type, data, offset, chunk);
+            }
+        }
+    }
+
+    // Standard input of the client, only requested once the command actually reads it
+    private static class RemoteStdin extends InputStream {
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private boolean requested;
+        private boolean eof;
+        private byte[] buffer = new byte[0];
+        private int position;
+
+        RemoteStdin(DataInputStream in, DataOutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position == buffer.length) {
+                if (eof) {
+                    return -1;
+                }
+                if (!requested) {
+                    requested = true;
+                    DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN_REQUEST, new byte[0], 0, 0);
+                }
+                if (in.readByte() != DaemonProtocol.STDIN) {
+                    throw new IOException("Unexpected frame from the go2web client");
+                }
+                buffer = DaemonProtocol.readPayload(in);
+                position = 0;
+                eof = buffer.length == 0;
+            }
+            int n = Math.min(length, buffer.length - position);
+            System.arraycopy(buffer, position, target, offset, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -40,12 +40,13 @@ public class HtmlParser {
         }
 
         String formattedHeaders = headers.toString().replaceAll("(?m)^", "  ");
-        String parsedBody = parseHtmlContentInternal(responseBody);
+        String parsedBody = HtmlRenderer.render(responseBody);
 
         return "=== Headers ===\n" + formattedHeaders + "\n\n=== Body ===\n" + parsedBody;
     }
 
-    private static String parseHtmlContentInternal(String htmlContent) {
+    // Original regex-chain renderer, kept as the reference output for parity checks and benchmarks.
+    public static String parseHtmlContentLegacy(String htmlContent) {
         String body = htmlContent.replaceAll("(?s)<script.*?</script>", ""); // Remove scripts
         body = body.replaceAll("(?s)<style.*?</style>", "");   // Remove styles
 
@@ -91,6 +92,52 @@ public class HtmlParser {
     }
 
     public static String parseHtmlContent(String htmlContent) {
-        return parseHtmlContentInternal(htmlContent);
+        return HtmlRenderer.render(htmlContent);
+    }
+
+    static String decodeEntity(CharSequence entity) {
+        return HTML_ENTITIES.get(entity.toString());
+    }
+
+    // Decodes the named entities above and numeric ones (&#183; &#x2014;) in a text fragment;
+    // anything else is left as it is
+    public static String decodeEntities(String text) {
+        int amp = text.indexOf('&');
+        if (amp < 0) {
+            return text;
+        }
+        StringBuilder decoded = new StringBuilder(text.length());
+        int copied = 0;
+        while (amp >= 0) {
+            int semicolon = text.indexOf(';', amp);
+            if (semicolon < 0) {
+                break;
+            }
+            if (semicolon - amp > 10) {
+                // A bare ampersand, as in AT&T; later entities are still decoded
+                amp = text.indexOf('&', amp + 1);
+                continue;
+            }
+            String replacement = decodeEntity(text.substring(amp, semicolon + 1));
+            if (replacement == null && text.charAt(amp + 1) == '#') {
+                replacement = decodeNumericEntity(text.substring(amp + 2, semicolon));
+            }
+            if (replacement != null) {
+                decoded.append(text, copied, amp).append(replacement);
+                copied = semicolon + 1;
+            }
+            amp = text.indexOf('&', amp + 1);
+        }
+        return decoded.append(text, copied, text.length()).toString();
+    }
+
+    private static String decodeNumericEntity(String digits) {
+        try {
+            int codePoint = digits.startsWith("x") || digits.startsWith("X")
+                    ? Integer.parseInt(digits.substring(1), 16) : Integer.parseInt(digits);
+            return Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 } 
\ No newline at end of file
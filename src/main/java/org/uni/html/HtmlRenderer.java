@@ -0,0 +1,326 @@
+package org.uni.html;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Single-pass HTML to terminal text renderer. Input can be fed in arbitrary chunks as it
+// arrives; tokenizer state (partial tags, entities, script bodies) is carried between calls
+// and finished lines are written to the output as soon as they are complete.
+public class HtmlRenderer {
+    private static final String BOLD = "\033[1m";
+    private static final String ITALIC = "\033[3m";
+    private static final String CYAN = "\033[36m";
+    private static final String BLUE = "\033[34m";
+    private static final String RESET = "\033[0m";
+    private static final String RULE = "\n" + "─".repeat(40) + "\n";
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int ENTITY = 2;
+    private static final int COMMENT = 3;
+    private static final int RAW_TEXT = 4;
+    private static final int RAW_TEXT_END = 5;
+
+    private static final Map<String, String> TAG_OUTPUT = new HashMap<>();
+
+    static {
+        for (String block : new String[]{"div", "p", "section", "article", "header", "footer", "nav", "main", "aside"}) {
+            TAG_OUTPUT.put(block, "\n\n");
+            TAG_OUTPUT.put("/" + block, "\n\n");
+        }
+        TAG_OUTPUT.put("br", "\n");
+        TAG_OUTPUT.put("hr", RULE);
+        for (String heading : new String[]{"h1", "h2", "h3"}) {
+            TAG_OUTPUT.put(heading, "\n\n" + BOLD);
+            TAG_OUTPUT.put("/" + heading, RESET + "\n");
+        }
+        for (String heading : new String[]{"h4", "h5", "h6"}) {
+            TAG_OUTPUT.put(heading, "\n\n");
+            TAG_OUTPUT.put("/" + heading, "\n");
+        }
+        for (String list : new String[]{"ul", "ol", "/ul", "/ol"}) {
+            TAG_OUTPUT.put(list, "\n");
+        }
+        TAG_OUTPUT.put("li", "  • ");
+        TAG_OUTPUT.put("/li", "\n");
+        TAG_OUTPUT.put("b", BOLD);
+        TAG_OUTPUT.put("/b", RESET);
+        TAG_OUTPUT.put("i", ITALIC);
+        TAG_OUTPUT.put("/i", RESET);
+        TAG_OUTPUT.put("code", CYAN);
+        TAG_OUTPUT.put("/code", RESET);
+        TAG_OUTPUT.put("pre", "\n" + CYAN);
+        TAG_OUTPUT.put("/pre", RESET + "\n");
+    }
+
+    private final LineWriter lines;
+    private final StringBuilder token = new StringBuilder();
+    private int state = TEXT;
+    private String rawTextEnd;
+    private int rawTextMatched;
+
+    public HtmlRenderer(Appendable out) {
+        this.lines = new LineWriter(out);
+    }
+
+    public static String render(String html) {
+        StringBuilder out = new StringBuilder(html.length() / 2);
+        HtmlRenderer renderer = new HtmlRenderer(out);
+        try {
+            renderer.feed(html);
+            renderer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    public void feed(CharSequence chunk) throws IOException {
+        for (int i = 0, n = chunk.length(); i < n; i++) {
+            process(chunk.charAt(i));
+        }
+    }
+
+    public void feed(char[] buffer, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            process(buffer[i]);
+        }
+    }
+
+    public void finish() throws IOException {
+        if (state == TAG) {
+            lines.write('<');
+            lines.write(token);
+        } else if (state == ENTITY) {
+            lines.write(token);
+        }
+        token.setLength(0);
+        state = TEXT;
+        lines.finish();
+    }
+
+    private void process(char c) throws IOException {
+        switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    state = TAG;
+                    token.setLength(0);
+                } else if (c == '&') {
+                    state = ENTITY;
+                    token.setLength(0);
+                    token.append(c);
+                } else {
+                    lines.write(c);
+                }
+                break;
+            case TAG:
+                if (c == '>') {
+                    if (token.length() == 0) {
+                        lines.write("<>");
+                        state = TEXT;
+                    } else {
+                        handleTag();
+                    }
+                } else {
+                    token.append(c);
+                    if (token.length() == 3 && token.charAt(0) == '!' && token.charAt(1) == '-' && token.charAt(2) == '-') {
+                        state = COMMENT;
+                        token.setLength(0);
+                    }
+                }
+                break;
+            case ENTITY:
+                if (c == ';') {
+                    token.append(c);
+                    String decoded = HtmlParser.decodeEntity(token);
+                    lines.write(decoded != null ? decoded : token);
+                    state = TEXT;
+                } else if (Character.isLetterOrDigit(c) || (c == '#' && token.length() == 1)) {
+                    token.append(c);
+                    if (token.length() > MAX_ENTITY_LENGTH) {
+                        lines.write(token);
+                        state = TEXT;
+                    }
+                } else {
+                    lines.write(token);
+                    state = TEXT;
+                    process(c);
+                }
+                break;
+            case COMMENT:
+                // token holds at most the last two characters seen inside the comment
+                if (c == '>' && token.length() == 2 && token.charAt(0) == '-' && token.charAt(1) == '-') {
+                    state = TEXT;
+                } else {
+                    if (token.length() == 2) {
+                        token.deleteCharAt(0);
+                    }
+                    token.append(c);
+                }
+                break;
+            case RAW_TEXT:
+                char lower = Character.toLowerCase(c);
+                if (lower == rawTextEnd.charAt(rawTextMatched)) {
+                    if (++rawTextMatched == rawTextEnd.length()) {
+                        state = RAW_TEXT_END;
+                    }
+                } else {
+                    rawTextMatched = c == '<' ? 1 : 0;
+                }
+                break;
+            case RAW_TEXT_END:
+                if (c == '>') {
+                    state = TEXT;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown renderer state " + state);
+        }
+    }
+
+    private void handleTag() throws IOException {
+        String name = tagName(token);
+        state = TEXT;
+        if (name.equals("script") || name.equals("style")) {
+            if (token.charAt(token.length() - 1) != '/') {
+                rawTextEnd = "</" + name;
+                rawTextMatched = 0;
+                state = RAW_TEXT;
+            }
+            return;
+        }
+        String output = TAG_OUTPUT.get(name);
+        if (output != null) {
+            lines.write(output);
+        }
+    }
+
+    // Lower-cased tag name with a leading '/' for end tags, e.g. "h1" or "/li".
+    private static String tagName(CharSequence tag) {
+        StringBuilder name = new StringBuilder(8);
+        int i = 0;
+        if (tag.length() > 0 && tag.charAt(0) == '/') {
+            name.append('/');
+            i = 1;
+        }
+        for (; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                break;
+            }
+            name.append(Character.toLowerCase(c));
+        }
+        return name.toString();
+    }
+
+    // Output stage: blank and whitespace-only lines collapse to at most one empty line,
+    // leading and trailing whitespace of the whole document is dropped and URLs are highlighted.
+    private static class LineWriter {
+        private final Appendable out;
+        private final StringBuilder line = new StringBuilder(256);
+        private final StringBuilder pendingWhitespace = new StringBuilder();
+        private boolean started;
+        private boolean pendingBlank;
+
+        LineWriter(Appendable out) {
+            this.out = out;
+        }
+
+        void write(char c) throws IOException {
+            if (c == '\n') {
+                endLine();
+            } else {
+                line.append(c);
+            }
+        }
+
+        void write(CharSequence text) throws IOException {
+            for (int i = 0, n = text.length(); i < n; i++) {
+                write(text.charAt(i));
+            }
+        }
+
+        void finish() throws IOException {
+            endLine();
+        }
+
+        private void endLine() throws IOException {
+            int start = 0;
+            int end = line.length();
+            while (start < end && isSpace(line.charAt(start))) {
+                start++;
+            }
+            if (start == end) {
+                pendingBlank |= started;
+                line.setLength(0);
+                return;
+            }
+            while (isSpace(line.charAt(end - 1))) {
+                end--;
+            }
+            if (started) {
+                out.append(pendingWhitespace).append('\n');
+                if (pendingBlank) {
+                    out.append('\n');
+                }
+                writeHighlighted(0, end);
+            } else {
+                writeHighlighted(start, end);
+                started = true;
+            }
+            pendingWhitespace.setLength(0);
+            pendingWhitespace.append(line, end, line.length());
+            pendingBlank = false;
+            line.setLength(0);
+        }
+
+        private void writeHighlighted(int start, int end) throws IOException {
+            int position = start;
+            while (position < end) {
+                int url = findUrl(position, end);
+                if (url < 0) {
+                    break;
+                }
+                int urlEnd = url;
+                while (urlEnd < end && !isSpace(line.charAt(urlEnd))) {
+                    urlEnd++;
+                }
+                out.append(line, position, url).append(BLUE).append(line, url, urlEnd).append(RESET);
+                position = urlEnd;
+            }
+            out.append(line, position, end);
+        }
+
+        private int findUrl(int from, int end) {
+            for (int i = from; i + 7 <= end; i++) {
+                if (line.charAt(i) == 'h' && (startsWith(i, "http://", end) || startsWith(i, "https://", end))) {
+                    // A bare scheme without anything after it is not highlighted
+                    int schemeEnd = line.charAt(i + 4) == 's' ? i + 8 : i + 7;
+                    if (schemeEnd < end && !isSpace(line.charAt(schemeEnd))) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(int index, String prefix, int end) {
+            if (index + prefix.length() > end) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (line.charAt(index + i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+        }
+    }
+}
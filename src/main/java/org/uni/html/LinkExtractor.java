@@ -0,0 +1,220 @@
+package org.uni.html;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Followable links of an HTML page, in document order: the href of every <a> and <area>,
+// resolved against the page URL or its <base href> and without the fragment. Comments and
+// script/style bodies are skipped in one jump. rel="nofollow" links are left out, and a page
+// with <meta name="robots" content="nofollow"> gives none.
+public class LinkExtractor {
+    // Links that are almost never HTML; following them only spends a page budget
+    private static final String[] NON_PAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".webp", ".svg", ".ico",
+            ".css", ".js", ".pdf", ".zip", ".gz", ".tgz", ".tar", ".rar", ".7z", ".exe", ".dmg", ".iso", ".mp3",
+            ".mp4", ".avi", ".mov", ".woff", ".woff2", ".ttf"};
+
+    private LinkExtractor() {
+    }
+
+    public static List<String> extract(String html, String pageUrl) {
+        List<String> links = new ArrayList<>();
+        URI base = baseUri(pageUrl);
+        if (base == null) {
+            return links;
+        }
+        int pos = 0;
+        while (true) {
+            int lt = html.indexOf('<', pos);
+            if (lt < 0 || lt + 1 >= html.length()) {
+                break;
+            }
+            pos = lt + 1;
+            if (html.startsWith("!--", pos)) {
+                int close = html.indexOf("-->", pos + 3);
+                if (close < 0) {
+                    break;
+                }
+                pos = close + 3;
+                continue;
+            }
+            int nameEnd = pos;
+            while (nameEnd < html.length() && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (nameEnd == pos || nameEnd - pos > 6) {
+                continue;
+            }
+            String tag = html.substring(pos, nameEnd).toLowerCase(Locale.ROOT);
+            int gt = tagEnd(html, nameEnd);
+            if (gt < 0) {
+                break;
+            }
+            pos = gt + 1;
+            switch (tag) {
+                case "script":
+                case "style": {
+                    int close = indexOfEndTag(html, tag, pos);
+                    if (close < 0) {
+                        return links;
+                    }
+                    pos = close;
+                    break;
+                }
+                case "base": {
+                    String href = attribute(html, nameEnd, gt, "href");
+                    URI resolved = href != null ? resolve(base, href) : null;
+                    if (resolved != null) {
+                        base = resolved;
+                    }
+                    break;
+                }
+                case "meta": {
+                    String name = attribute(html, nameEnd, gt, "name");
+                    String content = attribute(html, nameEnd, gt, "content");
+                    if (name != null && name.equalsIgnoreCase("robots") && content != null
+                            && content.toLowerCase(Locale.ROOT).matches(".*\\b(nofollow|none)\\b.*")) {
+                        return new ArrayList<>();
+                    }
+                    break;
+                }
+                case "a":
+                case "area": {
+                    String href = attribute(html, nameEnd, gt, "href");
+                    String rel = attribute(html, nameEnd, gt, "rel");
+                    if (href == null || (rel != null && rel.toLowerCase(Locale.ROOT).contains("nofollow"))) {
+                        break;
+                    }
+                    URI resolved = resolve(base, href);
+                    if (resolved != null && ("http".equalsIgnoreCase(resolved.getScheme())
+                            || "https".equalsIgnoreCase(resolved.getScheme()))) {
+                        String link = resolved.toString();
+                        int hash = link.indexOf('#');
+                        links.add(hash >= 0 ? link.substring(0, hash) : link);
+                    }
+                    break;
+                }
+                default:
+            }
+        }
+        return links;
+    }
+
+    // False for URLs whose path ends in a file extension that is almost never a page
+    public static boolean isLikelyPage(String url) {
+        int query = url.indexOf('?');
+        String path = (query >= 0 ? url.substring(0, query) : url).toLowerCase(Locale.ROOT);
+        for (String extension : NON_PAGE_EXTENSIONS) {
+            if (path.endsWith(extension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static URI baseUri(String pageUrl) {
+        try {
+            URI uri = new URI(pageUrl);
+            // Resolving against http://host without a path would drop the slash
+            return uri.getRawPath() == null || uri.getRawPath().isEmpty() ? uri.resolve("/") : uri;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static URI resolve(URI base, String href) {
+        String trimmed = HtmlParser.decodeEntities(href.trim()).replace(" ", "%20");
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        try {
+            if (trimmed.startsWith("?")) {
+                // URI.resolve follows RFC 2396 here and drops the last path segment; RFC 3986 keeps it
+                return new URI(base.toString().split("[?#]", 2)[0] + trimmed);
+            }
+            return base.resolve(new URI(trimmed));
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int indexOfEndTag(String html, String name, int from) {
+        for (int lt = html.indexOf("</", from); lt >= 0; lt = html.indexOf("</", lt + 2)) {
+            if (html.regionMatches(true, lt + 2, name, 0, name.length())) {
+                return lt;
+            }
+        }
+        return -1;
+    }
+
+    // Index of the '>' closing the tag whose attributes start at from; quoted values may hold '>'
+    private static int tagEnd(String html, int from) {
+        char quote = 0;
+        boolean afterEquals = false;
+        for (int i = from; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '>') {
+                return i;
+            } else if ((c == '"' || c == '\'') && afterEquals) {
+                quote = c;
+            } else if (!Character.isWhitespace(c)) {
+                afterEquals = c == '=';
+            }
+        }
+        return -1;
+    }
+
+    // Value of an attribute between from and gt, or null
+    private static String attribute(String html, int from, int gt, String name) {
+        int i = from;
+        while (i < gt) {
+            while (i < gt && (Character.isWhitespace(html.charAt(i)) || html.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < gt && html.charAt(i) != '=' && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '/') {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < gt && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            if (i >= gt || html.charAt(i) != '=') {
+                if (i == nameStart) {
+                    i++;
+                }
+                continue;
+            }
+            i++;
+            while (i < gt && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            int valueStart;
+            int valueEnd;
+            if (i < gt && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                valueStart = i + 1;
+                valueEnd = html.indexOf(html.charAt(i), valueStart);
+                if (valueEnd < 0 || valueEnd > gt) {
+                    return null;
+                }
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while (i < gt && !Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            if (nameEnd - nameStart == name.length() && html.regionMatches(true, nameStart, name, 0, name.length())) {
+                return html.substring(valueStart, valueEnd);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,529 @@
+package org.uni.http;
+
+import org.uni.metrics.Metrics;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// A non-blocking HTTP/1.1 connection owned by one EventLoop: connects (trying the resolved
+// addresses in turn), runs the TLS handshake through an SSLEngine, then carries one request at
+// a time and stays open for the next while the server allows it. Every method except open()
+// and exchange() runs on the loop thread.
+class AsyncConnection {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+
+    private enum State { CONNECTING, HANDSHAKING, IDLE, WRITING, READING, CLOSED }
+
+    private final AsyncTransport transport;
+    private final EventLoop loop;
+    private final String route;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final List<InetAddress> addresses;
+    private final Metrics metrics = Metrics.global();
+    private final CompletableFuture<AsyncConnection> connected = new CompletableFuture<>();
+    private int nextAddress;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine engine;
+    private volatile State state = State.CONNECTING;
+    // Encrypted bytes in both directions (the only read buffer for plain connections); kept in fill mode
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private ByteBuffer request;
+    private ResponseFramer framer;
+    private CompletableFuture<HttpResponse> exchange;
+    private long deadline;
+    private long phaseStart;
+    private long handshakeStartMillis;
+    private long lastUsed;
+    private int requestCount;
+
+    private AsyncConnection(AsyncTransport transport, EventLoop loop, String route, String host, int port,
+                            boolean secure, List<InetAddress> addresses) {
+        this.transport = transport;
+        this.loop = loop;
+        this.route = route;
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.addresses = addresses;
+    }
+
+    static CompletableFuture<AsyncConnection> open(AsyncTransport transport, EventLoop loop, String route, String host,
+                                                   int port, boolean secure, List<InetAddress> addresses) {
+        AsyncConnection connection = new AsyncConnection(transport, loop, route, host, port, secure, addresses);
+        loop.execute(connection::connectNext);
+        return connection.connected;
+    }
+
+    String getRoute() {
+        return route;
+    }
+
+    boolean isIdle() {
+        return state == State.IDLE;
+    }
+
+    // Sends one request; the future completes on the loop thread once the whole response is in.
+    // A pooled connection that turns out to be closed fails with StaleConnectionException
+    // before anything was sent, so the caller can safely retry on a new one.
+    CompletableFuture<HttpResponse> exchange(byte[] requestBytes, boolean headRequest) {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        loop.execute(() -> {
+            if (state != State.IDLE) {
+                result.completeExceptionally(new StaleConnectionException(new IOException("Connection is " + state)));
+                return;
+            }
+            state = State.WRITING;
+            exchange = result;
+            framer = new ResponseFramer(headRequest);
+            request = ByteBuffer.wrap(requestBytes);
+            requestCount++;
+            phaseStart = System.nanoTime();
+            deadline = deadlineAfter(AsyncTransport.READ_TIMEOUT_MILLIS);
+            metrics.add(Metrics.BYTES_WRITTEN, requestBytes.length);
+            guarded(this::writeRequest);
+        });
+        return result;
+    }
+
+    void ready() {
+        switch (state) {
+            case CONNECTING:
+                try {
+                    if (channel.finishConnect()) {
+                        connectionEstablished();
+                    }
+                } catch (IOException e) {
+                    connectFailed(e);
+                }
+                break;
+            case HANDSHAKING:
+                guarded(this::handshake);
+                break;
+            case WRITING:
+                guarded(this::writeRequest);
+                break;
+            case READING:
+                guarded(this::readResponse);
+                break;
+            case IDLE:
+                // An idle connection has nothing to read: the server closed it or is out of step
+                close();
+                break;
+            default:
+                key.cancel();
+        }
+    }
+
+    void tick(long now) {
+        if (state == State.IDLE) {
+            if (now - lastUsed > transport.getIdleTimeoutMillis()) {
+                close();
+            }
+        } else if (state != State.CLOSED && now > deadline) {
+            SocketTimeoutException timeout = new SocketTimeoutException(state == State.CONNECTING
+                    ? "Connect timed out" : "Read timed out");
+            if (state == State.CONNECTING) {
+                connectFailed(timeout);
+            } else {
+                fail(timeout);
+            }
+        }
+    }
+
+    // A timeout of 0 means none, as for the blocking sockets
+    private static long deadlineAfter(int timeoutMillis) {
+        return timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+    }
+
+    private interface IoStep {
+        void run() throws IOException;
+    }
+
+    private void guarded(IoStep step) {
+        try {
+            step.run();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void connectNext() {
+        InetAddress address = addresses.get(nextAddress++);
+        phaseStart = System.nanoTime();
+        deadline = deadlineAfter(AsyncTransport.CONNECT_TIMEOUT_MILLIS);
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            boolean done = channel.connect(new InetSocketAddress(address, port));
+            key = loop.register(channel, done ? 0 : SelectionKey.OP_CONNECT, this);
+            if (done) {
+                connectionEstablished();
+            }
+        } catch (IOException e) {
+            connectFailed(e);
+        }
+    }
+
+    private void connectFailed(Exception e) {
+        closeChannel();
+        if (nextAddress < addresses.size()) {
+            metrics.increment(Metrics.CONNECT_FALLBACKS);
+            connectNext();
+            return;
+        }
+        state = State.CLOSED;
+        connected.completeExceptionally(e);
+    }
+
+    private void connectionEstablished() throws IOException {
+        metrics.recordSince(Metrics.CONNECT, phaseStart);
+        metrics.increment(Metrics.CONNECTIONS_OPENED);
+        if (!secure) {
+            netIn = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+            becomeIdle();
+            connected.complete(this);
+            return;
+        }
+        try {
+            engine = TlsContext.shared().engine(host, port);
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            state = State.HANDSHAKING;
+            phaseStart = System.nanoTime();
+            handshakeStartMillis = System.currentTimeMillis();
+            deadline = deadlineAfter(AsyncTransport.READ_TIMEOUT_MILLIS);
+            engine.beginHandshake();
+            handshake();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void handshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    for (Runnable task; (task = engine.getDelegatedTask()) != null; ) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    if (!flush()) {
+                        return;
+                    }
+                    checkOpen(engine.wrap(EMPTY, netOut));
+                    if (!flush()) {
+                        return;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    if (!unwrap()) {
+                        interest(SelectionKey.OP_READ);
+                        return;
+                    }
+                    break;
+                default:
+                    handshakeFinished();
+                    return;
+            }
+        }
+    }
+
+    private void handshakeFinished() {
+        if (TlsContext.isResumed(engine.getSession(), handshakeStartMillis)) {
+            metrics.recordSince(Metrics.TLS_RESUMPTION, phaseStart);
+            metrics.increment(Metrics.TLS_RESUMED);
+        } else {
+            metrics.recordSince(Metrics.TLS_HANDSHAKE, phaseStart);
+            metrics.increment(Metrics.TLS_FULL_HANDSHAKES);
+        }
+        becomeIdle();
+        connected.complete(this);
+    }
+
+    // One unwrap step; false when more bytes have to arrive from the network first
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        SSLEngineResult result = engine.unwrap(netIn, appIn);
+        netIn.compact();
+        switch (result.getStatus()) {
+            case OK:
+                return true;
+            case BUFFER_OVERFLOW:
+                appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                return true;
+            case BUFFER_UNDERFLOW:
+                if (!netIn.hasRemaining()) {
+                    netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                }
+                return readNetwork() > 0;
+            default:
+                throw new EOFException("TLS connection closed by the server");
+        }
+    }
+
+    private int readNetwork() throws IOException {
+        int n = channel.read(netIn);
+        if (n < 0) {
+            throw new EOFException("Connection closed by the server");
+        }
+        if (n > 0) {
+            metrics.add(Metrics.BYTES_READ, n);
+            deadline = deadlineAfter(AsyncTransport.READ_TIMEOUT_MILLIS);
+        }
+        return n;
+    }
+
+    private void writeRequest() throws IOException {
+        if (engine == null) {
+            channel.write(request);
+            if (request.hasRemaining()) {
+                interest(SelectionKey.OP_WRITE);
+                return;
+            }
+        } else {
+            if (!flush()) {
+                return;
+            }
+            while (request.hasRemaining()) {
+                checkOpen(engine.wrap(request, netOut));
+                if (!flush()) {
+                    return;
+                }
+            }
+        }
+        request = null;
+        state = State.READING;
+        interest(SelectionKey.OP_READ);
+    }
+
+    private void readResponse() throws IOException {
+        while (state == State.READING) {
+            int n;
+            if (engine == null) {
+                netIn.clear();
+                n = channel.read(netIn);
+                if (n > 0) {
+                    firstBytes();
+                    metrics.add(Metrics.BYTES_READ, n);
+                    deadline = deadlineAfter(AsyncTransport.READ_TIMEOUT_MILLIS);
+                    netIn.flip();
+                    if (framer.append(netIn)) {
+                        responseComplete();
+                    }
+                    continue;
+                }
+            } else {
+                n = channel.read(netIn);
+                if (n > 0) {
+                    metrics.add(Metrics.BYTES_READ, n);
+                    deadline = deadlineAfter(AsyncTransport.READ_TIMEOUT_MILLIS);
+                }
+                if (unwrapApplicationData() || n > 0) {
+                    continue;
+                }
+            }
+            if (n < 0) {
+                if (framer.endOfStream()) {
+                    responseComplete();
+                }
+            }
+            return;
+        }
+    }
+
+    // Decrypts whatever complete records have arrived and passes the plaintext to the framer.
+    // Returns true when the response was completed.
+    private boolean unwrapApplicationData() throws IOException {
+        while (state == State.READING) {
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            if (appIn.position() > 0) {
+                firstBytes();
+                appIn.flip();
+                boolean complete = framer.append(appIn);
+                appIn.clear();
+                if (complete) {
+                    responseComplete();
+                    return true;
+                }
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    // Post-handshake messages (session tickets, key updates) may need an answer
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        for (Runnable task; (task = engine.getDelegatedTask()) != null; ) {
+                            task.run();
+                        }
+                    }
+                    if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        checkOpen(engine.wrap(EMPTY, netOut));
+                        flush();
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    return false;
+                default:
+                    // close_notify ends the body just like the end of the connection
+                    if (framer.endOfStream()) {
+                        responseComplete();
+                    }
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void firstBytes() {
+        if (!framer.hasData()) {
+            phaseStart = metrics.recordSince(Metrics.TIME_TO_FIRST_BYTE, phaseStart);
+        }
+    }
+
+    private void responseComplete() throws IOException {
+        metrics.recordSince(Metrics.BODY_TRANSFER, phaseStart);
+        HttpResponse response = framer.toResponse();
+        boolean reusable = response.isKeepAlive() && !framer.hasExcess();
+        CompletableFuture<HttpResponse> result = exchange;
+        exchange = null;
+        framer = null;
+        if (reusable) {
+            // Back in the pool before the caller sees the response, so a redirect can reuse it
+            becomeIdle();
+            transport.release(this);
+        } else {
+            close();
+        }
+        result.complete(response);
+    }
+
+    private void becomeIdle() {
+        state = State.IDLE;
+        lastUsed = System.currentTimeMillis();
+        // Readiness while idle means the server closed the connection
+        interest(SelectionKey.OP_READ);
+    }
+
+    // Writes pending encrypted bytes; false (waiting for OP_WRITE) if the socket could not take them all
+    private boolean flush() throws IOException {
+        netOut.flip();
+        channel.write(netOut);
+        boolean flushed = !netOut.hasRemaining();
+        netOut.compact();
+        if (!flushed) {
+            interest(SelectionKey.OP_WRITE);
+        }
+        return flushed;
+    }
+
+    private void checkOpen(SSLEngineResult result) throws SSLException {
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS connection closed");
+        }
+    }
+
+    private void interest(int ops) {
+        if (key.isValid()) {
+            key.interestOps(ops);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minimumExtra) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + Math.max(minimumExtra, buffer.capacity()));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private void fail(Exception e) {
+        // A reused connection that fails before any of the response arrived was most likely
+        // closed by the server while idle; the request can be sent again elsewhere
+        boolean stale = requestCount > 1 && framer != null && !framer.hasData() && !(e instanceof SocketTimeoutException);
+        State failedIn = state;
+        close();
+        IOException error = e instanceof IOException ? (IOException) e : new IOException(e);
+        if (failedIn == State.HANDSHAKING || !connected.isDone()) {
+            connected.completeExceptionally(error);
+        }
+        if (exchange != null) {
+            CompletableFuture<HttpResponse> result = exchange;
+            exchange = null;
+            result.completeExceptionally(stale ? new StaleConnectionException(error) : error);
+        }
+    }
+
+    // For threads other than the loop's
+    void closeLater() {
+        loop.execute(this::close);
+    }
+
+    void close() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        transport.remove(this);
+        if (engine != null && netOut != null) {
+            try {
+                engine.closeOutbound();
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                channel.write(netOut);
+            } catch (IOException e) {
+                // close_notify is a courtesy; the socket is closed either way
+            }
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        loop.deregister(this);
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    static class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
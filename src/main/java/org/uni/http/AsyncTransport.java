@@ -0,0 +1,170 @@
+package org.uni.http;
+
+import org.uni.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP/1.1 over non-blocking sockets: a few selector threads carry every connection, so the
+// number of requests in flight is not tied to the number of threads. Connections are spread
+// over the loops round-robin and kept alive per route like in ConnectionPool. Only name
+// resolution can block; cache misses go to a small resolver pool.
+public class AsyncTransport {
+    public static final int DEFAULT_SELECTOR_THREADS = 2;
+
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("go2web.http.connectTimeoutMs", HttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger("go2web.http.readTimeoutMs", HttpClient.DEFAULT_READ_TIMEOUT_MILLIS);
+
+    private static final ExecutorService RESOLVER = Executors.newFixedThreadPool(2, task -> {
+        Thread thread = new Thread(task, "go2web-resolve");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile AsyncTransport shared;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final int maxIdlePerHost;
+    private final long idleTimeoutMillis;
+    private final Map<String, Deque<AsyncConnection>> idleConnections = new ConcurrentHashMap<>();
+    private final DnsCache dnsCache = DnsCache.shared();
+    private final Metrics metrics = Metrics.global();
+
+    public AsyncTransport(int selectorThreads, int maxIdlePerHost, long idleTimeoutMillis) throws IOException {
+        this.loops = new EventLoop[Math.max(1, selectorThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("go2web-selector-" + i);
+        }
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    // Started on first use, so runs that never go asynchronous open no selectors
+    public static AsyncTransport shared() {
+        AsyncTransport transport = shared;
+        if (transport == null) {
+            synchronized (AsyncTransport.class) {
+                transport = shared;
+                if (transport == null) {
+                    try {
+                        transport = new AsyncTransport(
+                                Integer.getInteger("go2web.nio.selectorThreads", DEFAULT_SELECTOR_THREADS),
+                                Integer.getInteger("go2web.pool.maxIdlePerHost", ConnectionPool.DEFAULT_MAX_IDLE_PER_HOST),
+                                Long.getLong("go2web.pool.idleTimeoutMs", ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Cannot open a selector", e);
+                    }
+                    shared = transport;
+                }
+            }
+        }
+        return transport;
+    }
+
+    long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    // Sends one request and completes with the whole response. Completion happens on a
+    // selector thread, so callers should move any real work to their own executor.
+    public CompletableFuture<HttpResponse> execute(String route, String host, int port, boolean secure,
+                                                   byte[] request, boolean headRequest) {
+        metrics.increment(Metrics.REQUESTS);
+        AsyncConnection idle = acquire(route);
+        if (idle == null) {
+            return executeOnFresh(route, host, port, secure, request, headRequest);
+        }
+        return idle.exchange(request, headRequest).handle((response, error) -> {
+            if (error == null) {
+                metrics.increment(Metrics.CONNECTIONS_REUSED);
+                return CompletableFuture.completedFuture(response);
+            }
+            if (unwrap(error) instanceof AsyncConnection.StaleConnectionException) {
+                // The server dropped the idle keep-alive connection, retry once on a fresh one
+                metrics.increment(Metrics.CONNECTION_RETRIES);
+                return executeOnFresh(route, host, port, secure, request, headRequest);
+            }
+            return CompletableFuture.<HttpResponse>failedFuture(unwrap(error));
+        }).thenCompose(response -> response);
+    }
+
+    private CompletableFuture<HttpResponse> executeOnFresh(String route, String host, int port, boolean secure,
+                                                           byte[] request, boolean headRequest) {
+        return connect(route, host, port, secure).thenCompose(connection -> connection.exchange(request, headRequest));
+    }
+
+    private CompletableFuture<AsyncConnection> connect(String route, String host, int port, boolean secure) {
+        EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        InetAddress[] cached = dnsCache.peek(host);
+        if (cached != null) {
+            return AsyncConnection.open(this, loop, route, host, port, secure, HappyEyeballs.interleave(cached));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                InetAddress[] addresses = dnsCache.resolve(host);
+                metrics.recordSince(Metrics.DNS, start);
+                return addresses;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, RESOLVER).thenCompose(addresses ->
+                AsyncConnection.open(this, loop, route, host, port, secure, HappyEyeballs.interleave(addresses)));
+    }
+
+    private AsyncConnection acquire(String route) {
+        Deque<AsyncConnection> deque = idleConnections.get(route);
+        if (deque == null) {
+            return null;
+        }
+        for (AsyncConnection connection; (connection = deque.pollFirst()) != null; ) {
+            if (connection.isIdle()) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    // Called on the connection's loop thread once a response has been read in full
+    void release(AsyncConnection connection) {
+        if (maxIdlePerHost <= 0) {
+            connection.close();
+            return;
+        }
+        Deque<AsyncConnection> deque = idleConnections.computeIfAbsent(connection.getRoute(), k -> new ConcurrentLinkedDeque<>());
+        deque.addFirst(connection);
+        if (deque.size() > maxIdlePerHost) {
+            AsyncConnection eldest = deque.pollLast();
+            if (eldest == connection) {
+                connection.close();
+            } else if (eldest != null) {
+                eldest.closeLater();
+            }
+        }
+    }
+
+    // Called on the connection's loop thread when it closes
+    void remove(AsyncConnection connection) {
+        Deque<AsyncConnection> deque = idleConnections.get(connection.getRoute());
+        if (deque != null) {
+            deque.remove(connection);
+        }
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -1,24 +1,115 @@
 package org.uni.http;
 
-import java.io.Serializable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
-public class CacheEntry implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private final String content;
+public class CacheEntry {
+    // Smaller bodies are not worth the inflate cost on every hit
+    private static final int COMPRESSION_THRESHOLD = 1024;
+    // How long an expired entry with validators is kept around for a conditional request
+    private static final long REVALIDATION_RETENTION_MILLIS = 7L * 24 * 3600 * 1000;
+    // Below this a direct buffer and its cleaner take more heap than the body they move off it
+    private static final int OFF_HEAP_MIN_BYTES = 1024;
+    // Exactly one of the two is set. The off-heap copy only ever lives in the memory tier.
+    private final byte[] body;
+    private final ByteBuffer offHeapBody;
+    private final boolean compressed;
     private final String contentType;
     private final String etag;
+    private final String lastModified;
     private final long expirationTime;
+    private final long staleUntil;
 
     public CacheEntry(String content, String contentType, String etag, int maxAgeSeconds) {
-        this.content = content;
-        this.contentType = contentType;
+        this(content, contentType, etag, null, maxAgeSeconds, 0);
+    }
+
+    public CacheEntry(String content, String contentType, String etag, String lastModified,
+                      int maxAgeSeconds, int staleWhileRevalidateSeconds) {
+        byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = utf8.length >= COMPRESSION_THRESHOLD ? deflate(utf8) : null;
+        // Keep the compressed form only when it saves at least 10%
+        this.compressed = deflated != null && deflated.length < utf8.length * 0.9;
+        this.body = compressed ? deflated : utf8;
+        this.offHeapBody = null;
+        this.contentType = canonical(contentType);
         this.etag = etag;
+        this.lastModified = lastModified;
         this.expirationTime = Instant.now().plusSeconds(maxAgeSeconds).toEpochMilli();
+        this.staleUntil = expirationTime + staleWhileRevalidateSeconds * 1000L;
+    }
+
+    private CacheEntry(byte[] body, ByteBuffer offHeapBody, boolean compressed, String contentType, String etag,
+                       String lastModified, long expirationTime, long staleUntil) {
+        this.body = body;
+        this.offHeapBody = offHeapBody;
+        this.compressed = compressed;
+        this.contentType = canonical(contentType);
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expirationTime = expirationTime;
+        this.staleUntil = Math.max(expirationTime, staleUntil);
+    }
+
+    // Rebuilds an entry from its stored representation without recompressing it
+    public static CacheEntry fromStoredBody(byte[] body, boolean compressed, String contentType, String etag,
+                                            String lastModified, long expirationTime, long staleUntil) {
+        return new CacheEntry(body, null, compressed, contentType, etag, lastModified, expirationTime, staleUntil);
+    }
+
+    // Same body and validators with a new freshness lifetime, e.g. after a 304 Not Modified
+    public CacheEntry withFreshness(int maxAgeSeconds, int staleWhileRevalidateSeconds) {
+        long expiresAt = Instant.now().plusSeconds(maxAgeSeconds).toEpochMilli();
+        return new CacheEntry(body, offHeapBody, compressed, contentType, etag, lastModified, expiresAt,
+                expiresAt + staleWhileRevalidateSeconds * 1000L);
+    }
+
+    // The same entry with its stored body moved to a direct buffer, where a large memory tier
+    // adds nothing for the garbage collector to copy. Small bodies stay on the heap.
+    public CacheEntry offHeap() {
+        if (offHeapBody != null || body.length < OFF_HEAP_MIN_BYTES) {
+            return this;
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(body.length).put(body).flip();
+        return new CacheEntry(null, direct.asReadOnlyBuffer(), compressed, contentType, etag, lastModified,
+                expirationTime, staleUntil);
+    }
+
+    public boolean isOffHeap() {
+        return offHeapBody != null;
     }
 
     public String getContent() {
-        return content;
+        if (compressed) {
+            return new String(inflate(body != null ? ByteBuffer.wrap(body) : offHeapBody.duplicate(), getStoredLength()),
+                    StandardCharsets.UTF_8);
+        }
+        return new String(getStoredBody(), StandardCharsets.UTF_8);
+    }
+
+    // Stored representation: UTF-8 text, or raw deflate data when isCompressed()
+    public byte[] getStoredBody() {
+        if (body != null) {
+            return body;
+        }
+        byte[] copy = new byte[offHeapBody.capacity()];
+        offHeapBody.duplicate().get(copy);
+        return copy;
+    }
+
+    public int getStoredLength() {
+        return body != null ? body.length : offHeapBody.capacity();
+    }
+
+    public boolean isCompressed() {
+        return compressed;
     }
 
     public String getContentType() {
@@ -29,17 +120,112 @@ public class CacheEntry implements Serializable {
         return etag;
     }
 
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    public long getStaleUntil() {
+        return staleUntil;
+    }
+
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    // Expired, but still inside its stale-while-revalidate window
+    public boolean isServableWhileRevalidating() {
+        long now = Instant.now().toEpochMilli();
+        return now > expirationTime && now <= staleUntil;
+    }
+
+    // After this point the entry is useless: it can neither be served stale nor revalidated
+    public long getRetainUntil() {
+        return hasValidators() ? Math.max(staleUntil, expirationTime + REVALIDATION_RETENTION_MILLIS) : staleUntil;
+    }
+
+    public boolean isDiscardable() {
+        return Instant.now().toEpochMilli() > getRetainUntil();
+    }
+
+    // Approximate footprint in bytes, used to budget the memory tier. An off-heap body counts
+    // too, so the budget bounds all the memory the tier holds.
+    public long getWeight() {
+        long weight = 72 + 16 + getStoredLength();
+        if (contentType != null) {
+            weight += 40 + contentType.length();
+        }
+        if (etag != null) {
+            weight += 40 + etag.length();
+        }
+        if (lastModified != null) {
+            weight += 40 + lastModified.length();
+        }
+        return weight;
+    }
+
     public boolean isExpired() {
         return Instant.now().toEpochMilli() > expirationTime;
     }
-    
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Content types repeat across entries; one shared instance of each is enough
+    private static String canonical(String contentType) {
+        return contentType != null ? contentType.intern() : null;
+    }
+
+    private static byte[] inflate(ByteBuffer data, int length) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated cache entry");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt cache entry", e));
+        } finally {
+            inflater.end();
+        }
+    }
+
     @Override
     public String toString() {
         return "CacheEntry{" +
                 "contentType='" + contentType + '\'' +
                 ", etag='" + etag + '\'' +
+                ", lastModified='" + lastModified + '\'' +
                 ", expirationTime=" + expirationTime +
+                ", staleUntil=" + staleUntil +
                 ", expired=" + isExpired() +
+                ", storedBytes=" + getStoredLength() +
+                ", offHeap=" + isOffHeap() +
+                ", compressed=" + compressed +
                 '}';
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package org.uni.http;
+
+import java.nio.ByteBuffer;
+
+// Key of the memory tier: the first 128 bits of the URL's SHA-256 digest in two longs, 32 bytes
+// per key where the 64-character hex string took about 100. The disk tier keeps the full digest.
+public final class CacheKey {
+    private final long high;
+    private final long low;
+
+    private CacheKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static CacheKey of(byte[] digest) {
+        if (digest.length < 16) {
+            throw new IllegalArgumentException("Cache keys need a digest of at least 128 bits");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        return new CacheKey(buffer.getLong(0), buffer.getLong(8));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey key = (CacheKey) other;
+        return high == key.high && low == key.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // The bits come from a cryptographic hash, any of them will do
+        return (int) low;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
@@ -1,125 +1,168 @@
 package org.uni.http;
 
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
+
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class CacheManager {
-    private static final String CACHE_DIR = System.getProperty("user.home") + File.separator + ".go2web_cache";
-    private final ConcurrentHashMap<String, CacheEntry> memoryCache;
+    private static final String CACHE_DIR = System.getProperty("go2web.cache.dir",
+            System.getProperty("user.home") + File.separator + ".go2web_cache");
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 32L * 1024 * 1024;
+    private static final long DISK_BUDGET_BYTES = Long.getLong("go2web.cache.diskBytes", SegmentStore.DEFAULT_MAX_BYTES);
+    private final MemoryCache<CacheKey> memoryCache;
     private final boolean useFileCache;
+    // Bodies in the memory tier are kept in direct buffers instead of heap arrays
+    private final boolean offHeap;
+    // Opened on first disk access, so runs that never reach the disk tier (help, memory hits in
+    // the daemon) do not create the cache directory or read its index
+    private volatile SegmentStore fileStore;
+    private volatile boolean fileStoreOpened;
+    private final Metrics metrics = Metrics.global();
 
     public CacheManager(boolean useFileCache) {
-        this.memoryCache = new ConcurrentHashMap<>();
+        this(useFileCache, Long.getLong("go2web.cache.memoryBytes", DEFAULT_MEMORY_BUDGET_BYTES),
+                Boolean.getBoolean("go2web.cache.offHeap"));
+    }
+
+    public CacheManager(boolean useFileCache, long memoryBudgetBytes) {
+        this(useFileCache, memoryBudgetBytes, false);
+    }
+
+    public CacheManager(boolean useFileCache, long memoryBudgetBytes, boolean offHeap) {
+        this.memoryCache = new MemoryCache<>(memoryBudgetBytes);
         this.useFileCache = useFileCache;
-        if (useFileCache) {
-            createCacheDirectory();
+        this.offHeap = offHeap;
+    }
+
+    private SegmentStore fileStore() {
+        if (!fileStoreOpened) {
+            synchronized (this) {
+                if (!fileStoreOpened) {
+                    fileStore = useFileCache ? openFileStore() : null;
+                    fileStoreOpened = true;
+                }
+            }
         }
+        return fileStore;
     }
 
-    private void createCacheDirectory() {
-        File cacheDir = new File(CACHE_DIR);
-        if (!cacheDir.exists()) {
-            cacheDir.mkdirs();
+    private static SegmentStore openFileStore() {
+        try {
+            return SegmentStore.open(Paths.get(CACHE_DIR), DISK_BUDGET_BYTES);
+        } catch (IOException e) {
+            // Without a usable cache directory we keep working with the memory tier only
+            return null;
         }
     }
 
+    // Returns fresh entries as well as expired ones that can still be served stale or revalidated;
+    // callers decide what to do based on the entry's freshness.
     public CacheEntry get(String url) {
-        String key = generateKey(url);
+        byte[] digest = digest(url);
+        CacheKey key = CacheKey.of(digest);
 
         CacheEntry entry = memoryCache.get(key);
-        if (entry != null && !entry.isExpired()) {
-            System.out.println("test Cache is taken: " + entry);
+        if (entry != null) {
+            metrics.increment(Metrics.CACHE_MEMORY_HITS);
+            Log.debug(() -> "Memory cache hit for " + url + ": " + entry);
             return entry;
         }
+        metrics.increment(Metrics.CACHE_MEMORY_MISSES);
 
-        if (useFileCache) {
-            Path cacheFile = Paths.get(CACHE_DIR, key);
-            if (Files.exists(cacheFile)) {
-                try {
-                    entry = readFromFile(cacheFile);
-                    if (entry != null && !entry.isExpired()) {
-                        memoryCache.put(key, entry);
-                        return entry;
-                    }
-                } catch (IOException e) {
+        SegmentStore fileStore = fileStore();
+        if (fileStore != null) {
+            long start = System.nanoTime();
+            try {
+                CacheEntry stored = fileStore.get(digest);
+                if (stored != null && !stored.isDiscardable()) {
+                    metrics.increment(Metrics.CACHE_DISK_HITS);
+                    memoryCache.put(key, inMemory(stored));
+                    return stored;
                 }
+            } catch (IOException e) {
+                Log.warn("Disk cache read failed: " + e.getMessage());
+            } finally {
+                metrics.recordSince(Metrics.CACHE_DISK_READ, start);
             }
+            metrics.increment(Metrics.CACHE_DISK_MISSES);
         }
 
         return null;
     }
 
     public void put(String url, CacheEntry entry) {
-        String key = generateKey(url);
-        memoryCache.put(key, entry);
-        if (useFileCache) {
+        byte[] digest = digest(url);
+        memoryCache.put(CacheKey.of(digest), inMemory(entry));
+        SegmentStore fileStore = fileStore();
+        if (fileStore != null) {
+            long start = System.nanoTime();
             try {
-                writeToFile(Paths.get(CACHE_DIR, key), entry);
-                System.out.println("put Cache: " + entry);
+                fileStore.put(digest, entry);
+                Log.debug(() -> "Stored " + url + ": " + entry);
             } catch (IOException e) {
+                Log.warn("Disk cache write failed: " + e.getMessage());
+            } finally {
+                metrics.recordSince(Metrics.CACHE_DISK_WRITE, start);
+            }
+        }
+    }
 
+    // Stores new freshness for an entry whose body is unchanged, e.g. after a 304 Not Modified
+    public void refresh(String url, CacheEntry entry) {
+        byte[] digest = digest(url);
+        memoryCache.put(CacheKey.of(digest), inMemory(entry));
+        SegmentStore fileStore = fileStore();
+        if (fileStore != null) {
+            long start = System.nanoTime();
+            try {
+                fileStore.touch(digest, entry);
+            } catch (IOException e) {
+                Log.warn("Disk cache write failed: " + e.getMessage());
+            } finally {
+                metrics.recordSince(Metrics.CACHE_DISK_WRITE, start);
             }
         }
     }
 
-    private String generateKey(String url) {
+    static byte[] digest(String url) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(url.getBytes());
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            System.out.println("Key generated");
-            return hexString.toString();
+            return MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
         } catch (NoSuchAlgorithmException e) {
-            return url.replaceAll("[^a-zA-Z0-9]", "_");
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
         }
     }
 
-    private void writeToFile(Path file, CacheEntry entry) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file.toFile()))) {
-            oos.writeObject(entry);
-        }
+    private CacheEntry inMemory(CacheEntry entry) {
+        return offHeap ? entry.offHeap() : entry;
     }
 
-    private CacheEntry readFromFile(Path file) throws IOException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file.toFile()))) {
-            return (CacheEntry) ois.readObject();
-        } catch (ClassNotFoundException e) {
-            return null;
-        }
+    public CacheStats getMemoryStats() {
+        return memoryCache.stats();
     }
-    
+
+    public void purgeExpired() {
+        memoryCache.purgeExpired();
+    }
+
     public void clearAll() {
         memoryCache.clear();
 
-        if (useFileCache) {
-            File cacheDir = new File(CACHE_DIR);
-            if (cacheDir.exists() && cacheDir.isDirectory()) {
-                File[] cacheFiles = cacheDir.listFiles();
-                if (cacheFiles != null) {
-                    for (File file : cacheFiles) {
-                        if (file.isFile()) {
-                            file.delete();
-                        }
-                    }
-                }
+        SegmentStore fileStore = fileStore();
+        if (fileStore != null) {
+            try {
+                // Swaps in an empty generation; the old files are deleted in the background
+                fileStore.clear();
+            } catch (IOException e) {
+                Log.warn("Disk cache clear failed: " + e.getMessage());
             }
         }
-        
-        System.out.println("Cache cleared");
+
+        Log.info("Cache cleared");
     }
-} 
\ No newline at end of file
+}
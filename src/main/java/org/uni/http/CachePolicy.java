@@ -0,0 +1,98 @@
+package org.uni.http;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Freshness rules of a response, from Cache-Control (max-age, no-store, no-cache,
+// stale-while-revalidate) with Expires as the fallback when max-age is absent.
+public class CachePolicy {
+    public static final int DEFAULT_MAX_AGE_SECONDS = 3600;
+
+    private final boolean noStore;
+    private final int maxAgeSeconds;
+    private final int staleWhileRevalidateSeconds;
+
+    public CachePolicy(boolean noStore, int maxAgeSeconds, int staleWhileRevalidateSeconds) {
+        this.noStore = noStore;
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+    }
+
+    public static CachePolicy from(HttpHeaders headers) {
+        boolean noStore = false;
+        boolean noCache = false;
+        Integer maxAge = null;
+        int staleWhileRevalidate = 0;
+        for (String cacheControl : headers.all("Cache-Control")) {
+            for (String directive : cacheControl.split(",")) {
+                String trimmed = directive.trim().toLowerCase();
+                if (trimmed.equals("no-store")) {
+                    noStore = true;
+                } else if (trimmed.equals("no-cache") || trimmed.startsWith("no-cache=")) {
+                    noCache = true;
+                } else if (trimmed.startsWith("max-age=")) {
+                    maxAge = parseSeconds(trimmed.substring(8));
+                } else if (trimmed.startsWith("stale-while-revalidate=")) {
+                    Integer seconds = parseSeconds(trimmed.substring(23));
+                    staleWhileRevalidate = seconds == null ? 0 : seconds;
+                }
+            }
+        }
+        if (maxAge == null) {
+            maxAge = secondsUntilExpires(headers);
+        }
+        if (noCache) {
+            // Stored, but every use has to be revalidated with the origin first
+            return new CachePolicy(noStore, 0, 0);
+        }
+        return new CachePolicy(noStore, maxAge == null ? DEFAULT_MAX_AGE_SECONDS : maxAge, staleWhileRevalidate);
+    }
+
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public int getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public int getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    private static Integer secondsUntilExpires(HttpHeaders headers) {
+        String expires = headers.first("Expires");
+        if (expires == null) {
+            return null;
+        }
+        ZonedDateTime expiresAt = parseHttpDate(expires);
+        if (expiresAt == null) {
+            // Invalid dates such as "0" or "-1" mean already expired
+            return 0;
+        }
+        // Measured against the server clock when it sent one, so clock skew does not matter
+        ZonedDateTime now = parseHttpDate(headers.first("Date"));
+        long nowSeconds = now != null ? now.toEpochSecond() : System.currentTimeMillis() / 1000;
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, expiresAt.toEpochSecond() - nowSeconds));
+    }
+
+    private static ZonedDateTime parseHttpDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static Integer parseSeconds(String value) {
+        try {
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, Long.parseLong(value.replace("\"", "").trim())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.uni.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Decodes chunked transfer coding incrementally; trailer headers are read and dropped.
+// Closing it never closes the underlying connection.
+public class ChunkedInputStream extends InputStream {
+    private final InputStream in;
+    private long chunkRemaining;
+    private boolean finished;
+
+    public ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (finished) {
+            return -1;
+        }
+        if (chunkRemaining == 0) {
+            chunkRemaining = readChunkSize();
+            if (chunkRemaining == 0) {
+                skipTrailers();
+                finished = true;
+                return -1;
+            }
+        }
+        int n = in.read(buffer, offset, (int) Math.min(length, chunkRemaining));
+        if (n == -1) {
+            throw new EOFException("Connection closed inside chunked body");
+        }
+        chunkRemaining -= n;
+        if (chunkRemaining == 0) {
+            readCrlf();
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished ? 0 : (int) Math.min(in.available(), chunkRemaining);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private long readChunkSize() throws IOException {
+        long size = 0;
+        int digits = 0;
+        boolean inExtension = false;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (digits == 0) {
+                    throw new IOException("Missing chunk size");
+                }
+                return size;
+            }
+            if (inExtension || b == '\r' || b == ' ' || b == '\t') {
+                continue;
+            }
+            if (b == ';') {
+                inExtension = true;
+                continue;
+            }
+            int digit = Character.digit(b, 16);
+            if (digit < 0 || ++digits > 15) {
+                throw new IOException("Invalid chunk size");
+            }
+            size = (size << 4) | digit;
+        }
+        throw new EOFException("Connection closed inside chunked body");
+    }
+
+    private void readCrlf() throws IOException {
+        int b = in.read();
+        if (b == '\r') {
+            b = in.read();
+        }
+        if (b != '\n') {
+            throw new IOException("Missing CRLF after chunk data");
+        }
+    }
+
+    private void skipTrailers() throws IOException {
+        int lineLength = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (lineLength == 0) {
+                    return;
+                }
+                lineLength = 0;
+            } else if (b != '\r') {
+                lineLength++;
+            }
+        }
+    }
+}
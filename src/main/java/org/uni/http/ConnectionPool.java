@@ -0,0 +1,203 @@
+package org.uni.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 5;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+    public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2_000;
+
+    private static final ConnectionPool SHARED = new ConnectionPool(
+            Integer.getInteger("go2web.pool.maxIdlePerHost", DEFAULT_MAX_IDLE_PER_HOST),
+            Long.getLong("go2web.pool.idleTimeoutMs", DEFAULT_IDLE_TIMEOUT_MILLIS),
+            Long.getLong("go2web.pool.validateAfterMs", DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS));
+
+    private final int maxIdlePerHost;
+    private final long idleTimeoutMillis;
+    private final long validateAfterInactivityMillis;
+    private final Map<String, Deque<PooledConnection>> idleConnections = new HashMap<>();
+    // HTTP/2 connections are shared, not checked out: one per route carries every request
+    private final Map<String, Http2Connection> multiplexed = new HashMap<>();
+    // Routes whose ALPN handshake did not select h2
+    private final Set<String> http1Routes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> openLocks = new ConcurrentHashMap<>();
+
+    public ConnectionPool(int maxIdlePerHost, long idleTimeoutMillis, long validateAfterInactivityMillis) {
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+    }
+
+    public static ConnectionPool shared() {
+        return SHARED;
+    }
+
+    public static String route(boolean secure, String host, int port) {
+        return (secure ? "https://" : "http://") + host + ":" + port;
+    }
+
+    // Returns an idle connection for the route, or null when a new one has to be opened.
+    public PooledConnection acquire(String route) {
+        while (true) {
+            PooledConnection connection;
+            synchronized (this) {
+                Deque<PooledConnection> deque = idleConnections.get(route);
+                if (deque == null) {
+                    return null;
+                }
+                connection = deque.pollFirst();
+                if (deque.isEmpty()) {
+                    idleConnections.remove(route);
+                }
+            }
+            if (connection == null) {
+                return null;
+            }
+            if (isHealthy(connection, System.currentTimeMillis())) {
+                return connection;
+            }
+            connection.close();
+        }
+    }
+
+    public void release(PooledConnection connection) {
+        if (!connection.isReusable() || !connection.isOpen() || maxIdlePerHost <= 0) {
+            connection.close();
+            return;
+        }
+        List<PooledConnection> evicted = new ArrayList<>();
+        synchronized (this) {
+            Deque<PooledConnection> deque = idleConnections.computeIfAbsent(connection.getRoute(), k -> new ArrayDeque<>());
+            deque.addFirst(connection);
+            while (deque.size() > maxIdlePerHost) {
+                evicted.add(deque.pollLast());
+            }
+        }
+        for (PooledConnection stale : evicted) {
+            stale.close();
+        }
+    }
+
+    // Returns the live HTTP/2 connection for the route, or null when there is none.
+    public Http2Connection acquireMultiplexed(String route) {
+        Http2Connection expired;
+        synchronized (this) {
+            Http2Connection connection = multiplexed.get(route);
+            if (connection == null) {
+                return null;
+            }
+            boolean idle = isIdleMultiplexed(connection, System.currentTimeMillis());
+            if (connection.isUsable() && !idle) {
+                return connection;
+            }
+            multiplexed.remove(route);
+            // A connection that is going away closes itself once its last stream finishes
+            expired = idle ? connection : null;
+        }
+        if (expired != null) {
+            expired.close();
+        }
+        return null;
+    }
+
+    public synchronized void registerMultiplexed(Http2Connection connection) {
+        multiplexed.put(connection.getRoute(), connection);
+    }
+
+    public void markHttp1Only(String route) {
+        http1Routes.add(route);
+    }
+
+    public boolean isHttp1Only(String route) {
+        return http1Routes.contains(route);
+    }
+
+    // Serializes connection setup per route, so concurrent requests to a new HTTP/2 origin
+    // wait for one handshake and then share its connection instead of each opening their own.
+    public Object openLock(String route) {
+        return openLocks.computeIfAbsent(route, k -> new Object());
+    }
+
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> evicted = new ArrayList<>();
+        List<Http2Connection> evictedMultiplexed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Deque<PooledConnection>> routes = idleConnections.values().iterator();
+            while (routes.hasNext()) {
+                Deque<PooledConnection> deque = routes.next();
+                deque.removeIf(connection -> {
+                    if (now - connection.getLastUsed() > idleTimeoutMillis || !connection.isOpen()) {
+                        evicted.add(connection);
+                        return true;
+                    }
+                    return false;
+                });
+                if (deque.isEmpty()) {
+                    routes.remove();
+                }
+            }
+            multiplexed.values().removeIf(connection -> {
+                if (isIdleMultiplexed(connection, now)) {
+                    evictedMultiplexed.add(connection);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (PooledConnection connection : evicted) {
+            connection.close();
+        }
+        for (Http2Connection connection : evictedMultiplexed) {
+            connection.close();
+        }
+    }
+
+    public void closeAll() {
+        List<PooledConnection> all = new ArrayList<>();
+        List<Http2Connection> allMultiplexed;
+        synchronized (this) {
+            for (Deque<PooledConnection> deque : idleConnections.values()) {
+                all.addAll(deque);
+            }
+            idleConnections.clear();
+            allMultiplexed = new ArrayList<>(multiplexed.values());
+            multiplexed.clear();
+        }
+        for (PooledConnection connection : all) {
+            connection.close();
+        }
+        for (Http2Connection connection : allMultiplexed) {
+            connection.close();
+        }
+    }
+
+    public synchronized int idleCount() {
+        int count = 0;
+        for (Deque<PooledConnection> deque : idleConnections.values()) {
+            count += deque.size();
+        }
+        return count;
+    }
+
+    private boolean isIdleMultiplexed(Http2Connection connection, long now) {
+        return now - connection.getLastUsed() > idleTimeoutMillis && connection.getActiveStreams() == 0;
+    }
+
+    private boolean isHealthy(PooledConnection connection, long now) {
+        long idleFor = now - connection.getLastUsed();
+        if (idleFor > idleTimeoutMillis || !connection.isOpen()) {
+            return false;
+        }
+        // Recently used sockets are trusted; a failed write on them is retried by the client.
+        return idleFor < validateAfterInactivityMillis || connection.probe();
+    }
+}
@@ -0,0 +1,95 @@
+package org.uni.http;
+
+import org.uni.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resolved addresses per host name, kept for a fixed TTL (InetAddress does not expose the
+// records' own TTLs). Failed lookups are cached for a shorter time so a batch full of URLs on
+// a dead domain does not hit the resolver for each one, and concurrent lookups of the same
+// name share one resolver call.
+public class DnsCache {
+    public static final long DEFAULT_TTL_SECONDS = 60;
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 10;
+    private static final int MAX_ENTRIES = 1024;
+
+    private static final DnsCache SHARED = new DnsCache(
+            Long.getLong("go2web.dns.ttlSeconds", DEFAULT_TTL_SECONDS) * 1000,
+            Long.getLong("go2web.dns.negativeTtlSeconds", DEFAULT_NEGATIVE_TTL_SECONDS) * 1000);
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final SingleFlight<String, InetAddress[]> lookups = new SingleFlight<>();
+    private final Metrics metrics = Metrics.global();
+
+    public DnsCache(long ttlMillis, long negativeTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public static DnsCache shared() {
+        return SHARED;
+    }
+
+    public InetAddress[] resolve(String host) throws IOException {
+        Entry entry = entries.get(host);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            metrics.increment(Metrics.DNS_CACHE_HITS);
+            if (entry.addresses == null) {
+                throw new UnknownHostException(host + " (cached lookup failure)");
+            }
+            return entry.addresses.clone();
+        }
+        metrics.increment(Metrics.DNS_CACHE_MISSES);
+        return lookups.execute(host, () -> lookup(host)).clone();
+    }
+
+    // Addresses still cached for host, or null when resolving it would have to ask the resolver
+    // (or would fail). Lets non-blocking callers skip the hop to a thread that may block.
+    public InetAddress[] peek(String host) {
+        Entry entry = entries.get(host);
+        if (entry == null || entry.addresses == null || entry.expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        metrics.increment(Metrics.DNS_CACHE_HITS);
+        return entry.addresses.clone();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private InetAddress[] lookup(String host) throws UnknownHostException {
+        if (entries.size() >= MAX_ENTRIES) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+        try {
+            InetAddress[] addresses = InetAddress.getAllByName(host);
+            if (ttlMillis > 0) {
+                entries.put(host, new Entry(addresses, System.currentTimeMillis() + ttlMillis));
+            }
+            return addresses;
+        } catch (UnknownHostException e) {
+            if (negativeTtlMillis > 0) {
+                entries.put(host, new Entry(null, System.currentTimeMillis() + negativeTtlMillis));
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.uni.http;
+
+import org.uni.metrics.Log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One selector thread. The connections registered here are only ever touched on this thread;
+// other threads hand work to it through execute(). Timeouts are checked a few times a second.
+class EventLoop implements Runnable {
+    private static final long TICK_MILLIS = 250;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<AsyncConnection> connections = new HashSet<>();
+    private final Thread thread;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    SelectionKey register(SocketChannel channel, int interestOps, AsyncConnection connection) throws ClosedChannelException {
+        connections.add(connection);
+        return channel.register(selector, interestOps, connection);
+    }
+
+    void deregister(AsyncConnection connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.currentTimeMillis() + TICK_MILLIS;
+        while (true) {
+            try {
+                selector.select(TICK_MILLIS);
+                for (Runnable task; (task = tasks.poll()) != null; ) {
+                    task.run();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (key.isValid()) {
+                        ((AsyncConnection) key.attachment()).ready();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextTick) {
+                    for (AsyncConnection connection : new ArrayList<>(connections)) {
+                        connection.tick(now);
+                    }
+                    nextTick = now + TICK_MILLIS;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Connections report their own failures; this only keeps the loop alive
+                Log.warn("Event loop " + thread.getName() + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.uni.http;
+
+import java.util.List;
+
+public class FetchResult {
+    private final String url;
+    private final int statusCode;
+    private final String contentType;
+    private final String content;
+    private final boolean fromCache;
+    private final long streamedBytes;
+    private final List<String> links;
+
+    public FetchResult(String url, int statusCode, String contentType, String content, boolean fromCache) {
+        this(url, statusCode, contentType, content, fromCache, List.of());
+    }
+
+    public FetchResult(String url, int statusCode, String contentType, String content, boolean fromCache,
+                       List<String> links) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.content = content;
+        this.fromCache = fromCache;
+        this.streamedBytes = -1;
+        this.links = links;
+    }
+
+    // A body that went straight to its destination and has no content here
+    public FetchResult(String url, int statusCode, String contentType, long streamedBytes) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.content = null;
+        this.fromCache = false;
+        this.streamedBytes = streamedBytes;
+        this.links = List.of();
+    }
+
+    // Final URL after redirects
+    public String getUrl() {
+        return url;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    public boolean isStreamed() {
+        return streamedBytes >= 0;
+    }
+
+    public long getStreamedBytes() {
+        return streamedBytes;
+    }
+
+    // Links of an HTML page fetched while prefetching is on; empty otherwise, and for cached pages
+    public List<String> getLinks() {
+        return links;
+    }
+}
@@ -0,0 +1,58 @@
+package org.uni.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Body stream framed by Content-Length, or by connection close when the length is negative.
+// Closing it never closes the underlying connection.
+public class FixedLengthInputStream extends InputStream {
+    private final InputStream in;
+    private final boolean untilClose;
+    private long remaining;
+
+    public FixedLengthInputStream(InputStream in, long length) {
+        this.in = in;
+        this.untilClose = length < 0;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!untilClose && remaining == 0) {
+            return -1;
+        }
+        int toRead = untilClose ? length : (int) Math.min(length, remaining);
+        int n = in.read(buffer, offset, toRead);
+        if (n == -1) {
+            if (untilClose) {
+                return -1;
+            }
+            throw new EOFException("Connection closed with " + remaining + " body bytes outstanding");
+        }
+        if (!untilClose) {
+            remaining -= n;
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        int available = in.available();
+        return untilClose ? available : (int) Math.min(available, remaining);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,174 @@
+package org.uni.http;
+
+import org.uni.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Connection racing in the spirit of Happy Eyeballs (RFC 8305): addresses are tried in
+// interleaved IPv6/IPv4 order, and when an attempt has not connected after a short delay the
+// next one starts alongside it instead of waiting out the full connect timeout. The first
+// socket to connect wins and the others are closed.
+public class HappyEyeballs {
+    public static final long DEFAULT_ATTEMPT_DELAY_MILLIS = 250;
+
+    private static final ExecutorService ATTEMPTS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "go2web-connect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private HappyEyeballs() {
+    }
+
+    // A connect timeout of 0 means no timeout, as with Socket.connect
+    public static Socket connect(InetAddress[] addresses, int port, int connectTimeoutMillis,
+                                 long attemptDelayMillis) throws IOException {
+        if (addresses.length == 1) {
+            return connectOne(addresses[0], port, connectTimeoutMillis);
+        }
+        return race(interleave(addresses), port, connectTimeoutMillis, attemptDelayMillis);
+    }
+
+    private static Socket race(List<InetAddress> addresses, int port, int connectTimeoutMillis,
+                               long attemptDelayMillis) throws IOException {
+        Race race = new Race();
+        long deadline = connectTimeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis) : Long.MAX_VALUE;
+        int next = 0;
+        int pending = 0;
+        IOException lastFailure = null;
+        try {
+            race.start(addresses.get(next++), port, connectTimeoutMillis);
+            pending++;
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Connect to port " + port + " of " + addresses + " timed out after "
+                            + connectTimeoutMillis + " ms");
+                }
+                long wait = next < addresses.size() ? Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(attemptDelayMillis)) : remaining;
+                Object result = race.results.poll(wait, TimeUnit.NANOSECONDS);
+                if (result == null) {
+                    if (next < addresses.size()) {
+                        // Still connecting: give the next address a go alongside it
+                        Metrics.global().increment(Metrics.CONNECT_FALLBACKS);
+                        race.start(addresses.get(next++), port, connectTimeoutMillis);
+                        pending++;
+                    }
+                    continue;
+                }
+                pending--;
+                if (result instanceof Socket) {
+                    Socket winner = (Socket) result;
+                    race.finish(winner);
+                    return winner;
+                }
+                lastFailure = (IOException) result;
+                if (next < addresses.size()) {
+                    // Failed outright (e.g. network unreachable), so the next one need not wait
+                    Metrics.global().increment(Metrics.CONNECT_FALLBACKS);
+                    race.start(addresses.get(next++), port, connectTimeoutMillis);
+                    pending++;
+                } else if (pending == 0) {
+                    throw lastFailure;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        } finally {
+            race.finish(null);
+        }
+    }
+
+    private static Socket connectOne(InetAddress address, int port, int connectTimeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Alternates address families, starting with the family the resolver listed first
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        boolean firstIsV6 = addresses[0] instanceof Inet6Address;
+        List<InetAddress> preferred = new ArrayList<>();
+        List<InetAddress> other = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            ((address instanceof Inet6Address) == firstIsV6 ? preferred : other).add(address);
+        }
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+            if (i < preferred.size()) {
+                ordered.add(preferred.get(i));
+            }
+            if (i < other.size()) {
+                ordered.add(other.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    private static class Race {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        private final List<Socket> sockets = new ArrayList<>();
+        private boolean finished;
+
+        synchronized void start(InetAddress address, int port, int connectTimeoutMillis) {
+            Socket socket = new Socket();
+            sockets.add(socket);
+            ATTEMPTS.execute(() -> {
+                Object result;
+                try {
+                    socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+                    result = socket;
+                } catch (IOException e) {
+                    result = e;
+                }
+                synchronized (this) {
+                    if (!finished) {
+                        results.add(result);
+                        return;
+                    }
+                }
+                closeQuietly(socket);
+            });
+        }
+
+        // Closes every socket but the winner; closing one that is still connecting aborts it
+        synchronized void finish(Socket winner) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            for (Socket socket : sockets) {
+                if (socket != winner) {
+                    closeQuietly(socket);
+                }
+            }
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Игнорируем ошибки закрытия сокета
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.uni.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Pieces of HPACK (RFC 7541) shared by the encoder and the decoder: the static table, prefixed
+// integers and the dynamic table. Header names and values are kept as ISO-8859-1 strings, so a
+// string's length is its size in octets.
+public final class Hpack {
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+    private static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+            {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+            {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}
+    };
+    // 1-based static table indexes by name and by "name\0value", first occurrence wins
+    static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    static void writeInteger(ByteArrayOutputStream out, int prefixBits, int flags, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Reads a prefixed integer starting at block[position[0]] and advances position past it
+    static int readInteger(byte[] block, int[] position, int prefixBits) throws IOException {
+        int max = (1 << prefixBits) - 1;
+        int value = block[position[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift = 0; shift <= 28; shift += 7) {
+            if (position[0] >= block.length) {
+                throw new IOException("HPACK: truncated integer");
+            }
+            int b = block[position[0]++] & 0xff;
+            long next = value + ((long) (b & 0x7f) << shift);
+            if (next > Integer.MAX_VALUE) {
+                break;
+            }
+            value = (int) next;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("HPACK: integer overflow");
+    }
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    // Newest entry first: index 0 here is HPACK index STATIC_TABLE.length + 1.
+    static class DynamicTable {
+        private final List<String[]> entries = new ArrayList<>();
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        int length() {
+            return entries.size();
+        }
+
+        int getMaxSize() {
+            return maxSize;
+        }
+
+        String[] get(int index) {
+            return entries.get(entries.size() - 1 - index);
+        }
+
+        void add(String name, String value) {
+            int entrySize = entrySize(name, value);
+            if (entrySize > maxSize) {
+                // An entry larger than the table empties it and is not stored
+                entries.clear();
+                size = 0;
+                return;
+            }
+            evict(maxSize - entrySize);
+            entries.add(new String[]{name, value});
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int targetSize) {
+            int oldest = 0;
+            while (size > targetSize) {
+                String[] entry = entries.get(oldest++);
+                size -= entrySize(entry[0], entry[1]);
+            }
+            entries.subList(0, oldest).clear();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.uni.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Decodes response header blocks. Every block on a connection must pass through the same
+// decoder in the order it was received, including blocks for streams we no longer care about,
+// or the dynamic table gets out of step with the server's.
+public class HpackDecoder {
+    private final Hpack.DynamicTable table;
+    private final int maxTableSize;
+    private final int maxHeaderListSize;
+
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new Hpack.DynamicTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    // Pseudo-header fields (":status") are returned along with the regular ones
+    public HttpHeaders decode(byte[] block) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        int[] position = {0};
+        int listSize = 0;
+        boolean fieldSeen = false;
+        while (position[0] < block.length) {
+            int b = block[position[0]] & 0xff;
+            String name;
+            String value;
+            if ((b & 0x80) != 0) {
+                String[] field = field(Hpack.readInteger(block, position, 7));
+                name = field[0];
+                value = field[1];
+            } else if ((b & 0xc0) == 0x40) {
+                int index = Hpack.readInteger(block, position, 6);
+                name = index == 0 ? readString(block, position) : field(index)[0];
+                value = readString(block, position);
+                table.add(name, value);
+            } else if ((b & 0xe0) == 0x20) {
+                if (fieldSeen) {
+                    throw new IOException("HPACK: table size update after a header field");
+                }
+                int size = Hpack.readInteger(block, position, 5);
+                if (size > maxTableSize) {
+                    throw new IOException("HPACK: table size " + size + " exceeds the advertised " + maxTableSize);
+                }
+                table.setMaxSize(size);
+                continue;
+            } else {
+                // Literal without indexing (0000) or never indexed (0001)
+                int index = Hpack.readInteger(block, position, 4);
+                name = index == 0 ? readString(block, position) : field(index)[0];
+                value = readString(block, position);
+            }
+            fieldSeen = true;
+            listSize += Hpack.entrySize(name, value);
+            if (listSize > maxHeaderListSize) {
+                throw new IOException("Response headers exceed " + maxHeaderListSize + " bytes");
+            }
+            headers.add(name, value);
+        }
+        return headers;
+    }
+
+    private String[] field(int index) throws IOException {
+        if (index <= 0) {
+            throw new IOException("HPACK: index 0");
+        }
+        if (index <= Hpack.STATIC_TABLE.length) {
+            return Hpack.STATIC_TABLE[index - 1];
+        }
+        int dynamicIndex = index - Hpack.STATIC_TABLE.length - 1;
+        if (dynamicIndex >= table.length()) {
+            throw new IOException("HPACK: index " + index + " is outside the table");
+        }
+        return table.get(dynamicIndex);
+    }
+
+    private static String readString(byte[] block, int[] position) throws IOException {
+        if (position[0] >= block.length) {
+            throw new IOException("HPACK: truncated string");
+        }
+        boolean huffman = (block[position[0]] & 0x80) != 0;
+        int length = Hpack.readInteger(block, position, 7);
+        if (length > block.length - position[0]) {
+            throw new IOException("HPACK: truncated string");
+        }
+        int offset = position[0];
+        position[0] += length;
+        if (huffman) {
+            return new String(HpackHuffman.decode(block, offset, length), StandardCharsets.ISO_8859_1);
+        }
+        return new String(block, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
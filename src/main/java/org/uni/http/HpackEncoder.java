@@ -0,0 +1,86 @@
+package org.uni.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Encodes request header blocks. Fields that repeat on every request to a host (user-agent,
+// accept, :authority...) go into the dynamic table once and cost a single byte afterwards;
+// per-request values such as :path and validators are sent as literals and not indexed.
+// Not thread-safe: blocks must be encoded in the order they are written to the connection.
+public class HpackEncoder {
+    private static final Set<String> NOT_INDEXED = Set.of(":path", "if-none-match", "if-modified-since", "range");
+    private static final Set<String> NEVER_INDEXED = Set.of("authorization", "proxy-authorization", "cookie");
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    private int pendingTableSize = -1;
+
+    // Applies the peer's SETTINGS_HEADER_TABLE_SIZE; we never use more than the default
+    public void setMaxTableSize(int peerMaxSize) {
+        int size = Math.min(peerMaxSize, Hpack.DEFAULT_TABLE_SIZE);
+        if (size != table.getMaxSize()) {
+            table.setMaxSize(size);
+            pendingTableSize = size;
+        }
+    }
+
+    public byte[] encode(List<Map.Entry<String, String>> fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        if (pendingTableSize >= 0) {
+            Hpack.writeInteger(out, 5, 0x20, pendingTableSize);
+            pendingTableSize = -1;
+        }
+        for (Map.Entry<String, String> field : fields) {
+            encodeField(out, field.getKey(), field.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    private void encodeField(ByteArrayOutputStream out, String name, String value) {
+        Integer staticIndex = Hpack.STATIC_FIELDS.get(name + '\0' + value);
+        if (staticIndex != null) {
+            Hpack.writeInteger(out, 7, 0x80, staticIndex);
+            return;
+        }
+        int nameIndex = Hpack.STATIC_NAMES.getOrDefault(name, 0);
+        for (int i = 0; i < table.length(); i++) {
+            String[] entry = table.get(i);
+            if (entry[0].equals(name)) {
+                int index = Hpack.STATIC_TABLE.length + 1 + i;
+                if (entry[1].equals(value)) {
+                    Hpack.writeInteger(out, 7, 0x80, index);
+                    return;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = index;
+                }
+            }
+        }
+        if (NEVER_INDEXED.contains(name)) {
+            Hpack.writeInteger(out, 4, 0x10, nameIndex);
+        } else if (NOT_INDEXED.contains(name)) {
+            Hpack.writeInteger(out, 4, 0x00, nameIndex);
+        } else {
+            Hpack.writeInteger(out, 6, 0x40, nameIndex);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            writeString(out, name);
+        }
+        writeString(out, value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String text) {
+        byte[] raw = text.getBytes(StandardCharsets.ISO_8859_1);
+        int huffmanLength = HpackHuffman.encodedLength(raw);
+        if (huffmanLength < raw.length) {
+            Hpack.writeInteger(out, 7, 0x80, huffmanLength);
+            HpackHuffman.encode(raw, out);
+        } else {
+            Hpack.writeInteger(out, 7, 0x00, raw.length);
+            out.writeBytes(raw);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.uni.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// The static Huffman code from RFC 7541, Appendix B. It is canonical, so only the code length
+// of each symbol is listed; the codes themselves are assigned in (length, symbol) order.
+public final class HpackHuffman {
+    private static final int EOS = 256;
+    private static final int[] CODE_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+    private static final int[] CODES = new int[CODE_LENGTHS.length];
+    // Decoding tree: TREE[2 * node + bit] is the next node, or -(symbol + 1) for a leaf
+    private static final int[] TREE = new int[2 * CODE_LENGTHS.length];
+
+    static {
+        int code = 0;
+        int length = 0;
+        for (int maxLength = 1; maxLength <= 30; maxLength++) {
+            for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+                if (CODE_LENGTHS[symbol] == maxLength) {
+                    code <<= maxLength - length;
+                    length = maxLength;
+                    CODES[symbol] = code++;
+                }
+            }
+        }
+        int nodes = 1;
+        for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+            int node = 0;
+            for (int bit = CODE_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int slot = 2 * node + ((CODES[symbol] >>> bit) & 1);
+                if (TREE[slot] == 0) {
+                    TREE[slot] = nodes++;
+                }
+                node = TREE[slot];
+            }
+            TREE[2 * node + (CODES[symbol] & 1)] = -(symbol + 1);
+        }
+    }
+
+    private HpackHuffman() {
+    }
+
+    public static int encodedLength(byte[] data) {
+        long bits = 0;
+        for (byte b : data) {
+            bits += CODE_LENGTHS[b & 0xff];
+        }
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    public static void encode(byte[] data, ByteArrayOutputStream out) {
+        long buffer = 0;
+        int bits = 0;
+        for (byte b : data) {
+            int symbol = b & 0xff;
+            buffer = (buffer << CODE_LENGTHS[symbol]) | CODES[symbol];
+            bits += CODE_LENGTHS[symbol];
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (buffer >>> bits));
+            }
+        }
+        if (bits > 0) {
+            // Pad with the most significant bits of EOS, which are all ones
+            out.write((int) ((buffer << (8 - bits)) | (0xff >>> bits)));
+        }
+    }
+
+    public static byte[] decode(byte[] data, int offset, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 8 / 5);
+        int node = 0;
+        int pendingBits = 0;
+        boolean pendingAllOnes = true;
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int one = (b >>> bit) & 1;
+                int next = TREE[2 * node + one];
+                pendingBits++;
+                pendingAllOnes &= one == 1;
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == EOS) {
+                        throw new IOException("HPACK: EOS symbol inside a Huffman string");
+                    }
+                    out.write(symbol);
+                    node = 0;
+                    pendingBits = 0;
+                    pendingAllOnes = true;
+                } else {
+                    node = next;
+                }
+            }
+        }
+        // Whatever is left over must be a prefix of EOS shorter than a byte
+        if (pendingBits > 7 || !pendingAllOnes) {
+            throw new IOException("HPACK: invalid Huffman padding");
+        }
+        return out.toByteArray();
+    }
+}
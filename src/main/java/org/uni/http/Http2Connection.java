@@ -0,0 +1,747 @@
+package org.uni.http;
+
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// One HTTP/2 connection (RFC 9113) negotiated through ALPN. Any number of threads may call
+// exchange() at the same time: every request becomes a stream on this socket and a single
+// reader thread hands the frames that come back to the right stream. Requests carry no body,
+// so flow control only matters in the receive direction: we advertise large windows and top
+// them up with WINDOW_UPDATE as DATA arrives.
+public class Http2Connection {
+    public static final String ALPN_PROTOCOL = "h2";
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int CANCEL = 0x8;
+    private static final int COMPRESSION_ERROR = 0x9;
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+    private static final int MAX_FRAME_SIZE_LIMIT = 16_777_215;
+    private static final int DEFAULT_WINDOW_SIZE = 65_535;
+    private static final int STREAM_WINDOW_SIZE = 1 << 20;
+    private static final int CONNECTION_WINDOW_SIZE = 16 << 20;
+    private static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    // Used when the server's SETTINGS do not limit concurrent streams
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+    // Hop-by-hop headers that HTTP/2 forbids
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade", "host");
+
+    private final String route;
+    private final Socket socket;
+    private final int readTimeoutMillis;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Object writeLock = new Object();
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final Metrics metrics = Metrics.global();
+
+    // Guarded by writeLock
+    private int nextStreamId = 1;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    // Guarded by this
+    private int activeStreams;
+    private int maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+    // Streams wait for the server's first SETTINGS, which may allow fewer streams than we assume
+    private boolean settingsReceived;
+    private volatile boolean goAway;
+    private volatile IOException failure;
+    private volatile long lastUsed;
+
+    // Reader thread only
+    private int connectionReceiveWindow = DEFAULT_WINDOW_SIZE;
+    private ByteArrayOutputStream headerBlock;
+    private int headerBlockStreamId;
+    private boolean headerBlockEndsStream;
+
+    // Thrown when the server did not process a request (REFUSED_STREAM, or a stream above the
+    // last one a GOAWAY accepted), so it is safe to send it again on another connection.
+    public static class StreamNotProcessedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public StreamNotProcessedException(String message) {
+            super(message);
+        }
+    }
+
+    private Http2Connection(String route, Socket socket, int readTimeoutMillis) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    // Takes over a socket whose ALPN handshake selected "h2": sends the connection preface
+    // and our SETTINGS, then starts the reader thread. The read timeout applies to the server's
+    // SETTINGS and, per stream, to the gaps between response frames; an idle connection
+    // itself never times out.
+    public static Http2Connection start(String route, Socket socket, int readTimeoutMillis) throws IOException {
+        socket.setSoTimeout(readTimeoutMillis);
+        Http2Connection connection = new Http2Connection(route, socket, readTimeoutMillis);
+        connection.sendPreface();
+        Thread reader = new Thread(connection::readLoop, "go2web-h2-" + route);
+        reader.setDaemon(true);
+        reader.start();
+        return connection;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public synchronized int getActiveStreams() {
+        return activeStreams;
+    }
+
+    // False once the connection failed, was closed, or the server announced GOAWAY
+    public boolean isUsable() {
+        return !goAway && failure == null && !socket.isClosed();
+    }
+
+    // Sends a request on a new stream and waits for its complete response. The body is
+    // returned with any gzip/deflate content coding removed, as HttpResponseReader does.
+    public HttpResponse exchange(String method, String authority, String path, HttpHeaders headers) throws IOException {
+        acquireStreamSlot();
+        Stream stream = null;
+        try {
+            stream = openStream(method, authority, path, headers);
+            HttpResponse response = stream.await(readTimeoutMillis);
+            byte[] raw = response.getBody();
+            try (InputStream body = HttpResponseReader.decode(response, new ByteArrayInputStream(raw))) {
+                response.setBody(body.readAllBytes());
+            }
+            return response;
+        } catch (InterruptedIOException e) {
+            if (stream != null) {
+                resetStream(stream, CANCEL, e);
+            }
+            throw e;
+        } finally {
+            if (stream != null) {
+                streams.remove(stream.id);
+            }
+            releaseStreamSlot();
+        }
+    }
+
+    // Announces a graceful shutdown and closes the socket; streams still in flight fail.
+    public void close() {
+        goAway = true;
+        try {
+            synchronized (writeLock) {
+                writeGoAway(NO_ERROR);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The socket is being closed anyway
+        }
+        closeSocket();
+    }
+
+    private void sendPreface() throws IOException {
+        synchronized (writeLock) {
+            out.write(PREFACE);
+            byte[] settings = new byte[18];
+            putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+            putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+            writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+            writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            out.flush();
+            metrics.add(Metrics.BYTES_WRITTEN, PREFACE.length);
+        }
+        connectionReceiveWindow = CONNECTION_WINDOW_SIZE;
+    }
+
+    private synchronized void acquireStreamSlot() throws IOException {
+        while (isUsable() && (!settingsReceived || activeStreams >= maxConcurrentStreams)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a free HTTP/2 stream");
+            }
+        }
+        if (!isUsable()) {
+            throw new StreamNotProcessedException("HTTP/2 connection to " + route + " is no longer usable"
+                    + (failure != null ? ": " + failure.getMessage() : ""));
+        }
+        activeStreams++;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    private void releaseStreamSlot() {
+        boolean drained;
+        synchronized (this) {
+            activeStreams--;
+            lastUsed = System.currentTimeMillis();
+            notifyAll();
+            drained = goAway && activeStreams == 0;
+        }
+        if (drained) {
+            closeSocket();
+        }
+    }
+
+    private Stream openStream(String method, String authority, String path, HttpHeaders headers) throws IOException {
+        List<Map.Entry<String, String>> fields = new ArrayList<>(headers.size() + 4);
+        fields.add(Map.entry(":method", method));
+        fields.add(Map.entry(":scheme", "https"));
+        fields.add(Map.entry(":authority", authority));
+        fields.add(Map.entry(":path", path));
+        for (Map.Entry<String, String> header : headers.entries()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                fields.add(Map.entry(name, header.getValue()));
+            }
+        }
+        synchronized (writeLock) {
+            if (!isUsable() || nextStreamId < 0) {
+                throw new StreamNotProcessedException("HTTP/2 connection to " + route + " cannot open new streams");
+            }
+            Stream stream = new Stream(nextStreamId);
+            nextStreamId += 2;
+            streams.put(stream.id, stream);
+            try {
+                // Header blocks must reach the wire in the order they were encoded
+                byte[] block = encoder.encode(fields);
+                writeHeaderBlock(stream.id, block);
+                out.flush();
+            } catch (IOException e) {
+                streams.remove(stream.id);
+                fail(e);
+                throw e;
+            }
+            return stream;
+        }
+    }
+
+    // Requests have no body, so the HEADERS frame also ends our side of the stream
+    private void writeHeaderBlock(int streamId, byte[] block) throws IOException {
+        int length = Math.min(block.length, peerMaxFrameSize);
+        int flags = FLAG_END_STREAM | (length == block.length ? FLAG_END_HEADERS : 0);
+        writeFrame(HEADERS, flags, streamId, block, 0, length);
+        for (int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, peerMaxFrameSize);
+            writeFrame(CONTINUATION, offset + length == block.length ? FLAG_END_HEADERS : 0, streamId, block, offset, length);
+        }
+    }
+
+    private void readLoop() {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        try {
+            while (true) {
+                in.readFully(header);
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = readInt(header, 5) & 0x7fffffff;
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw connectionError(FRAME_SIZE_ERROR, "frame of " + length + " bytes");
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                metrics.add(Metrics.BYTES_READ, FRAME_HEADER_LENGTH + length);
+                if (headerBlock != null && (type != CONTINUATION || streamId != headerBlockStreamId)) {
+                    throw connectionError(PROTOCOL_ERROR, "header block interrupted by frame type " + type);
+                }
+                onFrame(type, flags, streamId, payload);
+            }
+        } catch (EOFException e) {
+            fail(new EOFException("HTTP/2 connection to " + route + " closed by server"));
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("HTTP/2 connection to " + route + " failed", e));
+        }
+    }
+
+    private void onFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case DATA:
+                onData(flags, streamId, payload);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, payload);
+                break;
+            case CONTINUATION:
+                if (headerBlock == null) {
+                    throw connectionError(PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+                }
+                headerBlock.write(payload, 0, payload.length);
+                if (headerBlock.size() > MAX_HEADER_LIST_SIZE) {
+                    throw connectionError(PROTOCOL_ERROR, "header block exceeds " + MAX_HEADER_LIST_SIZE + " bytes");
+                }
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    onHeaderBlock();
+                }
+                break;
+            case RST_STREAM:
+                onResetStream(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(flags, streamId, payload);
+                break;
+            case PING:
+                if (streamId != 0 || payload.length != 8) {
+                    throw connectionError(PROTOCOL_ERROR, "malformed PING");
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    synchronized (writeLock) {
+                        writeFrame(PING, FLAG_ACK, 0, payload, 0, payload.length);
+                        out.flush();
+                    }
+                }
+                break;
+            case GOAWAY:
+                onGoAway(streamId, payload);
+                break;
+            case WINDOW_UPDATE:
+                if (payload.length != 4) {
+                    throw connectionError(FRAME_SIZE_ERROR, "malformed WINDOW_UPDATE");
+                }
+                if ((readInt(payload, 0) & 0x7fffffff) == 0) {
+                    Stream stream = streams.get(streamId);
+                    if (streamId == 0) {
+                        throw connectionError(PROTOCOL_ERROR, "WINDOW_UPDATE with zero increment");
+                    } else if (stream != null) {
+                        resetStream(stream, PROTOCOL_ERROR, new IOException("WINDOW_UPDATE with zero increment"));
+                    }
+                }
+                // We never send DATA, so the peer's windows need no bookkeeping
+                break;
+            case PUSH_PROMISE:
+                throw connectionError(PROTOCOL_ERROR, "PUSH_PROMISE although push is disabled");
+            case PRIORITY:
+            default:
+                // PRIORITY is advisory and unknown frame types must be ignored
+                break;
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw connectionError(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        // Padding counts against the windows too
+        connectionReceiveWindow -= payload.length;
+        if (connectionReceiveWindow < 0) {
+            throw connectionError(FLOW_CONTROL_ERROR, "connection window exceeded");
+        }
+        if (connectionReceiveWindow < CONNECTION_WINDOW_SIZE / 2) {
+            sendWindowUpdate(0, CONNECTION_WINDOW_SIZE - connectionReceiveWindow);
+            connectionReceiveWindow = CONNECTION_WINDOW_SIZE;
+        }
+        int[] bounds = unpad(flags, payload, 0);
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            // A stream we already gave up on; the data only had to be counted
+            return;
+        }
+        if (stream.response == null) {
+            resetStream(stream, PROTOCOL_ERROR, new IOException("DATA before HEADERS on stream " + streamId));
+            return;
+        }
+        stream.receiveWindow -= payload.length;
+        if (stream.receiveWindow < 0) {
+            resetStream(stream, FLOW_CONTROL_ERROR, new IOException("Stream window exceeded on stream " + streamId));
+            return;
+        }
+        stream.body.write(payload, bounds[0], bounds[1] - bounds[0]);
+        stream.lastActivity = System.nanoTime();
+        if ((flags & FLAG_END_STREAM) != 0) {
+            complete(stream);
+        } else if (stream.receiveWindow < STREAM_WINDOW_SIZE / 2) {
+            sendWindowUpdate(streamId, STREAM_WINDOW_SIZE - stream.receiveWindow);
+            stream.receiveWindow = STREAM_WINDOW_SIZE;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw connectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int[] bounds = unpad(flags, payload, (flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+        headerBlock = new ByteArrayOutputStream(Math.max(64, bounds[1] - bounds[0]));
+        headerBlock.write(payload, bounds[0], bounds[1] - bounds[0]);
+        headerBlockStreamId = streamId;
+        headerBlockEndsStream = (flags & FLAG_END_STREAM) != 0;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock();
+        }
+    }
+
+    private void onHeaderBlock() throws IOException {
+        byte[] block = headerBlock.toByteArray();
+        headerBlock = null;
+        HttpHeaders fields;
+        try {
+            fields = decoder.decode(block);
+        } catch (IOException e) {
+            throw connectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        Stream stream = streams.get(headerBlockStreamId);
+        if (stream == null) {
+            return;
+        }
+        if (stream.response == null) {
+            int status;
+            try {
+                status = Integer.parseInt(fields.first(":status"));
+            } catch (NumberFormatException e) {
+                resetStream(stream, PROTOCOL_ERROR, new IOException("Missing or invalid :status on stream " + stream.id));
+                return;
+            }
+            if (status >= 100 && status < 200) {
+                // Interim response (103 Early Hints and the like); the final one follows
+                return;
+            }
+            HttpHeaders headers = new HttpHeaders();
+            for (Map.Entry<String, String> field : fields.entries()) {
+                if (!field.getKey().startsWith(":")) {
+                    headers.add(field.getKey(), field.getValue());
+                }
+            }
+            stream.response = new HttpResponse("HTTP/2", status, "", headers);
+            stream.headersAt = metrics.recordSince(Metrics.TIME_TO_FIRST_BYTE, stream.startedAt);
+        }
+        stream.lastActivity = System.nanoTime();
+        // A second block is a trailer section, which we have no use for
+        if (headerBlockEndsStream) {
+            complete(stream);
+        }
+    }
+
+    private void onResetStream(int streamId, byte[] payload) throws IOException {
+        if (streamId == 0 || payload.length != 4) {
+            throw connectionError(PROTOCOL_ERROR, "malformed RST_STREAM");
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            int code = readInt(payload, 0);
+            stream.result.completeExceptionally(code == REFUSED_STREAM
+                    ? new StreamNotProcessedException("Stream " + streamId + " refused by " + route)
+                    : new IOException("Stream " + streamId + " reset by " + route + " with error code " + code));
+        }
+    }
+
+    private void onSettings(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw connectionError(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw connectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+            }
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw connectionError(FRAME_SIZE_ERROR, "SETTINGS of " + payload.length + " bytes");
+        }
+        synchronized (writeLock) {
+            for (int offset = 0; offset < payload.length; offset += 6) {
+                int id = ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+                long value = readInt(payload, offset + 2) & 0xffffffffL;
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                        break;
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        synchronized (this) {
+                            maxConcurrentStreams = (int) Math.min(value, Integer.MAX_VALUE);
+                            notifyAll();
+                        }
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value > Integer.MAX_VALUE) {
+                            throw connectionError(FLOW_CONTROL_ERROR, "initial window size " + value);
+                        }
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                            throw connectionError(PROTOCOL_ERROR, "max frame size " + value);
+                        }
+                        peerMaxFrameSize = (int) value;
+                        break;
+                    default:
+                        // Unknown settings must be ignored
+                        break;
+                }
+            }
+            // The encoder picked up a new table size above, before this ACK goes out
+            writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+            out.flush();
+        }
+        synchronized (this) {
+            if (!settingsReceived) {
+                // From here on only streams time out, see start()
+                socket.setSoTimeout(0);
+                settingsReceived = true;
+            }
+            notifyAll();
+        }
+    }
+
+    private void onGoAway(int streamId, byte[] payload) throws IOException {
+        if (streamId != 0 || payload.length < 8) {
+            throw connectionError(PROTOCOL_ERROR, "malformed GOAWAY");
+        }
+        int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+        int code = readInt(payload, 4);
+        Log.debug(() -> "HTTP/2 GOAWAY from " + route + ": last stream " + lastStreamId + ", error code " + code);
+        goAway = true;
+        for (Stream stream : streams.values()) {
+            if (stream.id > lastStreamId && streams.remove(stream.id, stream)) {
+                stream.result.completeExceptionally(
+                        new StreamNotProcessedException("Stream " + stream.id + " not processed before GOAWAY from " + route));
+            }
+        }
+        boolean drained;
+        synchronized (this) {
+            notifyAll();
+            drained = activeStreams == 0;
+        }
+        if (drained) {
+            closeSocket();
+        }
+    }
+
+    private void complete(Stream stream) {
+        if (stream.response == null) {
+            resetStream(stream, PROTOCOL_ERROR, new IOException("Stream " + stream.id + " ended without a response"));
+            return;
+        }
+        stream.response.setBody(stream.body.toByteArray());
+        metrics.recordSince(Metrics.BODY_TRANSFER, stream.headersAt);
+        streams.remove(stream.id);
+        stream.result.complete(stream.response);
+    }
+
+    private void resetStream(Stream stream, int code, IOException reason) {
+        streams.remove(stream.id);
+        stream.result.completeExceptionally(reason);
+        try {
+            synchronized (writeLock) {
+                byte[] payload = new byte[4];
+                putInt(payload, 0, code);
+                writeFrame(RST_STREAM, 0, stream.id, payload, 0, payload.length);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private IOException connectionError(int code, String message) {
+        try {
+            synchronized (writeLock) {
+                writeGoAway(code);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Reported through the returned exception
+        }
+        return new IOException("HTTP/2 protocol error from " + route + ": " + message);
+    }
+
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        closeSocket();
+        for (Stream stream : streams.values()) {
+            streams.remove(stream.id);
+            stream.result.completeExceptionally(cause);
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Игнорируем ошибки закрытия сокета
+        }
+    }
+
+    private void sendWindowUpdate(int streamId, int increment) throws IOException {
+        synchronized (writeLock) {
+            writeWindowUpdate(streamId, increment);
+            out.flush();
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    private void writeGoAway(int code) throws IOException {
+        // We never accept server-initiated streams, so the last stream id is always 0
+        byte[] payload = new byte[8];
+        putInt(payload, 4, code);
+        writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        putInt(header, 5, streamId);
+        out.write(header);
+        out.write(payload, offset, length);
+        metrics.add(Metrics.BYTES_WRITTEN, FRAME_HEADER_LENGTH + length);
+    }
+
+    // Returns the [start, end) range of a frame's content once padding and a fixed-size
+    // prefix (the HEADERS priority fields) are skipped.
+    private int[] unpad(int flags, byte[] payload, int prefix) throws IOException {
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (payload.length == 0) {
+                throw connectionError(PROTOCOL_ERROR, "PADDED frame without a pad length");
+            }
+            start = 1;
+            end -= payload[0] & 0xff;
+        }
+        start += prefix;
+        if (start > end) {
+            throw connectionError(PROTOCOL_ERROR, "padding exceeds the frame");
+        }
+        return new int[]{start, end};
+    }
+
+    private static void putSetting(byte[] buffer, int offset, int id, int value) {
+        buffer[offset] = (byte) (id >>> 8);
+        buffer[offset + 1] = (byte) id;
+        putInt(buffer, offset + 2, value);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private static class Stream {
+        final int id;
+        final long startedAt = System.nanoTime();
+        volatile long lastActivity = startedAt;
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // Reader thread only
+        HttpResponse response;
+        long headersAt;
+        int receiveWindow = STREAM_WINDOW_SIZE;
+
+        Stream(int id) {
+            this.id = id;
+        }
+
+        // Waits until the response is complete, or until no frame arrived for the timeout
+        HttpResponse await(int timeoutMillis) throws IOException {
+            try {
+                if (timeoutMillis <= 0) {
+                    return result.get();
+                }
+                long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (true) {
+                    long idle = System.nanoTime() - lastActivity;
+                    if (idle >= timeoutNanos) {
+                        throw new SocketTimeoutException("HTTP/2 stream " + id + " timed out after " + timeoutMillis + " ms");
+                    }
+                    try {
+                        return result.get(timeoutNanos - idle, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        // Frames may have arrived meanwhile; the loop re-checks
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for HTTP/2 stream " + id);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+}
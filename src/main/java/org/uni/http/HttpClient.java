@@ -1,251 +1,865 @@
 package org.uni.http;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.uni.html.HtmlParser;
+import org.uni.html.LinkExtractor;
+import org.uni.json.JsonFormatter;
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
 
-import javax.net.ssl.SSLSocketFactory;
-import java.io.BufferedReader;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class HttpClient {
     private static final int MAX_REDIRECTS = 5;
     private final CacheManager cacheManager;
-    private int redirectCount = 0;
+    private final ConnectionPool connectionPool;
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/113.0.0.0 Safari/537.36";
     private static final int DEFAULT_HTTP_PORT = 80;
     private static final int DEFAULT_HTTPS_PORT = 443;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30_000;
+    // 0 disables a timeout; the read timeout bounds every wait for response bytes
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("go2web.http.connectTimeoutMs", DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    private static final int READ_TIMEOUT_MILLIS = Integer.getInteger("go2web.http.readTimeoutMs", DEFAULT_READ_TIMEOUT_MILLIS);
+    private static final long ATTEMPT_DELAY_MILLIS = Long.getLong("go2web.http.attemptDelayMs", HappyEyeballs.DEFAULT_ATTEMPT_DELAY_MILLIS);
+    private static final ExecutorService REVALIDATION_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "go2web-revalidate");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Runs the stages of fetchAsync after the response has arrived, so the selector threads
+    // only ever move bytes
+    private static final ExecutorService ASYNC_STAGES = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), task -> {
+                Thread thread = new Thread(task, "go2web-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // At most one background revalidation per URL and Accept header
+    private final Map<String, CompletableFuture<Void>> revalidations = new ConcurrentHashMap<>();
+    // Concurrent cache misses for the same URL and Accept header share one origin fetch
+    private final SingleFlight<String, FetchResult> originFetches = new SingleFlight<>();
+    // The same for fetchAsync, whose callers share the future instead of waiting on it
+    private final Map<String, CompletableFuture<FetchResult>> asyncOriginFetches = new ConcurrentHashMap<>();
+    private final LongAdder asyncCoalesced = new LongAdder();
+    private final DnsCache dnsCache = DnsCache.shared();
+    private final Metrics metrics = Metrics.global();
+    private volatile boolean http2Enabled = Boolean.getBoolean("go2web.http2");
+    private final Prefetcher prefetcher = new Prefetcher(this);
+    // A streamed text body up to this size is also cached; longer ones only go to their target
+    private static final int MAX_STREAMED_CACHE_BYTES = 1 << 20;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final String CONTENT_CODINGS = "gzip, deflate";
+    // Unrendered bodies are cached apart from rendered ones
+    private static final String SOURCE_KEY_PREFIX = "source ";
 
     public HttpClient(boolean useFileCache) {
-        this.cacheManager = new CacheManager(useFileCache);
+        this(useFileCache, ConnectionPool.shared());
+    }
+
+    public HttpClient(boolean useFileCache, ConnectionPool connectionPool) {
+        this(new CacheManager(useFileCache), connectionPool);
+    }
+
+    public HttpClient(CacheManager cacheManager, ConnectionPool connectionPool) {
+        this.cacheManager = cacheManager;
+        this.connectionPool = connectionPool;
+    }
+
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    // With HTTP/2 enabled, HTTPS origins that negotiate h2 are served over one multiplexed
+    // connection per host; everything else keeps using HTTP/1.1.
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
     }
 
     public String makeSocketRequest(String urlString, String acceptHeader) throws IOException {
-        if (redirectCount >= MAX_REDIRECTS) {
-            throw new IOException("Too many redirects");
-        }
-        
-        URL url = new URL(urlString);
-        String host = url.getHost();
-        int port = url.getPort();
-        String path = url.getPath();
-        if (path.isEmpty()) {
-            path = "/";
-        }
-        if (url.getQuery() != null) {
-            path += "?" + url.getQuery();
+        return fetch(urlString, acceptHeader).getContent();
+    }
+
+    // Thread-safe: all per-request state, including the redirect count, lives on the stack.
+    public FetchResult fetch(String urlString, String acceptHeader) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return fetch(urlString, acceptHeader, 0);
+        } finally {
+            metrics.recordSince(Metrics.FETCH_TOTAL, start);
         }
+    }
 
-        if (port == -1) {
-            boolean isSecure = urlString.startsWith("https://");
-            port = isSecure ? DEFAULT_HTTPS_PORT : DEFAULT_HTTP_PORT;
+    private FetchResult fetch(String urlString, String acceptHeader, int redirectCount) throws IOException {
+        if (redirectCount >= MAX_REDIRECTS) {
+            throw new IOException("Too many redirects");
         }
 
         // Проверяем кеш перед отправкой запроса
         CacheEntry cachedEntry = cacheManager.get(urlString);
         if (cachedEntry != null && !cachedEntry.isExpired()) {
-            System.out.println("Using cached response for: " + urlString);
-            return cachedEntry.getContent();
+            Log.debug("Using cached response for: " + urlString);
+            metrics.increment(Metrics.CACHE_FRESH_HITS);
+            return new FetchResult(urlString, 200, cachedEntry.getContentType(), cachedEntry.getContent(), true);
+        }
+        if (cachedEntry != null && cachedEntry.isServableWhileRevalidating()) {
+            Log.debug("Using stale cached response while revalidating: " + urlString);
+            metrics.increment(Metrics.CACHE_STALE_HITS);
+            revalidateInBackground(urlString, acceptHeader, cachedEntry, redirectCount);
+            return new FetchResult(urlString, 200, cachedEntry.getContentType(), cachedEntry.getContent(), true);
         }
+        boolean[] ranHere = {false};
+        FetchResult result = originFetches.execute(requestKey(urlString, acceptHeader), () -> {
+            ranHere[0] = true;
+            return fetchFromOrigin(urlString, acceptHeader, cachedEntry, redirectCount);
+        });
+        if (!ranHere[0]) {
+            metrics.increment(Metrics.COALESCED);
+        }
+        return result;
+    }
+
+    public long getCoalescedFetchCount() {
+        return originFetches.getCoalescedCount() + asyncCoalesced.sum();
+    }
 
-        Socket socket = null;
-        StringBuilder responseBuilder = new StringBuilder();
-        String etag = null;
-        
+    private static String requestKey(String urlString, String acceptHeader) {
+        return acceptHeader + " " + urlString;
+    }
+
+    // Waits for stale-while-revalidate refreshes started by this client, so a short-lived
+    // process does not exit before the refreshed entry reaches the cache.
+    public void awaitBackgroundRefreshes(long timeoutMillis) {
+        CompletableFuture<?>[] pending = revalidations.values().toArray(new CompletableFuture<?>[0]);
+        if (pending.length == 0) {
+            return;
+        }
         try {
-            if (port == DEFAULT_HTTPS_PORT || urlString.startsWith("https://")) {
-                SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-                socket = sslSocketFactory.createSocket(host, port);
-            } else {
-                socket = new Socket(host, port);
+            CompletableFuture.allOf(pending).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // The stale entry stays cached and the next request will try again
+        }
+    }
+
+    private void revalidateInBackground(String urlString, String acceptHeader, CacheEntry cachedEntry, int redirectCount) {
+        String key = requestKey(urlString, acceptHeader);
+        CompletableFuture<Void> task = new CompletableFuture<>();
+        if (revalidations.putIfAbsent(key, task) != null) {
+            return;
+        }
+        REVALIDATION_EXECUTOR.execute(() -> {
+            try {
+                fetchFromOrigin(urlString, acceptHeader, cachedEntry, redirectCount);
+            } catch (IOException | RuntimeException e) {
+                // The stale entry stays cached and the next request will try again
+            } finally {
+                revalidations.remove(key, task);
+                task.complete(null);
             }
+        });
+    }
+
+    // Non-blocking counterpart of fetch. No thread waits for the network: the exchange runs on
+    // the selector threads of AsyncTransport, and redirects, revalidation, rendering and caching
+    // follow as stages on a small fixed pool. Always uses HTTP/1.1.
+    public CompletableFuture<FetchResult> fetchAsync(String urlString, String acceptHeader) {
+        long start = System.nanoTime();
+        return fetchAsync(urlString, acceptHeader, 0, false)
+                .whenComplete((result, error) -> metrics.recordSince(Metrics.FETCH_TOTAL, start));
+    }
+
+    // Like fetchAsync, but the body comes back as decoded text instead of rendered, and is cached
+    // under its own key next to the rendered copy. The crawler needs the markup for its links,
+    // while -u keeps getting the rendered page.
+    public CompletableFuture<FetchResult> fetchSourceAsync(String urlString, String acceptHeader) {
+        long start = System.nanoTime();
+        return fetchAsync(urlString, acceptHeader, 0, true)
+                .whenComplete((result, error) -> metrics.recordSince(Metrics.FETCH_TOTAL, start));
+    }
+
+    private static String cacheKey(String urlString, boolean source) {
+        return source ? SOURCE_KEY_PREFIX + urlString : urlString;
+    }
 
-            StringBuilder requestBuilder = new StringBuilder();
-            requestBuilder.append("GET ").append(path).append(" HTTP/1.1\r\n");
-            requestBuilder.append("Host: ").append(host).append("\r\n");
-            requestBuilder.append("Connection: close\r\n");
-            requestBuilder.append("Accept: ").append(acceptHeader).append("\r\n");
-            
-            if (urlString.contains("bing.com") || urlString.contains("google.com")) {
-                requestBuilder.append("User-Agent: ").append(USER_AGENT).append("\r\n");
-                requestBuilder.append("Accept-Language: en-US,en;q=0.9\r\n");
-                requestBuilder.append("Referer: https://www.google.com/\r\n");
+    private CompletableFuture<FetchResult> fetchAsync(String urlString, String acceptHeader, int redirectCount,
+                                                      boolean source) {
+        if (redirectCount >= MAX_REDIRECTS) {
+            return CompletableFuture.failedFuture(new IOException("Too many redirects"));
+        }
+        CacheEntry cachedEntry = cacheManager.get(cacheKey(urlString, source));
+        if (cachedEntry != null && !cachedEntry.isExpired()) {
+            Log.debug("Using cached response for: " + urlString);
+            metrics.increment(Metrics.CACHE_FRESH_HITS);
+            return CompletableFuture.completedFuture(
+                    new FetchResult(urlString, 200, cachedEntry.getContentType(), cachedEntry.getContent(), true));
+        }
+        if (cachedEntry != null && cachedEntry.isServableWhileRevalidating()) {
+            Log.debug("Using stale cached response while revalidating: " + urlString);
+            metrics.increment(Metrics.CACHE_STALE_HITS);
+            revalidateAsync(urlString, acceptHeader, cachedEntry, redirectCount, source);
+            return CompletableFuture.completedFuture(
+                    new FetchResult(urlString, 200, cachedEntry.getContentType(), cachedEntry.getContent(), true));
+        }
+        if (redirectCount > 0) {
+            // A redirect is part of its first request's flight; sharing by URL here could make
+            // a redirect loop wait on itself
+            return fetchFromOriginAsync(urlString, acceptHeader, cachedEntry, redirectCount, source);
+        }
+        String key = requestKey(cacheKey(urlString, source), acceptHeader);
+        CompletableFuture<FetchResult> flight = new CompletableFuture<>();
+        CompletableFuture<FetchResult> existing = asyncOriginFetches.putIfAbsent(key, flight);
+        if (existing != null) {
+            asyncCoalesced.increment();
+            metrics.increment(Metrics.COALESCED);
+            return existing;
+        }
+        fetchFromOriginAsync(urlString, acceptHeader, cachedEntry, redirectCount, source).whenComplete((result, error) -> {
+            asyncOriginFetches.remove(key, flight);
+            if (error != null) {
+                flight.completeExceptionally(AsyncTransport.unwrap(error));
             } else {
-                requestBuilder.append("User-Agent: Go2Web/1.0\r\n");
-            }
-            
-            // Добавляем If-None-Match, если у нас есть закешированное значение с ETag
-            if (cachedEntry != null && cachedEntry.getEtag() != null) {
-                requestBuilder.append("If-None-Match: ").append(cachedEntry.getEtag()).append("\r\n");
+                flight.complete(result);
             }
+        });
+        return flight;
+    }
 
-            requestBuilder.append("\r\n");
-            
-            // Отправка запроса
-            OutputStream out = socket.getOutputStream();
-            out.write(requestBuilder.toString().getBytes(StandardCharsets.UTF_8));
-            out.flush();
-
-            // Чтение ответа
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBuilder.append(line).append("\n");
-            }
-        } finally {
-            if (socket != null && !socket.isClosed()) {
-                try {
-                    socket.close();
-                } catch (IOException e) {
-                    // Игнорируем ошибки закрытия сокета
-                }
-            }
+    // Shares the revalidations map with the blocking path, so awaitBackgroundRefreshes covers both
+    private void revalidateAsync(String urlString, String acceptHeader, CacheEntry cachedEntry, int redirectCount,
+                                 boolean source) {
+        String key = requestKey(cacheKey(urlString, source), acceptHeader);
+        CompletableFuture<Void> task = new CompletableFuture<>();
+        if (revalidations.putIfAbsent(key, task) != null) {
+            return;
         }
+        fetchFromOriginAsync(urlString, acceptHeader, cachedEntry, redirectCount, source).whenComplete((result, error) -> {
+            // On failure the stale entry stays cached and the next request will try again
+            revalidations.remove(key, task);
+            task.complete(null);
+        });
+    }
 
-        String fullResponse = responseBuilder.toString();
-        if (fullResponse.isEmpty()) {
-            throw new IOException("Empty response received from server");
+    private CompletableFuture<FetchResult> fetchFromOriginAsync(String urlString, String acceptHeader,
+                                                              CacheEntry cachedEntry, int redirectCount,
+                                                              boolean source) {
+        URL url;
+        try {
+            url = new URL(urlString);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        String host = url.getHost();
+        int port = portOf(url);
+        boolean secure = isSecure(url, port);
+        byte[] request = http1Request("GET", host, pathOf(url), requestHeaders(urlString, acceptHeader, CONTENT_CODINGS, cachedEntry));
 
-        String[] parts = fullResponse.split("\r?\n\r?\n", 2);
-        String headers = parts[0];
-        String body = parts.length > 1 ? parts[1] : "";
+        return AsyncTransport.shared().execute(ConnectionPool.route(secure, host, port), host, port, secure, request, false)
+                .thenComposeAsync(response -> {
+                    int statusCode = response.getStatusCode();
+                    if (statusCode == 304 && cachedEntry != null) {
+                        return CompletableFuture.completedFuture(
+                                notModified(urlString, cacheKey(urlString, source), cachedEntry, response));
+                    }
+                    if (statusCode >= 300 && statusCode < 400) {
+                        String location = response.getHeader("Location");
+                        if (location != null) {
+                            try {
+                                return fetchAsync(redirectTarget(url, location), acceptHeader, redirectCount + 1, source);
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                    }
+                    return CompletableFuture.completedFuture(source ? sourceAndCache(urlString, response)
+                            : processAndCache(urlString, acceptHeader, response));
+                }, ASYNC_STAGES);
+    }
 
+    private FetchResult fetchFromOrigin(String urlString, String acceptHeader, CacheEntry cachedEntry,
+                                        int redirectCount) throws IOException {
+        URL url = new URL(urlString);
+        String host = url.getHost();
+        int port = portOf(url);
+        boolean secure = isSecure(url, port);
+        HttpHeaders requestHeaders = requestHeaders(urlString, acceptHeader, CONTENT_CODINGS, cachedEntry);
 
-        String statusLine = headers.split("\r?\n", 2)[0];
-        int statusCode;
-        try {
-            statusCode = Integer.parseInt(statusLine.split(" ", 3)[1]);
-        } catch (Exception e) {
-            throw new IOException("Invalid HTTP response: " + statusLine);
+        HttpResponse response = execute(ConnectionPool.route(secure, host, port), host, port, secure, pathOf(url), requestHeaders);
+        int statusCode = response.getStatusCode();
+
+        if (statusCode == 304 && cachedEntry != null) {
+            return notModified(urlString, cachedEntry, response);
+        }
+
+        if (statusCode >= 300 && statusCode < 400) {
+            String location = response.getHeader("Location");
+            if (location != null) {
+                return fetch(redirectTarget(url, location), acceptHeader, redirectCount + 1);
+            }
         }
 
+        return processAndCache(urlString, acceptHeader, response);
+    }
 
-        if (statusCode == 304 && cachedEntry != null && !cachedEntry.isExpired()) {
-            System.out.println("304 Not Modified - using cache for: " + urlString);
-            return cachedEntry.getContent();
+    // Like fetch, but a body that needs no rendering is copied to target as it arrives instead of
+    // being collected first, so memory use stays the same however large the response is. HTML,
+    // and JSON unless raw is set, can only be rendered once complete; their text comes back in
+    // the result as before. With raw set, every other body is written exactly as received (minus
+    // transfer and content coding) and never decoded to text. Streamed responses always use
+    // HTTP/1.1, whose body can be read straight off the socket.
+    public FetchResult fetchTo(String urlString, String acceptHeader, WritableByteChannel target, boolean raw)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            return fetchTo(urlString, acceptHeader, target, raw, 0);
+        } finally {
+            metrics.recordSince(Metrics.FETCH_TOTAL, start);
         }
+    }
 
+    private FetchResult fetchTo(String urlString, String acceptHeader, WritableByteChannel target, boolean raw,
+                                int redirectCount) throws IOException {
+        if (redirectCount >= MAX_REDIRECTS) {
+            throw new IOException("Too many redirects");
+        }
 
-        if (statusCode >= 300 && statusCode < 400) {
-            String[] headerLines = headers.split("\r?\n");
-            String location = null;
-            for (String header : headerLines) {
-                if (header.toLowerCase().startsWith("location:")) {
-                    location = header.substring(9).trim();
-                    break;
-                }
+        CacheEntry cachedEntry = cacheManager.get(urlString);
+        // Cached bodies are text (and JSON is cached pretty-printed), so a raw download only
+        // takes rendered HTML from the cache
+        if (cachedEntry != null && raw && !isHtmlType(cachedEntry.getContentType())) {
+            cachedEntry = null;
+        }
+        if (cachedEntry != null && (!cachedEntry.isExpired() || cachedEntry.isServableWhileRevalidating())) {
+            return fetch(urlString, acceptHeader, redirectCount);
+        }
+
+        URL url = new URL(urlString);
+        String host = url.getHost();
+        int port = portOf(url);
+        boolean secure = isSecure(url, port);
+        HttpHeaders requestHeaders = requestHeaders(urlString, acceptHeader, CONTENT_CODINGS, cachedEntry);
+        CacheEntry validatedEntry = cachedEntry;
+        String[] location = {null};
+        FetchResult result = executeStreaming(ConnectionPool.route(secure, host, port), host, port, secure, "GET",
+                pathOf(url), requestHeaders, (response, body) -> {
+            int statusCode = response.getStatusCode();
+            if (statusCode == 304 && validatedEntry != null) {
+                return notModified(urlString, validatedEntry, response);
             }
-            
-            if (location != null) {
-                if (!location.startsWith("http")) {
-                    if (location.startsWith("/")) {
-                        String protocol = port == DEFAULT_HTTPS_PORT ? "https" : "http";
-                        location = protocol + "://" + host + location;
-                    } else {
-                        String protocol = port == DEFAULT_HTTPS_PORT ? "https" : "http";
-                        if (path.lastIndexOf('/') > 0) {
-                            location = protocol + "://" + host + path.substring(0, path.lastIndexOf('/') + 1) + location;
-                        } else {
-                            location = protocol + "://" + host + "/" + location;
-                        }
-                    }
-                }
-                redirectCount++;
-                System.out.println("Redirect to: " + location);
-                return makeSocketRequest(location, acceptHeader);
+            if (statusCode >= 300 && statusCode < 400 && response.getHeader("Location") != null) {
+                // Followed once this connection is back in the pool
+                location[0] = response.getHeader("Location");
+                return null;
             }
+            if (!isStreamable(response.getContentType(), acceptHeader, raw)) {
+                response.setBody(body.readAllBytes());
+                return processAndCache(urlString, acceptHeader, response);
+            }
+            return streamBody(urlString, response, body, target);
+        });
+        if (location[0] != null) {
+            return fetchTo(redirectTarget(url, location[0]), acceptHeader, target, raw, redirectCount + 1);
         }
+        return result;
+    }
 
+    private FetchResult notModified(String urlString, CacheEntry cachedEntry, HttpResponse response) {
+        return notModified(urlString, urlString, cachedEntry, response);
+    }
+
+    private FetchResult notModified(String urlString, String cacheKey, CacheEntry cachedEntry, HttpResponse response) {
+        Log.debug("304 Not Modified - using cache for: " + urlString);
+        metrics.increment(Metrics.NOT_MODIFIED);
+        CachePolicy policy = CachePolicy.from(response.getHeaders());
+        CacheEntry refreshed = cachedEntry.withFreshness(policy.getMaxAgeSeconds(), policy.getStaleWhileRevalidateSeconds());
+        cacheManager.refresh(cacheKey, refreshed);
+        return new FetchResult(urlString, 304, refreshed.getContentType(), refreshed.getContent(), true);
+    }
 
+    private String redirectTarget(URL url, String location) throws IOException {
+        String target = new URL(url, location).toString();
+        Log.debug("Redirect to: " + target);
+        metrics.increment(Metrics.REDIRECTS);
+        return target;
+    }
+
+    private FetchResult processAndCache(String urlString, String acceptHeader, HttpResponse response) {
+        int statusCode = response.getStatusCode();
         String contentType = null;
-        int cacheTime = 3600;
-        
         if (statusCode == 200) {
-            String[] headerLines = headers.split("\r?\n");
-            for (String header : headerLines) {
-                String lowerHeader = header.toLowerCase();
-                if (lowerHeader.startsWith("content-type:")) {
-                    contentType = header.substring(13).trim();
-                } else if (lowerHeader.startsWith("etag:")) {
-                    etag = header.substring(5).trim();
-                } else if (lowerHeader.startsWith("cache-control:")) {
-                    String cacheControl = header.substring(14).trim().toLowerCase();
-                    if (cacheControl.contains("max-age=")) {
-                        try {
-                            String maxAgeStr = cacheControl.split("max-age=")[1].split("[,;]")[0];
-                            cacheTime = Integer.parseInt(maxAgeStr);
-                        } catch (Exception e) {
+            contentType = response.getContentType();
+        }
 
-                        }
-                    }
-                }
+        String body = response.getBodyAsString();
+        String processedResponse = processBody(urlString, acceptHeader, contentType, response.getHeaders(), body);
+
+        // SearchService caches the parsed results of search pages, so their HTML is not kept
+        if (statusCode == 200 && !isSearchRequest(urlString)) {
+            cache(urlString, response, processedResponse);
+        }
+
+        // The rendered text has no links left, so they are taken from the markup while it is here
+        List<String> links = List.of();
+        if (statusCode == 200 && prefetcher.isEnabled() && isHtmlType(response.getContentType())
+                && !isSearchRequest(urlString)) {
+            links = LinkExtractor.extract(body, urlString);
+        }
+
+        return new FetchResult(urlString, statusCode, response.getContentType(), processedResponse, false, links);
+    }
+
+    private FetchResult sourceAndCache(String urlString, HttpResponse response) {
+        String body = response.getBodyAsString();
+        if (response.getStatusCode() == 200) {
+            cache(cacheKey(urlString, true), response, body);
+        }
+        return new FetchResult(urlString, response.getStatusCode(), response.getContentType(), body, false);
+    }
+
+    private void cache(String urlString, HttpResponse response, String content) {
+        CachePolicy policy = CachePolicy.from(response.getHeaders());
+        if (!policy.isNoStore()) {
+            String etag = response.getHeader("ETag");
+            CacheEntry entry = new CacheEntry(content, response.getContentType(), etag, response.getHeader("Last-Modified"),
+                    policy.getMaxAgeSeconds(), policy.getStaleWhileRevalidateSeconds());
+            cacheManager.put(urlString, entry);
+            Log.debug(() -> "Cached processed response for: " + urlString + " with ETag: " + etag);
+        }
+    }
+
+    // Copies a decoded body to target through one fixed-size buffer. A short text body is kept
+    // on the side as well, so it can still be cached; anything longer is not.
+    private FetchResult streamBody(String urlString, HttpResponse response, InputStream body,
+                                   WritableByteChannel target) throws IOException {
+        int statusCode = response.getStatusCode();
+        boolean cacheable = statusCode == 200 && isTextType(response.getContentType());
+        CapturingInputStream captured = cacheable ? new CapturingInputStream(body, MAX_STREAMED_CACHE_BYTES) : null;
+        long written = copy(captured != null ? captured : body, target);
+        metrics.add(Metrics.BYTES_STREAMED, written);
+        if (captured != null && captured.isComplete()) {
+            cache(urlString, response, new String(captured.toByteArray(), response.getCharset()));
+        }
+        return new FetchResult(urlString, statusCode, response.getContentType(), written);
+    }
+
+    // Files take the body through FileChannel.transferFrom, which fills the file from the
+    // stream without an intermediate buffer of ours
+    private static long copy(InputStream body, WritableByteChannel target) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(body);
+        if (target instanceof FileChannel) {
+            FileChannel file = (FileChannel) target;
+            long start = file.position();
+            long position = start;
+            for (long n; (n = file.transferFrom(source, position, Long.MAX_VALUE)) > 0; ) {
+                position += n;
+            }
+            file.position(position);
+            return position - start;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        long written = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += target.write(buffer);
             }
+            buffer.clear();
+        }
+        return written;
+    }
+
+    // Only bodies that are printed as they are can be streamed: not HTML, and not JSON that is
+    // to be pretty-printed. Without a Content-Type the body has to be sniffed, so it is read whole.
+    private static boolean isStreamable(String contentType, String acceptHeader, boolean raw) {
+        if (contentType == null || isHtmlType(contentType)) {
+            return false;
+        }
+        if (raw) {
+            return true;
+        }
+        boolean jsonRequested = acceptHeader.contains("application/json") && !acceptHeader.contains("text/html");
+        return !jsonRequested && !contentType.toLowerCase(Locale.ROOT).contains("json");
+    }
+
+    private static boolean isHtmlType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.contains("text/html") || type.contains("application/xhtml");
+    }
+
+    private static boolean isTextType(String contentType) {
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return (type.startsWith("text/") || type.contains("xml") || type.contains("javascript")) && !type.contains("json");
+    }
+
+    private static int portOf(URL url) {
+        int port = url.getPort();
+        if (port == -1) {
+            port = url.getProtocol().equals("https") ? DEFAULT_HTTPS_PORT : DEFAULT_HTTP_PORT;
+        }
+        return port;
+    }
+
+    private static boolean isSecure(URL url, int port) {
+        return port == DEFAULT_HTTPS_PORT || url.getProtocol().equals("https");
+    }
+
+    private static String pathOf(URL url) {
+        String path = url.getPath();
+        if (path.isEmpty()) {
+            path = "/";
+        }
+        if (url.getQuery() != null) {
+            path += "?" + url.getQuery();
+        }
+        return path;
+    }
+
+    private static HttpHeaders requestHeaders(String urlString, String acceptHeader, String acceptEncoding,
+                                              CacheEntry cachedEntry) {
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.add("Accept", acceptHeader);
+        requestHeaders.add("Accept-Encoding", acceptEncoding);
+
+        if (urlString.contains("bing.com") || urlString.contains("google.com")) {
+            requestHeaders.add("User-Agent", USER_AGENT);
+            requestHeaders.add("Accept-Language", "en-US,en;q=0.9");
+            requestHeaders.add("Referer", "https://www.google.com/");
+        } else {
+            requestHeaders.add("User-Agent", "Go2Web/1.0");
         }
 
+        // Добавляем If-None-Match, если у нас есть закешированное значение с ETag
+        if (cachedEntry != null && cachedEntry.getEtag() != null) {
+            requestHeaders.add("If-None-Match", cachedEntry.getEtag());
+        }
+        if (cachedEntry != null && cachedEntry.getLastModified() != null) {
+            requestHeaders.add("If-Modified-Since", cachedEntry.getLastModified());
+        }
+        return requestHeaders;
+    }
 
-        String processedResponse;
-        
+    // Turns a decoded body into what is printed and cached: pretty-printed JSON, rendered HTML
+    // with the response headers, or the raw text.
+    String processBody(String urlString, String acceptHeader, String contentType, HttpHeaders headers, String body) {
         if (isSearchRequest(urlString)) {
-            processedResponse = body;
+            return body;
         } else if ((contentType != null && contentType.contains("application/json")) ||
-                  (acceptHeader.contains("application/json") && !acceptHeader.contains("text/html")) || 
+                  (acceptHeader.contains("application/json") && !acceptHeader.contains("text/html")) ||
                   isJsonResponse(body)) {
+            long start = System.nanoTime();
             try {
-                if (body.startsWith("[")) {
-                    JSONArray jsonArray = new JSONArray(body);
-                    processedResponse = jsonArray.toString(2);
-                } else if (body.startsWith("{")) {
-                    JSONObject jsonObject = new JSONObject(body);
-                    processedResponse = jsonObject.toString(2);
-                } else {
-                    processedResponse = body;
-                }
-            } catch (JSONException e) {
-                processedResponse = body;
+                return JsonFormatter.format(body);
+            } finally {
+                metrics.recordSince(Metrics.JSON_FORMAT, start);
             }
         } else if ((contentType != null && contentType.contains("text/html")) ||
-                  (acceptHeader.contains("text/html")) || 
+                  (acceptHeader.contains("text/html")) ||
                   isHtmlResponse(body)) {
-            Map<String, String> headerMap = new HashMap<>();
-            String[] headerLines = headers.split("\r?\n");
-            for (String header : headerLines) {
-                int colonIndex = header.indexOf(':');
-                if (colonIndex > 0) {
-                    String key = header.substring(0, colonIndex).trim();
-                    String value = header.substring(colonIndex + 1).trim();
-                    headerMap.put(key, value);
+            long start = System.nanoTime();
+            String rendered = HtmlParser.parseHtmlContent(body);
+            metrics.recordSince(Metrics.HTML_RENDER, start);
+            return "=== Headers ===\n" + formatHeaders(headers) + "\n\n=== Body ===\n" + rendered;
+        } else {
+            return body;
+        }
+    }
+
+    private HttpResponse execute(String route, String host, int port, boolean secure, String path,
+                                 HttpHeaders headers) throws IOException {
+        metrics.increment(Metrics.REQUESTS);
+        if (secure && http2Enabled && !connectionPool.isHttp1Only(route)) {
+            HttpResponse response = executeNegotiated(route, host, port, path, headers);
+            if (response != null) {
+                return response;
+            }
+        }
+        byte[] request = http1Request("GET", host, path, headers);
+        PooledConnection connection = connectionPool.acquire(route);
+        if (connection != null) {
+            try {
+                HttpResponse response = exchange(connection, request);
+                metrics.increment(Metrics.CONNECTIONS_REUSED);
+                return response;
+            } catch (SocketTimeoutException e) {
+                // A slow server rather than a dropped connection; retrying would only wait again
+                connection.close();
+                throw e;
+            } catch (IOException e) {
+                // The server may have dropped the idle keep-alive connection, retry once on a fresh socket
+                connection.close();
+                metrics.increment(Metrics.CONNECTION_RETRIES);
+            }
+        }
+        connection = new PooledConnection(route, connect(host, port, secure));
+        return exchangeOnFresh(connection, request);
+    }
+
+    // HTTPS with HTTP/2 enabled: requests share the route's multiplexed connection. A new
+    // connection offers h2 and http/1.1 through ALPN; when the server picks HTTP/1.1 the route
+    // is remembered and served by the keep-alive pool from then on. Returns null when the
+    // route turned out to be HTTP/1.1-only while this request waited for the handshake.
+    private HttpResponse executeNegotiated(String route, String host, int port, String path,
+                                           HttpHeaders headers) throws IOException {
+        Http2Connection multiplexed = connectionPool.acquireMultiplexed(route);
+        if (multiplexed != null) {
+            try {
+                HttpResponse response = exchange(multiplexed, host, port, path, headers);
+                metrics.increment(Metrics.CONNECTIONS_REUSED);
+                return response;
+            } catch (Http2Connection.StreamNotProcessedException e) {
+                // The connection is going away (GOAWAY or refused stream), retry on a new one
+                metrics.increment(Metrics.CONNECTION_RETRIES);
+            }
+        }
+        PooledConnection http1;
+        synchronized (connectionPool.openLock(route)) {
+            multiplexed = connectionPool.acquireMultiplexed(route);
+            if (multiplexed == null && connectionPool.isHttp1Only(route)) {
+                return null;
+            }
+            if (multiplexed == null) {
+                SSLSocket socket = (SSLSocket) connect(host, port, true, Http2Connection.ALPN_PROTOCOL, "http/1.1");
+                if (Http2Connection.ALPN_PROTOCOL.equals(socket.getApplicationProtocol())) {
+                    try {
+                        multiplexed = Http2Connection.start(route, socket, READ_TIMEOUT_MILLIS);
+                    } catch (IOException e) {
+                        socket.close();
+                        throw e;
+                    }
+                    connectionPool.registerMultiplexed(multiplexed);
+                    metrics.increment(Metrics.HTTP2_CONNECTIONS);
+                    http1 = null;
+                } else {
+                    Log.debug("ALPN did not select h2 for " + route + ", using HTTP/1.1");
+                    connectionPool.markHttp1Only(route);
+                    http1 = new PooledConnection(route, socket);
+                }
+            } else {
+                // Another request opened it while we were waiting for the lock
+                metrics.increment(Metrics.CONNECTIONS_REUSED);
+                http1 = null;
+            }
+        }
+        if (http1 != null) {
+            return exchangeOnFresh(http1, http1Request("GET", host, path, headers));
+        }
+        return exchange(multiplexed, host, port, path, headers);
+    }
+
+    private HttpResponse exchange(Http2Connection connection, String host, int port, String path,
+                                  HttpHeaders headers) throws IOException {
+        metrics.increment(Metrics.HTTP2_STREAMS);
+        String authority = port == DEFAULT_HTTPS_PORT ? host : host + ":" + port;
+        return connection.exchange("GET", authority, path, headers);
+    }
+
+    private static byte[] http1Request(String method, String host, String path, HttpHeaders headers) {
+        StringBuilder requestBuilder = new StringBuilder(256);
+        requestBuilder.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        requestBuilder.append("Host: ").append(host).append("\r\n");
+        requestBuilder.append("Connection: keep-alive\r\n");
+        for (Map.Entry<String, String> header : headers.entries()) {
+            requestBuilder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        requestBuilder.append("\r\n");
+        return requestBuilder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Resolves, connects and handshakes as separate steps so each phase can be timed on its own.
+    private Socket connect(String host, int port, boolean secure, String... applicationProtocols) throws IOException {
+        long start = System.nanoTime();
+        InetAddress[] addresses = dnsCache.resolve(host);
+        start = metrics.recordSince(Metrics.DNS, start);
+
+        Socket socket = HappyEyeballs.connect(addresses, port, CONNECT_TIMEOUT_MILLIS, ATTEMPT_DELAY_MILLIS);
+        try {
+            start = metrics.recordSince(Metrics.CONNECT, start);
+            // Also bounds the TLS handshake
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            if (secure) {
+                SSLSocket sslSocket = TlsContext.shared().wrap(socket, host, port, applicationProtocols);
+                long handshakeStartMillis = System.currentTimeMillis();
+                sslSocket.startHandshake();
+                if (TlsContext.isResumed(sslSocket.getSession(), handshakeStartMillis)) {
+                    metrics.recordSince(Metrics.TLS_RESUMPTION, start);
+                    metrics.increment(Metrics.TLS_RESUMED);
+                } else {
+                    metrics.recordSince(Metrics.TLS_HANDSHAKE, start);
+                    metrics.increment(Metrics.TLS_FULL_HANDSHAKES);
                 }
+                socket = sslSocket;
             }
-            
-            processedResponse = "=== Headers ===\n" + formatHeaders(headerMap) + "\n\n=== Body ===\n" + HtmlParser.parseHtmlContent(body);
-        } else {
-            processedResponse = body;
+            socket.setTcpNoDelay(true);
+            metrics.increment(Metrics.CONNECTIONS_OPENED);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
         }
-        
+    }
 
-        if (statusCode == 200) {
-            CacheEntry entry = new CacheEntry(processedResponse, contentType, etag, cacheTime);
-            cacheManager.put(urlString, entry);
-            System.out.println("Cached processed response for: " + urlString + " with ETag: " + etag);
+    private HttpResponse exchangeOnFresh(PooledConnection connection, byte[] request) throws IOException {
+        try {
+            return exchange(connection, request);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private HttpResponse exchange(PooledConnection connection, byte[] request) throws IOException {
+        long bytesBefore = connection.getBytesRead();
+        HttpResponseReader reader = new HttpResponseReader(connection.getInputStream());
+        HttpResponse response = sendAndReadHead(connection, reader, request);
+        long start = System.nanoTime();
+        reader.readBody(response, false);
+        metrics.recordSince(Metrics.BODY_TRANSFER, start);
+        metrics.add(Metrics.BYTES_READ, connection.getBytesRead() - bytesBefore);
+
+        connection.setReusable(response.isKeepAlive());
+        connectionPool.release(connection);
+        return response;
+    }
+
+    private HttpResponse sendAndReadHead(PooledConnection connection, HttpResponseReader reader,
+                                         byte[] request) throws IOException {
+        connection.markUsed();
+        long start = System.nanoTime();
+        OutputStream out = connection.getOutputStream();
+        out.write(request);
+        out.flush();
+        metrics.add(Metrics.BYTES_WRITTEN, request.length);
+
+        HttpResponse response = reader.readHead();
+        if (response == null) {
+            throw new EOFException("Empty response received from server");
+        }
+        metrics.recordSince(Metrics.TIME_TO_FIRST_BYTE, start);
+        return response;
+    }
+
+    // Reads a response whose body goes to the handler while it is still arriving
+    interface ResponseHandler<T> {
+        T handle(HttpResponse response, InputStream body) throws IOException;
+    }
+
+    // One uncached HTTP/1.1 request with the usual request headers plus extraHeaders, for HEAD
+    // probes and byte ranges. Redirects are not followed and the body is never content-coded,
+    // since byte ranges count positions in the unencoded representation.
+    <T> T send(String method, URL url, String acceptHeader, HttpHeaders extraHeaders,
+               ResponseHandler<T> handler) throws IOException {
+        String host = url.getHost();
+        int port = portOf(url);
+        boolean secure = isSecure(url, port);
+        HttpHeaders headers = requestHeaders(url.toString(), acceptHeader, "identity", null);
+        for (Map.Entry<String, String> header : extraHeaders.entries()) {
+            headers.add(header.getKey(), header.getValue());
+        }
+        return executeStreaming(ConnectionPool.route(secure, host, port), host, port, secure, method, pathOf(url),
+                headers, handler);
+    }
+
+    // HTTP/1.1 exchange whose body is handed to the handler unread. A pooled connection that
+    // fails before the response head arrives is retried on a fresh one, as in execute; once the
+    // handler has started, part of the body may already be written, so nothing is retried.
+    private <T> T executeStreaming(String route, String host, int port, boolean secure, String method,
+                                   String path, HttpHeaders headers, ResponseHandler<T> handler) throws IOException {
+        metrics.increment(Metrics.REQUESTS);
+        byte[] request = http1Request(method, host, path, headers);
+        HttpResponse response = null;
+        HttpResponseReader reader = null;
+        long bytesBefore = 0;
+        PooledConnection connection = connectionPool.acquire(route);
+        if (connection != null) {
+            bytesBefore = connection.getBytesRead();
+            reader = new HttpResponseReader(connection.getInputStream());
+            try {
+                response = sendAndReadHead(connection, reader, request);
+                metrics.increment(Metrics.CONNECTIONS_REUSED);
+            } catch (SocketTimeoutException e) {
+                connection.close();
+                throw e;
+            } catch (IOException e) {
+                connection.close();
+                metrics.increment(Metrics.CONNECTION_RETRIES);
+            }
+        }
+        if (response == null) {
+            connection = new PooledConnection(route, connect(host, port, secure));
+            bytesBefore = 0;
+            reader = new HttpResponseReader(connection.getInputStream());
+        }
+        try {
+            if (response == null) {
+                response = sendAndReadHead(connection, reader, request);
+            }
+            long start = System.nanoTime();
+            InputStream framed = reader.openFramedBody(response, method.equals("HEAD"));
+            T result;
+            try (InputStream body = HttpResponseReader.decode(response, framed)) {
+                result = handler.handle(response, body);
+            }
+            // Whatever the handler left unread still has to come off the connection
+            framed.transferTo(OutputStream.nullOutputStream());
+            metrics.recordSince(Metrics.BODY_TRANSFER, start);
+            metrics.add(Metrics.BYTES_READ, connection.getBytesRead() - bytesBefore);
+            connection.setReusable(response.isKeepAlive());
+            connectionPool.release(connection);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
         }
-        
-        return processedResponse;
     }
-    
-    private String formatHeaders(Map<String, String> headers) {
+
+    private String formatHeaders(HttpHeaders headers) {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
+        for (Map.Entry<String, String> entry : headers.entries()) {
             sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
         }
         return sb.toString();
@@ -276,4 +890,56 @@ public class HttpClient {
             return url;
         }
     }
-} 
\ No newline at end of file
+
+    // Passes bytes through while keeping a copy of the first limit bytes; a longer stream
+    // drops the copy
+    private static class CapturingInputStream extends FilterInputStream {
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private boolean ended;
+
+        CapturingInputStream(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                ended = true;
+            } else {
+                capture(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n == -1) {
+                ended = true;
+            } else {
+                capture(buffer, offset, n);
+            }
+            return n;
+        }
+
+        private void capture(byte[] buffer, int offset, int length) {
+            if (copy != null && copy.size() + length > limit) {
+                copy = null;
+            } else if (copy != null) {
+                copy.write(buffer, offset, length);
+            }
+        }
+
+        // The whole stream was read and fit within the limit
+        boolean isComplete() {
+            return ended && copy != null;
+        }
+
+        byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+}
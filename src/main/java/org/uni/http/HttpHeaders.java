@@ -0,0 +1,52 @@
+package org.uni.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public class HttpHeaders {
+    private final List<Map.Entry<String, String>> entries = new ArrayList<>();
+    private final Map<String, List<String>> byName = new HashMap<>();
+
+    public void add(String name, String value) {
+        entries.add(Map.entry(name, value));
+        byName.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new ArrayList<>(1)).add(value);
+    }
+
+    public String first(String name) {
+        List<String> values = byName.get(name.toLowerCase(Locale.ROOT));
+        return values == null ? null : values.get(0);
+    }
+
+    public List<String> all(String name) {
+        List<String> values = byName.get(name.toLowerCase(Locale.ROOT));
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
+
+    public boolean contains(String name) {
+        return byName.containsKey(name.toLowerCase(Locale.ROOT));
+    }
+
+    // Checks a comma-separated header such as Connection or Transfer-Encoding for a token.
+    public boolean hasToken(String name, String token) {
+        for (String value : all(name)) {
+            for (String part : value.split(",")) {
+                if (part.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public List<Map.Entry<String, String>> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,93 @@
+package org.uni.http;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+public class HttpResponse {
+    private final String protocol;
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final HttpHeaders headers;
+    private byte[] body = new byte[0];
+    private boolean closeDelimited;
+
+    public HttpResponse(String protocol, int statusCode, String reasonPhrase, HttpHeaders headers) {
+        this.protocol = protocol;
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(String name) {
+        return headers.first(name);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    public String getContentType() {
+        return headers.first("Content-Type");
+    }
+
+    void setCloseDelimited(boolean closeDelimited) {
+        this.closeDelimited = closeDelimited;
+    }
+
+    public boolean isKeepAlive() {
+        if (closeDelimited || headers.hasToken("Connection", "close")) {
+            return false;
+        }
+        return "HTTP/1.1".equals(protocol) || headers.hasToken("Connection", "keep-alive");
+    }
+
+    public Charset getCharset() {
+        return charsetOf(getContentType(), StandardCharsets.UTF_8);
+    }
+
+    // Decodes the body exactly once, using the charset declared in Content-Type.
+    public String getBodyAsString() {
+        return new String(body, getCharset());
+    }
+
+    public static Charset charsetOf(String contentType, Charset fallback) {
+        if (contentType == null) {
+            return fallback;
+        }
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                String name = trimmed.substring(8).trim();
+                if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    return fallback;
+                }
+            }
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,182 @@
+package org.uni.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+public class HttpResponseReader {
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private final InputStream in;
+    private byte[] lineBuffer = new byte[256];
+    private int headSize;
+
+    public HttpResponseReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Reads a complete response, buffering the decoded body as raw bytes.
+    public HttpResponse read(boolean headRequest) throws IOException {
+        HttpResponse response = readHead();
+        if (response == null) {
+            return null;
+        }
+        readBody(response, headRequest);
+        return response;
+    }
+
+    // Reads and decodes the body of a response whose head was returned by readHead().
+    public void readBody(HttpResponse response, boolean headRequest) throws IOException {
+        InputStream framed = openFramedBody(response, headRequest);
+        try (InputStream body = decode(response, framed)) {
+            response.setBody(body.readAllBytes());
+        }
+        // A decoder may stop before the end of the framed body (e.g. trailing gzip padding);
+        // the rest must still be consumed before the connection can carry the next response
+        framed.transferTo(OutputStream.nullOutputStream());
+    }
+
+    // Parses the status line and headers, skipping interim 1xx responses.
+    // Returns null when the stream ends before the first byte of a response.
+    public HttpResponse readHead() throws IOException {
+        while (true) {
+            headSize = 0;
+            String statusLine = readLine();
+            while (statusLine != null && statusLine.isEmpty()) {
+                statusLine = readLine();
+            }
+            if (statusLine == null) {
+                return null;
+            }
+            HttpResponse response = parseStatusLine(statusLine);
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                int colonIndex = line.indexOf(':');
+                if (colonIndex > 0) {
+                    response.getHeaders().add(line.substring(0, colonIndex).trim(), line.substring(colonIndex + 1).trim());
+                }
+            }
+            if (line == null) {
+                throw new IOException("Connection closed inside response headers");
+            }
+            int status = response.getStatusCode();
+            if (status >= 100 && status < 200 && status != 101) {
+                continue;
+            }
+            return response;
+        }
+    }
+
+    // Returns a stream over this response's body with any gzip/deflate content coding removed.
+    public InputStream openBody(HttpResponse response, boolean headRequest) throws IOException {
+        return decode(response, openFramedBody(response, headRequest));
+    }
+
+    // Returns a stream over exactly this response's body as sent, leaving the connection positioned at the next response.
+    public InputStream openFramedBody(HttpResponse response, boolean headRequest) throws IOException {
+        int status = response.getStatusCode();
+        if (headRequest || status == 204 || status == 304 || (status >= 100 && status < 200)) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        HttpHeaders headers = response.getHeaders();
+        if (headers.hasToken("Transfer-Encoding", "chunked")) {
+            return new ChunkedInputStream(in);
+        }
+        String contentLength = headers.first("Content-Length");
+        if (contentLength != null) {
+            try {
+                return new FixedLengthInputStream(in, Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+        }
+        response.setCloseDelimited(true);
+        return new FixedLengthInputStream(in, -1);
+    }
+
+    static InputStream decode(HttpResponse response, InputStream body) throws IOException {
+        String encoding = response.getHeader("Content-Encoding");
+        if (encoding == null || encoding.isBlank() || encoding.trim().equalsIgnoreCase("identity")) {
+            return body;
+        }
+        String coding = encoding.trim().toLowerCase();
+        if (coding.equals("gzip") || coding.equals("x-gzip")) {
+            BufferedInputStream buffered = new BufferedInputStream(body);
+            buffered.mark(1);
+            if (buffered.read() == -1) {
+                return buffered;
+            }
+            buffered.reset();
+            return new GZIPInputStream(buffered, 8192);
+        }
+        if (coding.equals("deflate")) {
+            // "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream
+            BufferedInputStream buffered = new BufferedInputStream(body);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            if (cmf == -1) {
+                return buffered;
+            }
+            boolean zlibWrapped = (cmf & 0x0f) == 8 && flg != -1 && ((cmf << 8) | flg) % 31 == 0;
+            Inflater inflater = new Inflater(!zlibWrapped);
+            return new InflaterInputStream(buffered, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        throw new IOException("Unsupported Content-Encoding: " + encoding);
+    }
+
+    private HttpResponse parseStatusLine(String statusLine) throws IOException {
+        int firstSpace = statusLine.indexOf(' ');
+        if (firstSpace <= 0 || !statusLine.startsWith("HTTP/")) {
+            throw new IOException("Invalid HTTP response: " + statusLine);
+        }
+        int secondSpace = statusLine.indexOf(' ', firstSpace + 1);
+        String codeText = secondSpace > 0 ? statusLine.substring(firstSpace + 1, secondSpace) : statusLine.substring(firstSpace + 1);
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(codeText.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP response: " + statusLine);
+        }
+        String reason = secondSpace > 0 ? statusLine.substring(secondSpace + 1) : "";
+        return new HttpResponse(statusLine.substring(0, firstSpace), statusCode, reason, new HttpHeaders());
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (++headSize > MAX_HEAD_SIZE) {
+                throw new IOException("Response headers exceed " + MAX_HEAD_SIZE + " bytes");
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (length == lineBuffer.length) {
+                byte[] grown = new byte[lineBuffer.length * 2];
+                System.arraycopy(lineBuffer, 0, grown, 0, length);
+                lineBuffer = grown;
+            }
+            lineBuffer[length++] = (byte) b;
+        }
+        if (b == -1 && length == 0) {
+            return null;
+        }
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return new String(lineBuffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
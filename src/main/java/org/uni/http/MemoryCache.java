@@ -0,0 +1,183 @@
+package org.uni.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Byte-weighted in-memory tier with a segmented LRU policy. New entries land in the
+// probation segment; a second hit promotes them to the protected segment, so one-off
+// fetches are evicted before entries that are actually reused.
+public class MemoryCache<K> {
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final long PURGE_INTERVAL_MILLIS = 30_000;
+
+    private final long maxWeight;
+    private final long maxProtectedWeight;
+    // Insertion-ordered: the first entry is the least recently used one
+    private final LinkedHashMap<K, CacheEntry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, CacheEntry> protectedSegment = new LinkedHashMap<>();
+    private long probationWeight;
+    private long protectedWeight;
+    private long lastPurge = System.currentTimeMillis();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public MemoryCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.maxProtectedWeight = (long) (maxWeight * PROTECTED_RATIO);
+    }
+
+    public synchronized CacheEntry get(K key) {
+        purgeExpiredIfDue();
+        CacheEntry entry = protectedSegment.remove(key);
+        if (entry != null) {
+            protectedSegment.put(key, entry);
+        } else {
+            entry = probation.remove(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            probationWeight -= entry.getWeight();
+            if (entry.isDiscardable()) {
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+            promote(key, entry);
+        }
+        if (entry.isDiscardable()) {
+            removeFrom(protectedSegment, key);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    public synchronized void put(K key, CacheEntry entry) {
+        purgeExpiredIfDue();
+        remove(key);
+        long weight = entry.getWeight();
+        if (weight > maxWeight) {
+            return;
+        }
+        probation.put(key, entry);
+        probationWeight += weight;
+        evictIfNeeded();
+    }
+
+    public synchronized void remove(K key) {
+        if (!removeFrom(protectedSegment, key)) {
+            removeFrom(probation, key);
+        }
+    }
+
+    public synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long weight() {
+        return probationWeight + protectedWeight;
+    }
+
+    public synchronized void purgeExpired() {
+        purge(probation);
+        purge(protectedSegment);
+        lastPurge = System.currentTimeMillis();
+    }
+
+    public CacheStats stats() {
+        long currentWeight;
+        int entries;
+        synchronized (this) {
+            currentWeight = probationWeight + protectedWeight;
+            entries = probation.size() + protectedSegment.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), entries, currentWeight, maxWeight);
+    }
+
+    private void promote(K key, CacheEntry entry) {
+        protectedSegment.put(key, entry);
+        protectedWeight += entry.getWeight();
+        // Overflowing protected entries get demoted back to probation instead of being dropped
+        Iterator<Map.Entry<K, CacheEntry>> iterator = protectedSegment.entrySet().iterator();
+        while (protectedWeight > maxProtectedWeight && iterator.hasNext()) {
+            Map.Entry<K, CacheEntry> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                break;
+            }
+            iterator.remove();
+            protectedWeight -= eldest.getValue().getWeight();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationWeight += eldest.getValue().getWeight();
+        }
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        evictFrom(probation, true);
+        evictFrom(protectedSegment, false);
+    }
+
+    private void evictFrom(LinkedHashMap<K, CacheEntry> segment, boolean isProbation) {
+        Iterator<Map.Entry<K, CacheEntry>> iterator = segment.entrySet().iterator();
+        while (probationWeight + protectedWeight > maxWeight && iterator.hasNext()) {
+            CacheEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            if (isProbation) {
+                probationWeight -= eldest.getWeight();
+            } else {
+                protectedWeight -= eldest.getWeight();
+            }
+            evictions.increment();
+        }
+    }
+
+    private boolean removeFrom(LinkedHashMap<K, CacheEntry> segment, K key) {
+        CacheEntry removed = segment.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        if (segment == probation) {
+            probationWeight -= removed.getWeight();
+        } else {
+            protectedWeight -= removed.getWeight();
+        }
+        return true;
+    }
+
+    private void purgeExpiredIfDue() {
+        if (System.currentTimeMillis() - lastPurge >= PURGE_INTERVAL_MILLIS) {
+            purgeExpired();
+        }
+    }
+
+    private void purge(LinkedHashMap<K, CacheEntry> segment) {
+        Iterator<CacheEntry> iterator = segment.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entry.isDiscardable()) {
+                iterator.remove();
+                if (segment == probation) {
+                    probationWeight -= entry.getWeight();
+                } else {
+                    protectedWeight -= entry.getWeight();
+                }
+                expirations.increment();
+            }
+        }
+    }
+}
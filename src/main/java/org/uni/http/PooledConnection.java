@@ -0,0 +1,139 @@
+package org.uni.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+public class PooledConnection {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private final String route;
+    private final Socket socket;
+    private final BufferedInputStream inputStream;
+    private final OutputStream outputStream;
+    private volatile long lastUsed;
+    private volatile boolean reusable = true;
+    private int requestCount;
+    private long bytesRead;
+
+    public PooledConnection(String route, Socket socket) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.inputStream = new BufferedInputStream(new CountingInputStream(socket.getInputStream()), BUFFER_SIZE);
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    // Bytes received from the socket so far, before any content decoding
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    public void setReusable(boolean reusable) {
+        this.reusable = reusable;
+    }
+
+    void markUsed() {
+        requestCount++;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    public boolean isOpen() {
+        return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+    }
+
+    // An idle keep-alive socket must have nothing to read: EOF means the server closed it,
+    // and unsolicited bytes mean the stream is out of sync with our requests.
+    boolean probe() {
+        if (!isOpen()) {
+            return false;
+        }
+        int originalTimeout = 0;
+        try {
+            originalTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            inputStream.mark(1);
+            int b = inputStream.read();
+            if (b != -1) {
+                inputStream.reset();
+            }
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.setSoTimeout(originalTimeout);
+            } catch (SocketException e) {
+                // Socket is already closed; the probe has returned false anyway
+            }
+        }
+    }
+
+    public void close() {
+        reusable = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Игнорируем ошибки закрытия сокета
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+    }
+}
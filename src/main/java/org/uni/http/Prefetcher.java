@@ -0,0 +1,159 @@
+package org.uni.http;
+
+import org.uni.html.LinkExtractor;
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Opt-in speculative fetching: after a search or a rendered page, the first few links are
+// fetched into the cache so the -u that usually follows is served from it. Prefetches run on
+// the non-blocking client, a couple at a time, and stop once the byte budget of their page is
+// spent. A newer page replaces the links still waiting from the previous one.
+//
+// Each prefetched page leaves a small marker entry in the cache. A later cached fetch of that
+// URL turns the marker into a hit, so prefetch.hits / prefetch.fetched is the hit rate, also
+// across separate go2web processes.
+public class Prefetcher {
+    public static final int DEFAULT_COUNT = 3;
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+    private static final int COUNT = Integer.getInteger("go2web.prefetch.count", DEFAULT_COUNT);
+    private static final int CONCURRENCY = Math.max(1, Integer.getInteger("go2web.prefetch.concurrency", DEFAULT_CONCURRENCY));
+    private static final long MAX_BYTES = Long.getLong("go2web.prefetch.maxBytes", DEFAULT_MAX_BYTES);
+    // Markers are cached next to the pages under a key no URL can have
+    private static final String MARKER_KEY_PREFIX = "prefetched ";
+    private static final String MARKER_CONTENT_TYPE = "application/x-go2web-prefetch";
+    private static final String MARKER_PENDING = "pending";
+    private static final String MARKER_USED = "used";
+    private static final int MARKER_SECONDS = 24 * 3600;
+
+    private final HttpClient httpClient;
+    private final Metrics metrics = Metrics.global();
+    private volatile boolean enabled = Boolean.getBoolean("go2web.prefetch");
+
+    // Guarded by this
+    private final Deque<String> queue = new ArrayDeque<>();
+    private String acceptHeader;
+    private long bytesLeft;
+    private int running;
+
+    Prefetcher(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Queues the first COUNT page-like URLs that are not cached yet, dropping whatever the
+    // previous page left waiting. except is the page the URLs came from, if any.
+    public void prefetch(List<String> urls, String acceptHeader, String except) {
+        if (!enabled || COUNT <= 0 || urls.isEmpty()) {
+            return;
+        }
+        Set<String> picked = new LinkedHashSet<>();
+        CacheManager cacheManager = httpClient.getCacheManager();
+        for (String url : urls) {
+            if (picked.size() == COUNT) {
+                break;
+            }
+            if (url.equals(except) || picked.contains(url) || !LinkExtractor.isLikelyPage(url)) {
+                continue;
+            }
+            CacheEntry cached = cacheManager.get(url);
+            if (cached == null || cached.isExpired()) {
+                picked.add(url);
+            }
+        }
+        synchronized (this) {
+            if (!queue.isEmpty()) {
+                metrics.add(Metrics.PREFETCH_DROPPED, queue.size());
+                queue.clear();
+            }
+            queue.addAll(picked);
+            this.acceptHeader = acceptHeader;
+            bytesLeft = MAX_BYTES;
+        }
+        dispatch();
+    }
+
+    // Counts a cached fetch of a prefetched page as a hit, once
+    public void recordUse(FetchResult result) {
+        if (!enabled || !result.isFromCache()) {
+            return;
+        }
+        String key = MARKER_KEY_PREFIX + result.getUrl();
+        CacheManager cacheManager = httpClient.getCacheManager();
+        CacheEntry marker = cacheManager.get(key);
+        if (marker != null && !marker.isExpired() && MARKER_CONTENT_TYPE.equals(marker.getContentType())
+                && MARKER_PENDING.equals(marker.getContent())) {
+            metrics.increment(Metrics.PREFETCH_HITS);
+            cacheManager.put(key, new CacheEntry(MARKER_USED, MARKER_CONTENT_TYPE, null, MARKER_SECONDS));
+        }
+    }
+
+    // Waits until nothing is queued or running, for a process that is about to exit
+    public synchronized void await(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (running > 0 || (!queue.isEmpty() && bytesLeft > 0)) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return;
+                }
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch() {
+        List<String> starts = new ArrayList<>();
+        String accept;
+        synchronized (this) {
+            while (running < CONCURRENCY && bytesLeft > 0 && !queue.isEmpty()) {
+                starts.add(queue.poll());
+                running++;
+            }
+            if (bytesLeft <= 0 && !queue.isEmpty()) {
+                metrics.add(Metrics.PREFETCH_DROPPED, queue.size());
+                queue.clear();
+            }
+            accept = acceptHeader;
+            notifyAll();
+        }
+        for (String url : starts) {
+            httpClient.fetchAsync(url, accept).whenComplete((result, error) -> finished(url, result, error));
+        }
+    }
+
+    private void finished(String url, FetchResult result, Throwable error) {
+        if (error != null) {
+            Log.debug(() -> "Prefetch of " + url + " failed: " + AsyncTransport.unwrap(error).getMessage());
+        } else if (result.getStatusCode() == 200 && !result.isFromCache()) {
+            long bytes = result.getContent() != null ? result.getContent().length() : 0;
+            metrics.increment(Metrics.PREFETCH_FETCHED);
+            metrics.add(Metrics.PREFETCH_BYTES, bytes);
+            httpClient.getCacheManager().put(MARKER_KEY_PREFIX + result.getUrl(),
+                    new CacheEntry(MARKER_PENDING, MARKER_CONTENT_TYPE, null, MARKER_SECONDS));
+            synchronized (this) {
+                bytesLeft -= bytes;
+            }
+        }
+        synchronized (this) {
+            running--;
+        }
+        dispatch();
+    }
+}
@@ -0,0 +1,241 @@
+package org.uni.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Collects the bytes of one HTTP/1.1 response as they arrive from a non-blocking connection and
+// tells when the message is complete: head (after any interim 1xx responses), then a body framed
+// by Content-Length, chunked encoding or the end of the connection. Only the framing is looked
+// at here; the complete message is handed to HttpResponseReader, which parses and decodes it
+// exactly as for a blocking connection.
+class ResponseFramer {
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    static final long DEFAULT_MAX_BODY_SIZE = 512L * 1024 * 1024;
+    // The whole message is buffered in one array, so the body is capped below the array limit
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final long MAX_BODY_SIZE = Math.min(MAX_ARRAY_SIZE - 2 * MAX_HEAD_SIZE,
+            Long.getLong("go2web.http.maxBodyBytes", DEFAULT_MAX_BODY_SIZE));
+    private static final int MAX_MESSAGE_SIZE = (int) (MAX_BODY_SIZE + 2 * MAX_HEAD_SIZE);
+
+    private enum State { HEAD, FIXED, CHUNK_SIZE, CHUNK_DATA, TRAILERS, CLOSE_DELIMITED, DONE }
+
+    private final boolean headRequest;
+    private byte[] data = new byte[16 * 1024];
+    private int size;
+    // Where framing has been checked up to
+    private int position;
+    private int headStart;
+    private State state = State.HEAD;
+    private long remaining;
+
+    ResponseFramer(boolean headRequest) {
+        this.headRequest = headRequest;
+    }
+
+    // Takes everything remaining in buffer and returns whether the response is now complete
+    boolean append(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        if ((long) size + length > MAX_MESSAGE_SIZE) {
+            throw tooLarge();
+        }
+        if (size + length > data.length) {
+            data = Arrays.copyOf(data, (int) Math.min(MAX_MESSAGE_SIZE, Math.max(2L * data.length, size + length)));
+        }
+        buffer.get(data, size, length);
+        size += length;
+        return advance();
+    }
+
+    boolean hasData() {
+        return size > 0;
+    }
+
+    boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    // Bytes that arrived after the end of the response; a well-behaved server sends none
+    boolean hasExcess() {
+        return state == State.DONE && size > position;
+    }
+
+    // The connection reached end of stream. Completes a response that is delimited by it.
+    boolean endOfStream() throws IOException {
+        if (state == State.CLOSE_DELIMITED) {
+            position = size;
+            state = State.DONE;
+            return true;
+        }
+        if (state != State.DONE) {
+            throw new IOException(size == 0 ? "Empty response received from server"
+                    : "Connection closed before the response was complete");
+        }
+        return true;
+    }
+
+    HttpResponse toResponse() throws IOException {
+        HttpResponse response = new HttpResponseReader(new ByteArrayInputStream(data, 0, position)).read(headRequest);
+        if (response == null) {
+            throw new IOException("Empty response received from server");
+        }
+        return response;
+    }
+
+    private boolean advance() throws IOException {
+        while (true) {
+            switch (state) {
+                case HEAD: {
+                    int end = headEnd();
+                    if (end < 0) {
+                        if (size - headStart > MAX_HEAD_SIZE) {
+                            throw new IOException("Response headers exceed " + MAX_HEAD_SIZE + " bytes");
+                        }
+                        return false;
+                    }
+                    frame(new String(data, headStart, end - headStart, StandardCharsets.ISO_8859_1));
+                    position = end;
+                    headStart = end;
+                    break;
+                }
+                case FIXED: {
+                    long available = size - position;
+                    if (available < remaining) {
+                        position = size;
+                        remaining -= available;
+                        return false;
+                    }
+                    position += (int) remaining;
+                    state = State.DONE;
+                    break;
+                }
+                case CHUNK_SIZE: {
+                    int lineEnd = indexOf('\n', position);
+                    if (lineEnd < 0) {
+                        return false;
+                    }
+                    String line = new String(data, position, lineEnd - position, StandardCharsets.ISO_8859_1).trim();
+                    int extension = line.indexOf(';');
+                    try {
+                        remaining = Long.parseLong(extension >= 0 ? line.substring(0, extension).trim() : line, 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid chunk size: " + line);
+                    }
+                    position = lineEnd + 1;
+                    state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                    break;
+                }
+                case CHUNK_DATA: {
+                    // The chunk and the line break after it
+                    int lineEnd = size - position > remaining ? indexOf('\n', (int) (position + remaining)) : -1;
+                    if (lineEnd < 0) {
+                        return false;
+                    }
+                    position = lineEnd + 1;
+                    state = State.CHUNK_SIZE;
+                    break;
+                }
+                case TRAILERS: {
+                    int lineEnd = indexOf('\n', position);
+                    if (lineEnd < 0) {
+                        return false;
+                    }
+                    boolean empty = lineEnd == position || (lineEnd == position + 1 && data[position] == '\r');
+                    position = lineEnd + 1;
+                    if (empty) {
+                        state = State.DONE;
+                    }
+                    break;
+                }
+                case CLOSE_DELIMITED:
+                    return false;
+                case DONE:
+                    return true;
+                default:
+                    throw new IllegalStateException(state.toString());
+            }
+        }
+    }
+
+    // End of the head that starts at headStart (just past its empty line), or -1
+    private int headEnd() {
+        int lineStart = headStart;
+        // Blank lines before a status line are skipped, as HttpResponseReader does
+        while (true) {
+            int lineEnd = indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                return -1;
+            }
+            boolean empty = lineEnd == lineStart || (lineEnd == lineStart + 1 && data[lineStart] == '\r');
+            if (empty && lineStart > headStart && !isBlank(headStart, lineStart)) {
+                return lineEnd + 1;
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] != '\r' && data[i] != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Decides how the body after this head is framed, by the same rules as HttpResponseReader
+    private void frame(String head) throws IOException {
+        String[] lines = head.trim().split("\r?\n");
+        String[] statusParts = lines[0].split(" ", 3);
+        int status;
+        try {
+            status = Integer.parseInt(statusParts.length > 1 ? statusParts[1].trim() : "");
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP response: " + lines[0]);
+        }
+        if (status >= 100 && status < 200 && status != 101) {
+            // Interim response; the real one follows
+            return;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        String contentLength = headers.first("Content-Length");
+        if (headRequest || status == 204 || status == 304 || status < 200) {
+            state = State.DONE;
+        } else if (headers.hasToken("Transfer-Encoding", "chunked")) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+            if (remaining > MAX_BODY_SIZE) {
+                throw tooLarge();
+            }
+            state = State.FIXED;
+        } else {
+            state = State.CLOSE_DELIMITED;
+        }
+    }
+
+    private static IOException tooLarge() {
+        return new IOException("Response body exceeds " + MAX_BODY_SIZE + " bytes (go2web.http.maxBodyBytes)");
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < size; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,1173 @@
+package org.uni.http;
+
+import org.uni.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Log-structured disk tier. Entries are appended to segment files as self-describing binary
+// records. Lookups go to a memory-mapped hint file, an open-addressing table of key -> location
+// rewritten now and then in the background, and to an in-memory overlay of what was appended
+// after it. Startup maps the hint and scans only that tail, so it costs the same however many
+// entries the cache holds.
+//
+// Directory layout:
+//   lock                   exclusive file lock taken by appends, compaction and clearing
+//   CURRENT                number of the live generation
+//   generation-NNNNNNNN/   segment-NNNNNNNN.log files and index.hint
+//   trash-NNNNNNNN/        cleared generations, deleted in the background
+// Clearing starts a new generation and renames the old one aside, so it is instant at any size.
+//
+// The log is kept under a byte quota by deleting its oldest segments. A record read or
+// revalidated while in the older half of the log is first copied to its head, so eviction takes
+// roughly the least recently used entries. A background sweeper looks at one sealed segment per
+// step and compacts it when at least half of it is overwritten or expired records.
+//
+// Record layout (big-endian):
+//   magic:int  type:byte  version:byte  flags:short (0x1 = body is raw deflate)  payloadLength:int  retainUntil:long  key:byte[32]
+//   PUT payload: contentType:str16  etag:str16  lastModified:str16  expirationTime:long  staleUntil:long  bodyLength:int  body:byte[]
+//   TOUCH payload: expirationTime:long  staleUntil:long (new freshness for the latest PUT of the key)
+//   crc32:int over everything before it
+// Version 1 PUT records had no lastModified/expirationTime/staleUntil; retainUntil was their expiration time.
+// Hint layout: magic:int  version:int  count:int  slots:int  coveredSegment:int  coveredOffset:long, then
+// slots (a power of two) entries of key:byte[32]  segment:int  offset:long  length:int  retainUntil:long
+// expirationOverride:long  staleUntilOverride:long. Segment 0 marks an empty slot; a key starts probing at
+// its first four bytes modulo slots.
+// Several go2web processes can share the directory. Readers only lock to copy a record forward,
+// and a scan simply stops at a record that fails validation.
+public class SegmentStore implements Closeable {
+    public static final int KEY_SIZE = 32;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final int MAGIC = 0x47325743;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_TOUCH = 2;
+    private static final byte FORMAT_VERSION = 2;
+    private static final short FLAG_COMPRESSED = 0x1;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 2 + 4 + 8 + KEY_SIZE;
+    private static final int CRC_SIZE = 4;
+    private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+    // Segments are an eighth of the quota within these bounds, so eviction frees space in small steps
+    private static final long MAX_SEGMENT_BYTES = 16L * 1024 * 1024;
+    private static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    private static final String CURRENT_FILE = "CURRENT";
+    private static final String GENERATION_PREFIX = "generation-";
+    private static final String TRASH_PREFIX = "trash-";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String HINT_FILE = "index.hint";
+    private static final String LOCK_FILE = "lock";
+    private static final int HINT_MAGIC = 0x47325748;
+    private static final int HINT_VERSION = 3;
+    private static final int HINT_HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8;
+    private static final int HINT_ENTRY_SIZE = KEY_SIZE + 4 + 8 + 4 + 8 + 8 + 8;
+    private static final int MIN_HINT_SLOTS = 16;
+    // Rewrite the hint in the background once this many bytes have been appended after it, or a
+    // quarter of the hint's own size for large ones, so the rewrites cost O(1) per appended byte
+    // and startup scans stay short. A start that had to scan more than the second limit writes
+    // the hint before returning.
+    private static final long HINT_REFRESH_BYTES = 1024 * 1024;
+    private static final long HINT_FORCE_BYTES = 8 * 1024 * 1024;
+
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+    private static final long SWEEP_INITIAL_DELAY_SECONDS = 1;
+    private static final long SWEEP_INTERVAL_SECONDS = 10;
+    private static final int SWEEP_READ_BYTES = 1024 * 1024;
+
+    private static final Map<Path, SegmentStore> OPEN_STORES = new HashMap<>();
+
+    private final Path root;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final FileChannel lockChannel;
+    private final ScheduledExecutorService sweeper;
+    private final Metrics metrics = Metrics.global();
+    // One hint rewrite at a time, as they share the temporary file. Taken before this, never inside it.
+    private final Object hintWriter = new Object();
+
+    // Guarded by this
+    private int generation;
+    private Path directory;
+    private MappedByteBuffer hint;
+    private int hintSlots;
+    private final HashMap<ByteBuffer, Location> overlay = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private long unhintedBytes;
+    private boolean hintRefreshPending;
+    private int sweepCursor;
+
+    private SegmentStore(Path root, long maxBytes) throws IOException {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.max(MIN_SEGMENT_BYTES, Math.min(MAX_SEGMENT_BYTES, maxBytes / 8));
+        Files.createDirectories(root);
+        this.lockChannel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "go2web-cache-sweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        boolean refreshNow;
+        synchronized (this) {
+            reload(false);
+            // After a long scan, e.g. the first start without a usable hint, the next start should
+            // not have to repeat it even if this process exits right away
+            refreshNow = unhintedBytes >= HINT_FORCE_BYTES;
+            if (!refreshNow && unhintedBytes >= hintRefreshBytes()) {
+                scheduleHintRefresh();
+            }
+        }
+        if (refreshNow) {
+            refreshHint();
+        }
+        // A generation cleared by a process that exited before deleting it is finished here
+        sweeper.execute(this::deleteTrashQuietly);
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, SWEEP_INITIAL_DELAY_SECONDS, SWEEP_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    public static SegmentStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_MAX_BYTES);
+    }
+
+    // One store per directory and process: FileLock is held per JVM, so instances must be shared.
+    // The quota of the first open wins.
+    public static synchronized SegmentStore open(Path directory, long maxBytes) throws IOException {
+        Path normalized = directory.toAbsolutePath().normalize();
+        SegmentStore store = OPEN_STORES.get(normalized);
+        if (store == null) {
+            store = new SegmentStore(normalized, maxBytes);
+            OPEN_STORES.put(normalized, store);
+        }
+        return store;
+    }
+
+    public CacheEntry get(byte[] key) throws IOException {
+        ByteBuffer indexKey = ByteBuffer.wrap(key);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Location location;
+            Segment segment;
+            synchronized (this) {
+                location = lookup(indexKey);
+                if (location == null) {
+                    // Another process may have written it since we last looked
+                    catchUp(false, false);
+                    location = lookup(indexKey);
+                }
+                if (location == null) {
+                    return null;
+                }
+                segment = segments.get(location.segmentId);
+            }
+            ByteBuffer record = readRecord(segment, location, key);
+            if (record != null) {
+                CacheEntry entry = decode(record, location);
+                promote(indexKey, location, record.rewind());
+                return entry;
+            }
+            // Segment was compacted away or the cache was cleared by another process
+            synchronized (this) {
+                reload(false);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void put(byte[] key, CacheEntry entry) throws IOException {
+        ByteBuffer record = encode(key, entry);
+        // A record this large would push most of the cache out
+        if (record.limit() > MAX_RECORD_SIZE || record.limit() > maxBytes / 4) {
+            return;
+        }
+        withLock(() -> {
+            catchUp(true, false);
+            Location location = append(record, entry.getRetainUntil());
+            overlay.put(ByteBuffer.wrap(key.clone()), location);
+            appended(location.length);
+            enforceQuota();
+        });
+    }
+
+    // Records new freshness for an entry that is already stored, without rewriting its body
+    // unless it is about to be evicted.
+    public synchronized void touch(byte[] key, CacheEntry entry) throws IOException {
+        ByteBuffer indexKey = ByteBuffer.wrap(key.clone());
+        withLock(() -> {
+            catchUp(true, false);
+            Location current = lookup(indexKey);
+            if (current == null) {
+                ByteBuffer record = encode(key, entry);
+                if (record.limit() <= MAX_RECORD_SIZE && record.limit() <= maxBytes / 4) {
+                    Location location = append(record, entry.getRetainUntil());
+                    overlay.put(indexKey, location);
+                    appended(location.length);
+                }
+            } else {
+                Location refreshed = current.withFreshness(entry.getRetainUntil(), entry.getExpirationTime(), entry.getStaleUntil());
+                ByteBuffer record = isNearEviction(current.segmentId)
+                        ? readRecord(segments.get(current.segmentId), current, key) : null;
+                if (record != null) {
+                    moveToHead(indexKey, record, refreshed);
+                } else {
+                    ByteBuffer touchRecord = encodeTouch(key, entry.getRetainUntil(), entry.getExpirationTime(), entry.getStaleUntil());
+                    int length = append(touchRecord, entry.getRetainUntil()).length;
+                    overlay.put(indexKey, refreshed);
+                    appended(length);
+                }
+            }
+            enforceQuota();
+        });
+    }
+
+    // Later calls see an empty cache at once; the old generation is deleted in the background
+    public synchronized void clear() throws IOException {
+        withLock(() -> {
+            int onDisk = currentGeneration(true);
+            int next = Math.max(onDisk, generation) + 1;
+            Files.createDirectories(generationPath(next));
+            writeCurrent(next);
+            trash(generation);
+            if (onDisk != generation) {
+                trash(onDisk);
+            }
+            reload(true);
+        });
+        inBackground(this::deleteTrashQuietly);
+    }
+
+    // Entries whose segment is still there, expired ones included; walks the whole index
+    public synchronized int size() {
+        int count = 0;
+        for (Location location : overlay.values()) {
+            if (segments.containsKey(location.segmentId)) {
+                count++;
+            }
+        }
+        for (int slot = 0; slot < hintSlots; slot++) {
+            int base = HINT_HEADER_SIZE + slot * HINT_ENTRY_SIZE;
+            if (hint.getInt(base + KEY_SIZE) != 0 && !overlay.containsKey(hintKey(base))
+                    && segments.containsKey(hint.getInt(base + KEY_SIZE))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Bytes of segment files in the live generation, garbage included
+    public synchronized long diskBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.end;
+        }
+        return total;
+    }
+
+    // Compacts every sealed segment that is mostly garbage and brings the hint up to date
+    public void compact() throws IOException {
+        synchronized (this) {
+            withLock(() -> {
+                catchUp(true, false);
+                long now = System.currentTimeMillis();
+                for (Segment segment : new ArrayList<>(segments.headMap(segments.isEmpty() ? 0 : segments.lastKey()).values())) {
+                    compactSegment(segment, now);
+                }
+            });
+        }
+        refreshHint();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sweeper.shutdownNow();
+        synchronized (SegmentStore.class) {
+            OPEN_STORES.remove(root);
+        }
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            lockChannel.close();
+        }
+    }
+
+    private interface LockedStep {
+        void run() throws IOException;
+    }
+
+    private interface LockedCall<T> {
+        T call() throws IOException;
+    }
+
+    // Runs step holding the file lock that serializes writers across processes
+    private void withLock(LockedStep step) throws IOException {
+        withLock(() -> {
+            step.run();
+            return null;
+        });
+    }
+
+    private <T> T withLock(LockedCall<T> call) throws IOException {
+        FileLock lock = lockChannel.lock();
+        try {
+            return call.call();
+        } finally {
+            lock.release();
+        }
+    }
+
+    // Where the key's latest record is, if its segment still exists. Newer locations are in the
+    // overlay; an overlay entry whose segment is gone is not replaced by an older one from the hint.
+    private Location lookup(ByteBuffer key) {
+        Location location = locate(key);
+        return location != null && segments.containsKey(location.segmentId) ? location : null;
+    }
+
+    private Location locate(ByteBuffer key) {
+        Location location = overlay.get(key);
+        if (location != null || hint == null) {
+            return location;
+        }
+        int mask = hintSlots - 1;
+        for (int slot = key.getInt(0) & mask; ; slot = (slot + 1) & mask) {
+            int base = HINT_HEADER_SIZE + slot * HINT_ENTRY_SIZE;
+            if (hint.getInt(base + KEY_SIZE) == 0) {
+                return null;
+            }
+            if (hint.getLong(base) == key.getLong(0) && hint.getLong(base + 8) == key.getLong(8)
+                    && hint.getLong(base + 16) == key.getLong(16) && hint.getLong(base + 24) == key.getLong(24)) {
+                return hintLocation(hint, base);
+            }
+        }
+    }
+
+    private ByteBuffer hintKey(int base) {
+        byte[] key = new byte[KEY_SIZE];
+        hint.get(base, key);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static Location hintLocation(ByteBuffer table, int base) {
+        int at = base + KEY_SIZE;
+        return new Location(table.getInt(at), table.getLong(at + 4), table.getInt(at + 12), table.getLong(at + 16),
+                table.getLong(at + 24), table.getLong(at + 32));
+    }
+
+    private static void putHintEntry(ByteBuffer table, int slots, ByteBuffer key, Location location) {
+        int mask = slots - 1;
+        int slot = key.getInt(0) & mask;
+        while (table.getInt(HINT_HEADER_SIZE + slot * HINT_ENTRY_SIZE + KEY_SIZE) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        int base = HINT_HEADER_SIZE + slot * HINT_ENTRY_SIZE;
+        table.put(base, key.duplicate().rewind(), 0, KEY_SIZE);
+        table.putInt(base + KEY_SIZE, location.segmentId).putLong(base + KEY_SIZE + 4, location.offset)
+                .putInt(base + KEY_SIZE + 12, location.length).putLong(base + KEY_SIZE + 16, location.retainUntil)
+                .putLong(base + KEY_SIZE + 24, location.expirationOverride)
+                .putLong(base + KEY_SIZE + 32, location.staleUntilOverride);
+    }
+
+    private Location append(ByteBuffer record, long retainUntil) throws IOException {
+        int length = record.remaining();
+        Segment segment = activeSegment(length);
+        long offset = segment.end;
+        while (record.hasRemaining()) {
+            segment.channel.write(record, offset + record.position());
+        }
+        segment.end += length;
+        return new Location(segment.id, offset, length, retainUntil);
+    }
+
+    private void appended(int length) throws IOException {
+        unhintedBytes += length;
+        if (unhintedBytes >= hintRefreshBytes()) {
+            scheduleHintRefresh();
+        }
+    }
+
+    private long hintRefreshBytes() {
+        return Math.max(HINT_REFRESH_BYTES, (long) hintSlots * HINT_ENTRY_SIZE / 4);
+    }
+
+    // Appends a copy of a record (and its freshness, if a TOUCH changed it) and points the index at it
+    private void moveToHead(ByteBuffer key, ByteBuffer record, Location freshness) throws IOException {
+        Location moved = append(record, freshness.retainUntil);
+        int length = moved.length;
+        if (freshness.hasFreshnessOverride()) {
+            byte[] keyBytes = new byte[KEY_SIZE];
+            key.duplicate().rewind().get(keyBytes);
+            length += append(encodeTouch(keyBytes, freshness.retainUntil, freshness.expirationOverride,
+                    freshness.staleUntilOverride), freshness.retainUntil).length;
+            moved = moved.withFreshness(freshness.retainUntil, freshness.expirationOverride, freshness.staleUntilOverride);
+        }
+        overlay.put(key, moved);
+        appended(length);
+    }
+
+    // Records in the older half of the quota are the next to be evicted
+    private boolean isNearEviction(int segmentId) {
+        long newer = 0;
+        for (Segment segment : segments.tailMap(segmentId, true).values()) {
+            newer += segment.end;
+        }
+        return newer > maxBytes / 2;
+    }
+
+    // Copies a record that was just read out of the eviction zone. Only an optimisation, so a
+    // failure leaves the record where it is.
+    private void promote(ByteBuffer key, Location location, ByteBuffer record) {
+        synchronized (this) {
+            if (!isNearEviction(location.segmentId)) {
+                return;
+            }
+            try {
+                withLock(() -> {
+                    catchUp(true, false);
+                    Location current = lookup(key);
+                    if (current != null && current.segmentId == location.segmentId && current.offset == location.offset) {
+                        moveToHead(ByteBuffer.wrap(key.array().clone()), record, current);
+                        enforceQuota();
+                    }
+                });
+            } catch (IOException e) {
+                // Evicted a little earlier than it could have been
+            }
+        }
+    }
+
+    // Deletes the oldest segments while the log is over its quota. What they still hold was
+    // neither written nor read for the longest time; readers do not lock, so one still reading
+    // a deleted segment finishes through its open channel.
+    private void enforceQuota() throws IOException {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.end;
+        }
+        while (total > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            total -= oldest.end;
+            oldest.close();
+            Files.deleteIfExists(oldest.path);
+            metrics.increment(Metrics.CACHE_DISK_EVICTIONS);
+        }
+    }
+
+    // Moves the live records of a sealed segment to the head of the log and deletes the segment,
+    // if at least half of it is garbage. Only headers are looked at to find out, read a large
+    // block at a time. A TOUCH is live while the PUT it refreshed stays behind in an older
+    // segment: a rescan would otherwise find that PUT with its original freshness.
+    private boolean compactSegment(Segment segment, long now) throws IOException {
+        List<ByteBuffer> liveKeys = new ArrayList<>();
+        List<Location> liveLocations = new ArrayList<>();
+        Set<ByteBuffer> touchedKeys = new LinkedHashSet<>();
+        long liveBytes = 0;
+        ByteBuffer block = ByteBuffer.allocate(SWEEP_READ_BYTES).limit(0);
+        long blockStart = 0;
+        long offset = 0;
+        while (offset + HEADER_SIZE <= segment.end) {
+            if (offset + HEADER_SIZE > blockStart + block.limit()) {
+                blockStart = offset;
+                block.clear().limit((int) Math.min(block.capacity(), segment.end - offset));
+                readFully(segment.channel, block, blockStart);
+                block.flip();
+            }
+            int at = (int) (offset - blockStart);
+            int length = HEADER_SIZE + block.getInt(at + 8) + CRC_SIZE;
+            byte[] key = new byte[KEY_SIZE];
+            block.get(at + HEADER_SIZE - KEY_SIZE, key);
+            ByteBuffer indexKey = ByteBuffer.wrap(key);
+            Location location = lookup(indexKey);
+            if (location != null && location.retainUntil > now) {
+                if (block.get(at + 4) == TYPE_PUT) {
+                    if (location.segmentId == segment.id && location.offset == offset) {
+                        liveKeys.add(indexKey);
+                        liveLocations.add(location);
+                        liveBytes += length;
+                    }
+                } else if (location.segmentId < segment.id && location.hasFreshnessOverride() && touchedKeys.add(indexKey)) {
+                    liveBytes += length;
+                }
+            }
+            offset += length;
+        }
+        if (segment.end > 0 && liveBytes >= segment.end * (1 - COMPACTION_GARBAGE_RATIO)) {
+            return false;
+        }
+        for (int i = 0; i < liveKeys.size(); i++) {
+            Location from = liveLocations.get(i);
+            ByteBuffer record = ByteBuffer.allocate(from.length);
+            readFully(segment.channel, record, from.offset);
+            moveToHead(liveKeys.get(i), record.flip(), from);
+        }
+        for (ByteBuffer key : touchedKeys) {
+            // Only the latest freshness is carried over, however many TOUCH records led to it
+            Location current = lookup(key);
+            appended(append(encodeTouch(key.array(), current.retainUntil, current.expirationOverride,
+                    current.staleUntilOverride), current.retainUntil).length);
+        }
+        segments.remove(segment.id);
+        segment.close();
+        Files.deleteIfExists(segment.path);
+        return true;
+    }
+
+    // One step of background upkeep: forget segments other processes deleted, compact the next
+    // sealed segment if it is mostly garbage, and bring the hint up to date if it fell behind
+    private void sweep() throws IOException {
+        boolean refresh;
+        synchronized (this) {
+            withLock(() -> {
+                catchUp(true, false);
+                dropDeletedSegments();
+                Segment next = nextSweepCandidate();
+                if (next != null) {
+                    compactSegment(next, System.currentTimeMillis());
+                }
+            });
+            refresh = unhintedBytes >= hintRefreshBytes();
+        }
+        if (refresh) {
+            refreshHint();
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (IOException | RuntimeException e) {
+            // Upkeep is opportunistic, the next step will try again
+        }
+    }
+
+    // Round robin over the sealed segments, so each is looked at every few steps
+    private Segment nextSweepCandidate() {
+        Map.Entry<Integer, Segment> next = segments.higherEntry(sweepCursor);
+        if (next == null || next.getKey().equals(segments.lastKey())) {
+            sweepCursor = 0;
+            return null;
+        }
+        sweepCursor = next.getKey();
+        return next.getValue();
+    }
+
+    // Sealed segments another process compacted or evicted; their open channels would keep the space
+    private void dropDeletedSegments() {
+        if (segments.isEmpty()) {
+            return;
+        }
+        Iterator<Segment> sealed = segments.headMap(segments.lastKey()).values().iterator();
+        while (sealed.hasNext()) {
+            Segment segment = sealed.next();
+            if (!Files.exists(segment.path)) {
+                segment.close();
+                sealed.remove();
+            }
+        }
+    }
+
+    private void scheduleHintRefresh() {
+        if (!hintRefreshPending) {
+            hintRefreshPending = inBackground(this::refreshHintQuietly);
+        }
+    }
+
+    // Hands task to the sweeper thread, unless the store was closed; the next process that opens
+    // the cache catches up on whatever was skipped
+    private boolean inBackground(Runnable task) {
+        try {
+            sweeper.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void refreshHintQuietly() {
+        try {
+            refreshHint();
+        } catch (IOException | RuntimeException e) {
+            // The overlay keeps working, and the next refresh will try again
+        }
+    }
+
+    // Writes a new hint from the current one plus the overlay, leaving out expired entries and
+    // those whose segment is gone. The table is built outside the lock; afterwards the overlay
+    // entries it took in are dropped, unless they changed in the meantime.
+    private void refreshHint() throws IOException {
+        synchronized (hintWriter) {
+            writeHint();
+        }
+    }
+
+    private void writeHint() throws IOException {
+        MappedByteBuffer oldHint;
+        int oldSlots;
+        Map<ByteBuffer, Location> pending;
+        Set<Integer> liveSegments;
+        int coveredSegment;
+        long coveredOffset;
+        long coveredBytes;
+        Path hintDirectory;
+        int hintGeneration;
+        synchronized (this) {
+            hintRefreshPending = false;
+            catchUp(false, false);
+            if (segments.isEmpty()) {
+                return;
+            }
+            oldHint = hint;
+            oldSlots = hintSlots;
+            pending = new HashMap<>(overlay);
+            liveSegments = new HashSet<>(segments.keySet());
+            coveredSegment = segments.lastKey();
+            coveredOffset = segments.lastEntry().getValue().end;
+            coveredBytes = unhintedBytes;
+            hintDirectory = directory;
+            hintGeneration = generation;
+        }
+
+        long now = System.currentTimeMillis();
+        long entries = (oldHint == null ? 0 : oldHint.getInt(8)) + (long) pending.size();
+        int slots = MIN_HINT_SLOTS;
+        // At most two thirds full, so probes stay short
+        while (slots < entries * 3 / 2 && slots < (1 << 30)) {
+            slots <<= 1;
+        }
+        long size = HINT_HEADER_SIZE + (long) slots * HINT_ENTRY_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            // Too large to map; startup falls back to scanning the segments
+            return;
+        }
+        Path temp = hintDirectory.resolve(HINT_FILE + "." + ProcessHandle.current().pid() + ".tmp");
+        MappedByteBuffer table;
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            for (Map.Entry<ByteBuffer, Location> entry : pending.entrySet()) {
+                Location location = entry.getValue();
+                if (liveSegments.contains(location.segmentId) && location.retainUntil > now) {
+                    putHintEntry(table, slots, entry.getKey(), location);
+                    count++;
+                }
+            }
+            byte[] key = new byte[KEY_SIZE];
+            ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+            for (int slot = 0; slot < oldSlots; slot++) {
+                int base = HINT_HEADER_SIZE + slot * HINT_ENTRY_SIZE;
+                if (oldHint.getInt(base + KEY_SIZE) == 0) {
+                    continue;
+                }
+                oldHint.get(base, key);
+                Location location = hintLocation(oldHint, base);
+                if (!pending.containsKey(wrappedKey) && liveSegments.contains(location.segmentId)
+                        && location.retainUntil > now) {
+                    putHintEntry(table, slots, wrappedKey, location);
+                    count++;
+                }
+            }
+            table.putInt(0, HINT_MAGIC).putInt(4, HINT_VERSION).putInt(8, count).putInt(12, slots)
+                    .putInt(16, coveredSegment).putLong(20, coveredOffset);
+        }
+        Files.move(temp, hintDirectory.resolve(HINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            if (hintGeneration != generation) {
+                return;
+            }
+            hint = table;
+            hintSlots = slots;
+            overlay.entrySet().removeIf(entry -> pending.get(entry.getKey()) == entry.getValue());
+            unhintedBytes = Math.max(0, unhintedBytes - coveredBytes);
+        }
+    }
+
+    private ByteBuffer readRecord(Segment segment, Location location, byte[] key) {
+        if (segment == null) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(location.length);
+        try {
+            readFully(segment.channel, record, location.offset);
+        } catch (IOException e) {
+            return null;
+        }
+        record.flip();
+        if (!isValid(record) || record.get(4) != TYPE_PUT) {
+            return null;
+        }
+        byte[] recordKey = new byte[KEY_SIZE];
+        record.get(HEADER_SIZE - KEY_SIZE, recordKey);
+        return ByteBuffer.wrap(recordKey).equals(ByteBuffer.wrap(key)) ? record : null;
+    }
+
+    // Maps the hint of the current generation (when it still matches the segments on disk) and
+    // scans the segments for records appended after it.
+    private void reload(boolean locked) throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        overlay.clear();
+        hint = null;
+        hintSlots = 0;
+        unhintedBytes = 0;
+        sweepCursor = 0;
+
+        generation = currentGeneration(locked);
+        if (!Files.isDirectory(generationPath(generation))) {
+            // Cleared by another process between reading CURRENT and getting here
+            generation = currentGeneration(locked);
+        }
+        directory = generationPath(generation);
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                int id = segmentId(file);
+                if (id > 0) {
+                    segments.put(id, new Segment(id, file));
+                }
+            }
+        }
+        if (!loadHint()) {
+            hint = null;
+            hintSlots = 0;
+            for (Segment segment : segments.values()) {
+                segment.end = 0;
+            }
+        }
+        catchUp(locked, true);
+    }
+
+    // Scans bytes appended since the last scan and picks up new segments. Appends only go to
+    // the last segment, so unless full is set the others are not looked at. Only a caller
+    // holding the file lock may repair a torn tail.
+    private void catchUp(boolean locked, boolean full) throws IOException {
+        boolean replaced = segments.isEmpty() ? !Files.isDirectory(directory) : segments.lastEntry().getValue().isReplaced();
+        if (replaced) {
+            reload(locked);
+            return;
+        }
+        int lastKnown = segments.isEmpty() ? 0 : segments.lastKey();
+        int nextId = lastKnown + 1;
+        while (Files.exists(segmentPath(nextId))) {
+            segments.put(nextId, new Segment(nextId, segmentPath(nextId)));
+            nextId++;
+        }
+        for (Segment segment : (full ? segments : segments.tailMap(lastKnown, true)).values()) {
+            long size = segment.channel.size();
+            if (size > segment.end) {
+                unhintedBytes += scan(segment, size, locked);
+            }
+        }
+    }
+
+    private long scan(Segment segment, long size, boolean locked) throws IOException {
+        long start = segment.end;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (segment.end + HEADER_SIZE + CRC_SIZE <= size) {
+            header.clear();
+            readFully(segment.channel, header, segment.end);
+            header.flip();
+            if (header.getInt(0) != MAGIC) {
+                break;
+            }
+            int payloadLength = header.getInt(8);
+            long recordLength = (long) HEADER_SIZE + payloadLength + CRC_SIZE;
+            if (payloadLength < 0 || recordLength > MAX_RECORD_SIZE || segment.end + recordLength > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate((int) recordLength);
+            readFully(segment.channel, record, segment.end);
+            record.flip();
+            if (!isValid(record)) {
+                break;
+            }
+            byte[] key = new byte[KEY_SIZE];
+            record.get(HEADER_SIZE - KEY_SIZE, key);
+            ByteBuffer indexKey = ByteBuffer.wrap(key);
+            if (record.get(4) == TYPE_TOUCH) {
+                Location current = locate(indexKey);
+                if (current != null) {
+                    record.position(HEADER_SIZE);
+                    overlay.put(indexKey, current.withFreshness(record.getLong(12), record.getLong(), record.getLong()));
+                }
+            } else {
+                overlay.put(indexKey, new Location(segment.id, segment.end, (int) recordLength, record.getLong(12)));
+            }
+            segment.end += recordLength;
+        }
+        if (segment.end < size && locked) {
+            // Only a crashed writer leaves a torn record behind; drop it so later appends are reachable
+            segment.channel.truncate(segment.end);
+        }
+        return segment.end - start;
+    }
+
+    private Segment activeSegment(int recordLength) throws IOException {
+        Segment active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (active == null || (active.end > 0 && active.end + recordLength > segmentBytes)) {
+            int id = active == null ? 1 : active.id + 1;
+            active = new Segment(id, segmentPath(id));
+            segments.put(id, active);
+        }
+        return active;
+    }
+
+    private boolean loadHint() throws IOException {
+        Path hintPath = directory.resolve(HINT_FILE);
+        if (!Files.exists(hintPath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(hintPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HINT_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt(0) != HINT_MAGIC || mapped.getInt(4) != HINT_VERSION) {
+                return false;
+            }
+            int slots = mapped.getInt(12);
+            int coveredSegment = mapped.getInt(16);
+            long coveredOffset = mapped.getLong(20);
+            if (slots < MIN_HINT_SLOTS || Integer.bitCount(slots) != 1
+                    || size != HINT_HEADER_SIZE + (long) slots * HINT_ENTRY_SIZE) {
+                return false;
+            }
+            // Segments up to the covered one may have been evicted or compacted since, which only
+            // makes their entries dead, as long as segment ids were not started over and the
+            // covered segment, if still there, is not shorter than it was
+            Segment covered = segments.get(coveredSegment);
+            if (segments.isEmpty() || segments.lastKey() < coveredSegment
+                    || (covered != null && covered.channel.size() < coveredOffset)) {
+                return false;
+            }
+            for (Segment segment : segments.values()) {
+                if (segment.id < coveredSegment) {
+                    segment.end = segment.channel.size();
+                } else if (segment.id == coveredSegment) {
+                    segment.end = coveredOffset;
+                }
+            }
+            hint = mapped;
+            hintSlots = slots;
+            return true;
+        }
+    }
+
+    private int currentGeneration(boolean locked) throws IOException {
+        int current = readCurrent();
+        if (current > 0) {
+            return current;
+        }
+        if (locked) {
+            return bootstrap();
+        }
+        return withLock(() -> {
+            // Another process may have got there first
+            int existing = readCurrent();
+            return existing > 0 ? existing : bootstrap();
+        });
+    }
+
+    private int readCurrent() throws IOException {
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(root.resolve(CURRENT_FILE)), StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void writeCurrent(int generation) throws IOException {
+        Path temp = root.resolve(CURRENT_FILE + ".tmp");
+        Files.write(temp, (generation + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, root.resolve(CURRENT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Caches from before generations kept their segments in the root; they become generation 1.
+    // Their hint is in an older format, and the one-file-per-entry cache older still is thrown away.
+    private int bootstrap() throws IOException {
+        Path first = generationPath(1);
+        Files.createDirectories(first);
+        Path trash = root.resolve(String.format("%s%08d", TRASH_PREFIX, 0));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (segmentId(file) > 0) {
+                    Files.move(file, first.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                } else if (name.equals(HINT_FILE) || name.matches("[0-9a-f]{64}")) {
+                    Files.createDirectories(trash);
+                    Files.move(file, trash.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+        }
+        writeCurrent(1);
+        return 1;
+    }
+
+    private void trash(int generation) {
+        Path path = generationPath(generation);
+        try {
+            if (Files.isDirectory(path)) {
+                Files.move(path, root.resolve(String.format("%s%08d", TRASH_PREFIX, generation)), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            // Left in place; it is no longer CURRENT, so nothing reads it
+        }
+    }
+
+    private void deleteTrash() throws IOException {
+        List<Path> trashed = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, TRASH_PREFIX + "*")) {
+            files.forEach(trashed::add);
+        }
+        for (Path directory : trashed) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void deleteTrashQuietly() {
+        try {
+            deleteTrash();
+        } catch (IOException | UncheckedIOException e) {
+            // What is left is deleted by the next process that opens the cache
+        }
+    }
+
+    private Path generationPath(int generation) {
+        return root.resolve(String.format("%s%08d", GENERATION_PREFIX, generation));
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            // Not one of ours
+            return 0;
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static ByteBuffer encode(byte[] key, CacheEntry entry) {
+        if (key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("Cache keys must be " + KEY_SIZE + " bytes");
+        }
+        byte[] contentType = shortString(entry.getContentType());
+        byte[] etag = shortString(entry.getEtag());
+        byte[] lastModified = shortString(entry.getLastModified());
+        byte[] body = entry.getStoredBody();
+        int payloadLength = 2 + length(contentType) + 2 + length(etag) + 2 + length(lastModified) + 8 + 8 + 4 + body.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength + CRC_SIZE);
+        buffer.putInt(MAGIC).put(TYPE_PUT).put(FORMAT_VERSION).putShort(entry.isCompressed() ? FLAG_COMPRESSED : 0)
+                .putInt(payloadLength).putLong(entry.getRetainUntil()).put(key);
+        putShortString(buffer, contentType);
+        putShortString(buffer, etag);
+        putShortString(buffer, lastModified);
+        buffer.putLong(entry.getExpirationTime()).putLong(entry.getStaleUntil());
+        buffer.putInt(body.length).put(body);
+        return sealed(buffer);
+    }
+
+    private static ByteBuffer encodeTouch(byte[] key, long retainUntil, long expirationTime, long staleUntil) {
+        int payloadLength = 8 + 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength + CRC_SIZE);
+        buffer.putInt(MAGIC).put(TYPE_TOUCH).put(FORMAT_VERSION).putShort((short) 0)
+                .putInt(payloadLength).putLong(retainUntil).put(key);
+        buffer.putLong(expirationTime).putLong(staleUntil);
+        return sealed(buffer);
+    }
+
+    private static ByteBuffer sealed(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static CacheEntry decode(ByteBuffer record, Location location) {
+        boolean compressed = (record.getShort(6) & FLAG_COMPRESSED) != 0;
+        long retainUntil = record.getLong(12);
+        record.position(HEADER_SIZE);
+        String contentType = getShortString(record);
+        String etag = getShortString(record);
+        String lastModified = null;
+        long expirationTime = retainUntil;
+        long staleUntil = retainUntil;
+        if (record.get(5) >= 2) {
+            lastModified = getShortString(record);
+            expirationTime = record.getLong();
+            staleUntil = record.getLong();
+        }
+        byte[] body = new byte[record.getInt()];
+        record.get(body);
+        if (location.hasFreshnessOverride()) {
+            expirationTime = location.expirationOverride;
+            staleUntil = location.staleUntilOverride;
+        }
+        return CacheEntry.fromStoredBody(body, compressed, contentType, etag, lastModified, expirationTime, staleUntil);
+    }
+
+    private static boolean isValid(ByteBuffer record) {
+        int length = record.limit();
+        if (length < HEADER_SIZE + CRC_SIZE || record.getInt(0) != MAGIC
+                || (record.get(4) != TYPE_PUT && record.get(4) != TYPE_TOUCH)
+                || record.get(5) < 1 || record.get(5) > FORMAT_VERSION
+                || HEADER_SIZE + record.getInt(8) + CRC_SIZE != length) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length - CRC_SIZE);
+        return (int) crc.getValue() == record.getInt(length - CRC_SIZE);
+    }
+
+    private static byte[] shortString(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > Short.MAX_VALUE ? null : bytes;
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void putShortString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) value.length).put(value);
+        }
+    }
+
+    private static String getShortString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset);
+            if (n < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            offset += n;
+        }
+    }
+
+    private static class Location {
+        // Marks a PUT record whose freshness has not been changed by a later TOUCH
+        static final long NO_OVERRIDE = Long.MIN_VALUE;
+
+        final int segmentId;
+        final long offset;
+        final int length;
+        final long retainUntil;
+        final long expirationOverride;
+        final long staleUntilOverride;
+
+        Location(int segmentId, long offset, int length, long retainUntil) {
+            this(segmentId, offset, length, retainUntil, NO_OVERRIDE, NO_OVERRIDE);
+        }
+
+        Location(int segmentId, long offset, int length, long retainUntil,
+                 long expirationOverride, long staleUntilOverride) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.retainUntil = retainUntil;
+            this.expirationOverride = expirationOverride;
+            this.staleUntilOverride = staleUntilOverride;
+        }
+
+        boolean hasFreshnessOverride() {
+            return expirationOverride != NO_OVERRIDE;
+        }
+
+        Location withFreshness(long retainUntil, long expirationTime, long staleUntil) {
+            return new Location(segmentId, offset, length, retainUntil, expirationTime, staleUntil);
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final Object fileKey;
+        long end;
+
+        Segment(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        }
+
+        // True when the file was deleted, or deleted and recreated, by another process
+        boolean isReplaced() {
+            try {
+                Object current = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                return current == null ? fileKey != null : !current.equals(fileKey);
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignored, the segment is being dropped
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package org.uni.http;
+
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downloads one resource as several byte ranges fetched at the same time, each over its own
+// connection and written straight to its place in a file of the final size. Which bytes have
+// arrived is recorded next to the file, so a download that was interrupted continues where it
+// stopped the next time it is run instead of starting over.
+public class SegmentedDownload {
+    public static final int DEFAULT_SEGMENTS = 4;
+    // Below two segments' worth a single stream is just as fast
+    private static final long MIN_SEGMENT_BYTES = 1 << 20;
+    private static final long TRANSFER_STEP = 1 << 20;
+    private static final long STATE_SAVE_INTERVAL_MILLIS = 500;
+    private static final String STATE_HEADER = "go2web-download 1";
+    private static final ExecutorService SEGMENT_FETCHES = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "go2web-download");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpClient httpClient;
+    private final int segments;
+    private final Metrics metrics = Metrics.global();
+    private long resumedBytes;
+
+    public SegmentedDownload(HttpClient httpClient, int segments) {
+        this.httpClient = httpClient;
+        this.segments = Math.max(1, segments);
+    }
+
+    // Bytes an earlier, interrupted run had already saved
+    public long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    public static Path stateFile(Path partial) {
+        return partial.resolveSibling(partial.getFileName() + ".state");
+    }
+
+    // Downloads url into partial and returns its length. Returns -1, leaving partial alone, when
+    // the resource cannot be fetched in ranges: the server does not offer them, the length is
+    // unknown, it is HTML (which is rendered, not saved as is) or too small to be worth it.
+    public long download(String url, String acceptHeader, Path partial) throws IOException {
+        Path statePath = stateFile(partial);
+        Resource resource = probe(url, acceptHeader);
+        if (resource == null) {
+            Files.deleteIfExists(statePath);
+            return -1;
+        }
+        State state = Files.exists(partial) ? State.load(statePath, url, resource) : null;
+        if (state == null && resource.length < 2 * MIN_SEGMENT_BYTES) {
+            Files.deleteIfExists(statePath);
+            return -1;
+        }
+        if (state == null) {
+            state = State.split(url, resource, (int) Math.min(segments, resource.length / MIN_SEGMENT_BYTES));
+        } else {
+            resumedBytes = state.completedBytes();
+            Log.debug("Resuming download of " + url + " at " + resumedBytes + " of " + resource.length + " bytes");
+            metrics.add(Metrics.DOWNLOAD_RESUMED_BYTES, resumedBytes);
+        }
+
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (state.completedBytes() == 0) {
+                channel.truncate(0);
+            }
+            // The file has its final size from the start, so every segment writes at its own offset
+            if (channel.size() < resource.length) {
+                channel.write(ByteBuffer.allocate(1), resource.length - 1);
+            } else if (channel.size() > resource.length) {
+                channel.truncate(resource.length);
+            }
+            state.save(statePath);
+            fetchSegments(resource, state, channel, statePath);
+            if (channel.size() != resource.length || state.completedBytes() != resource.length) {
+                throw new IOException("Downloaded " + state.completedBytes() + " bytes, expected " + resource.length);
+            }
+        }
+        Files.deleteIfExists(statePath);
+        return resource.length;
+    }
+
+    private void fetchSegments(Resource resource, State state, FileChannel channel, Path statePath) throws IOException {
+        List<Future<?>> fetches = new ArrayList<>();
+        for (Segment segment : state.segments) {
+            if (segment.remaining() > 0) {
+                metrics.increment(Metrics.DOWNLOAD_SEGMENTS);
+                fetches.add(SEGMENT_FETCHES.submit(() -> {
+                    fetchSegment(resource, segment, channel, state, statePath);
+                    return null;
+                }));
+            }
+        }
+        IOException failure = null;
+        for (Future<?> fetch : fetches) {
+            try {
+                fetch.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new InterruptedIOException("Interrupted while downloading");
+                break;
+            }
+        }
+        if (failure != null) {
+            if (failure instanceof ResourceChangedException) {
+                Files.deleteIfExists(statePath);
+                throw failure;
+            }
+            state.save(statePath);
+            throw new IOException("Download stopped after " + state.completedBytes() + " of " + resource.length
+                    + " bytes (" + failure.getMessage() + "); run the same command again to resume", failure);
+        }
+    }
+
+    private void fetchSegment(Resource resource, Segment segment, FileChannel channel, State state,
+                              Path statePath) throws IOException {
+        long first = segment.start + segment.done.get();
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Range", "bytes=" + first + "-" + segment.end);
+        if (resource.validator != null) {
+            // Should the resource change, the server answers with all of it instead of the range
+            headers.add("If-Range", resource.validator);
+        }
+        httpClient.send("GET", resource.url, resource.acceptHeader, headers, (response, body) -> {
+            if (response.getStatusCode() == 200) {
+                throw new ResourceChangedException(resource.url);
+            }
+            if (response.getStatusCode() != 206) {
+                throw new IOException("HTTP " + response.getStatusCode() + " for bytes " + first + "-" + segment.end);
+            }
+            checkContentRange(response.getHeader("Content-Range"), first, segment.end, resource.length);
+            ReadableByteChannel source = Channels.newChannel(body);
+            while (segment.remaining() > 0) {
+                long position = segment.start + segment.done.get();
+                long n = channel.transferFrom(source, position, Math.min(segment.remaining(), TRANSFER_STEP));
+                if (n == 0) {
+                    throw new IOException("Range " + first + "-" + segment.end + " ended early");
+                }
+                // Recorded only once written, so the saved state never claims bytes the file lacks
+                segment.done.addAndGet(n);
+                metrics.add(Metrics.BYTES_STREAMED, n);
+                state.saveIfDue(statePath);
+            }
+            return null;
+        });
+    }
+
+    private static void checkContentRange(String contentRange, long first, long last, long length) throws IOException {
+        String expected = "bytes " + first + "-" + last + "/" + length;
+        if (contentRange == null || !contentRange.trim().equalsIgnoreCase(expected)) {
+            throw new IOException("Unexpected Content-Range " + contentRange + ", wanted " + expected);
+        }
+    }
+
+    // HEAD request, following redirects, to find out whether the resource can be fetched in ranges
+    private Resource probe(String url, String acceptHeader) {
+        try {
+            URL current = new URL(url);
+            for (int redirects = 0; redirects < 5; redirects++) {
+                HttpResponse response = httpClient.send("HEAD", current, acceptHeader, new HttpHeaders(),
+                        (head, body) -> head);
+                int status = response.getStatusCode();
+                String location = response.getHeader("Location");
+                if (status >= 300 && status < 400 && location != null) {
+                    current = new URL(current, location);
+                    continue;
+                }
+                return Resource.from(current, acceptHeader, response);
+            }
+        } catch (IOException e) {
+            // A server that cannot answer HEAD can still be downloaded in one piece
+            Log.debug("Range probe failed for " + url + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static class Resource {
+        final URL url;
+        final String acceptHeader;
+        final long length;
+        final String validator;
+
+        Resource(URL url, String acceptHeader, long length, String validator) {
+            this.url = url;
+            this.acceptHeader = acceptHeader;
+            this.length = length;
+            this.validator = validator;
+        }
+
+        static Resource from(URL url, String acceptHeader, HttpResponse head) {
+            HttpHeaders headers = head.getHeaders();
+            String contentType = head.getContentType();
+            String encoding = head.getHeader("Content-Encoding");
+            String contentLength = head.getHeader("Content-Length");
+            if (head.getStatusCode() != 200 || !headers.hasToken("Accept-Ranges", "bytes") || contentLength == null
+                    || (encoding != null && !encoding.trim().equalsIgnoreCase("identity"))
+                    || (contentType != null && contentType.toLowerCase(Locale.ROOT).contains("html"))) {
+                return null;
+            }
+            long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            // If-Range only accepts a strong ETag
+            String etag = head.getHeader("ETag");
+            String validator = etag != null && !etag.startsWith("W/") ? etag : head.getHeader("Last-Modified");
+            return length > 0 ? new Resource(url, acceptHeader, length, validator) : null;
+        }
+    }
+
+    private static class Segment {
+        final long start;
+        final long end;
+        final AtomicLong done;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = new AtomicLong(done);
+        }
+
+        long remaining() {
+            return end - start + 1 - done.get();
+        }
+    }
+
+    // Saved as text: a header line, the URL, length and validator, then "start end done" per segment
+    private static class State {
+        final String url;
+        final long length;
+        final String validator;
+        final List<Segment> segments;
+        private long lastSaved;
+
+        State(String url, long length, String validator, List<Segment> segments) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.segments = segments;
+        }
+
+        static State split(String url, Resource resource, int count) {
+            List<Segment> segments = new ArrayList<>(count);
+            long size = resource.length / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = i == count - 1 ? resource.length - 1 : start + size - 1;
+                segments.add(new Segment(start, end, 0));
+            }
+            return new State(url, resource.length, resource.validator, segments);
+        }
+
+        // Null unless the state was saved for this URL and the resource is still the same
+        static State load(Path statePath, String url, Resource resource) throws IOException {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(statePath, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            if (lines.size() < 5 || !lines.get(0).equals(STATE_HEADER) || !lines.get(1).equals(url)
+                    || !lines.get(2).equals(Long.toString(resource.length))
+                    || !lines.get(3).equals(resource.validator == null ? "" : resource.validator)) {
+                return null;
+            }
+            List<Segment> segments = new ArrayList<>();
+            long expectedStart = 0;
+            try {
+                for (String line : lines.subList(4, lines.size())) {
+                    String[] fields = line.split(" ");
+                    Segment segment = new Segment(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]));
+                    if (segment.start != expectedStart || segment.remaining() < 0 || segment.done.get() < 0) {
+                        return null;
+                    }
+                    expectedStart = segment.end + 1;
+                    segments.add(segment);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return null;
+            }
+            return expectedStart == resource.length ? new State(url, resource.length, resource.validator, segments) : null;
+        }
+
+        long completedBytes() {
+            long completed = 0;
+            for (Segment segment : segments) {
+                completed += segment.done.get();
+            }
+            return completed;
+        }
+
+        synchronized void saveIfDue(Path statePath) throws IOException {
+            if (System.currentTimeMillis() - lastSaved >= STATE_SAVE_INTERVAL_MILLIS) {
+                save(statePath);
+            }
+        }
+
+        synchronized void save(Path statePath) throws IOException {
+            StringBuilder text = new StringBuilder();
+            text.append(STATE_HEADER).append('\n').append(url).append('\n').append(length).append('\n')
+                    .append(validator == null ? "" : validator).append('\n');
+            for (Segment segment : segments) {
+                text.append(segment.start).append(' ').append(segment.end).append(' ').append(segment.done.get()).append('\n');
+            }
+            Path temporary = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+            Files.write(temporary, text.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSaved = System.currentTimeMillis();
+        }
+    }
+
+    private static class ResourceChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResourceChangedException(URL url) {
+            super(url + " changed on the server during the download; run the same command again to start over");
+        }
+    }
+}
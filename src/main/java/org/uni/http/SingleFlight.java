@@ -0,0 +1,82 @@
+package org.uni.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Coalesces concurrent calls for the same key: the first caller runs the call and every caller
+// that arrives while it is in flight waits for, and receives, the same result or failure.
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    public V execute(K key, Call<V> call) throws IOException {
+        Flight<V> flight = new Flight<>(Thread.currentThread());
+        Flight<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            if (existing.owner == Thread.currentThread()) {
+                // Re-entered by the owner itself, e.g. a redirect loop back to the same URL;
+                // waiting on our own flight would never finish.
+                return call.call();
+            }
+            coalesced.increment();
+            return await(existing);
+        }
+        try {
+            V value = call.call();
+            flight.result.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    // Number of calls that were served by another caller's flight instead of running themselves
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static <V> V await(Flight<V> flight) throws IOException {
+        try {
+            return flight.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static class Flight<V> {
+        final Thread owner;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Flight(Thread owner) {
+            this.owner = owner;
+        }
+    }
+}
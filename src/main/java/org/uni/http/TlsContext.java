@@ -0,0 +1,145 @@
+package org.uni.http;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// One configured SSLContext per process. Its client session cache is what makes TLS
+// resumption possible: a new connection to a host we talked to recently offers the cached
+// session (TLS 1.2 session ID, TLS 1.3 PSK ticket) and skips the certificate exchange.
+public class TlsContext {
+    public static final String DEFAULT_PROTOCOLS = "TLSv1.3,TLSv1.2";
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 256;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3600;
+
+    private final SSLContext context;
+    private final SSLSocketFactory socketFactory;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+
+    public TlsContext(String protocols, int sessionCacheSize, int sessionTimeoutSeconds) throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        this.context = context;
+        this.socketFactory = context.getSocketFactory();
+
+        SSLParameters supported = context.getSupportedSSLParameters();
+        this.protocols = intersect(protocols.split(","), supported.getProtocols());
+        if (this.protocols.length == 0) {
+            throw new GeneralSecurityException("None of the TLS protocols " + protocols + " is supported");
+        }
+        this.cipherSuites = preferredCipherSuites(context.getDefaultSSLParameters().getCipherSuites());
+    }
+
+    public static TlsContext shared() throws IOException {
+        try {
+            return Holder.INSTANCE;
+        } catch (ExceptionInInitializerError | NoClassDefFoundError e) {
+            throw new IOException("TLS is not available", e.getCause());
+        }
+    }
+
+    // Layers TLS over an already connected socket. The handshake is left to the caller so it
+    // can be timed; closing the returned socket closes the plain one as well. Application
+    // protocols, if given, are offered through ALPN in order of preference.
+    public SSLSocket wrap(Socket plain, String host, int port, String... applicationProtocols) throws IOException {
+        SSLSocket socket = (SSLSocket) socketFactory.createSocket(plain, host, port, true);
+        socket.setSSLParameters(configure(socket.getSSLParameters(), host, applicationProtocols));
+        return socket;
+    }
+
+    // The same configuration for non-blocking connections, which drive the handshake themselves.
+    // Host and port let the engine find a cached session to resume.
+    public SSLEngine engine(String host, int port, String... applicationProtocols) {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setSSLParameters(configure(engine.getSSLParameters(), host, applicationProtocols));
+        return engine;
+    }
+
+    private SSLParameters configure(SSLParameters parameters, String host, String... applicationProtocols) {
+        parameters.setProtocols(protocols);
+        parameters.setCipherSuites(cipherSuites);
+        parameters.setUseCipherSuitesOrder(true);
+        // Verify that the certificate actually belongs to the host we connected to
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        if (!isIpLiteral(host)) {
+            parameters.setServerNames(List.of(new SNIHostName(host)));
+        }
+        if (applicationProtocols.length > 0) {
+            parameters.setApplicationProtocols(applicationProtocols);
+        }
+        return parameters;
+    }
+
+    // A resumed session keeps the creation time of the session it was resumed from, so a
+    // session older than the handshake was not negotiated from scratch.
+    public static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+        return session.getCreationTime() < handshakeStartMillis;
+    }
+
+    public String[] getProtocols() {
+        return protocols.clone();
+    }
+
+    // AEAD suites with forward secrecy first (TLS 1.3 suites are all AEAD), then whatever
+    // else the JDK enables by default, so unusual servers still get a handshake.
+    private static String[] preferredCipherSuites(String[] defaults) {
+        List<String> preferred = new ArrayList<>();
+        List<String> rest = new ArrayList<>();
+        for (String suite : defaults) {
+            boolean aead = suite.contains("_GCM_") || suite.contains("_CHACHA20_");
+            boolean forwardSecret = suite.startsWith("TLS_AES_") || suite.startsWith("TLS_CHACHA20_")
+                    || suite.startsWith("TLS_ECDHE_") || suite.startsWith("TLS_DHE_");
+            (aead && forwardSecret ? preferred : rest).add(suite);
+        }
+        preferred.addAll(rest);
+        return preferred.toArray(new String[0]);
+    }
+
+    private static String[] intersect(String[] wanted, String[] supported) {
+        List<String> supportedList = Arrays.asList(supported);
+        List<String> result = new ArrayList<>();
+        for (String protocol : wanted) {
+            String trimmed = protocol.trim();
+            if (supportedList.contains(trimmed)) {
+                result.add(trimmed);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static boolean isIpLiteral(String host) {
+        return host.indexOf(':') >= 0 || host.chars().allMatch(c -> c == '.' || Character.isDigit(c));
+    }
+
+    // Built on first HTTPS use, so plain-HTTP runs never pay for loading the trust store
+    private static class Holder {
+        static final TlsContext INSTANCE = create();
+
+        private static TlsContext create() {
+            try {
+                return new TlsContext(
+                        System.getProperty("go2web.tls.protocols", DEFAULT_PROTOCOLS),
+                        Integer.getInteger("go2web.tls.sessionCacheSize", DEFAULT_SESSION_CACHE_SIZE),
+                        Integer.getInteger("go2web.tls.sessionTimeoutSeconds", DEFAULT_SESSION_TIMEOUT_SECONDS));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.uni.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Pretty-prints JSON bodies. Kept apart from HttpClient so org.json is only loaded (and
+// verified) once a response actually is JSON, not on every start.
+public final class JsonFormatter {
+    private static final int INDENT = 2;
+
+    private JsonFormatter() {
+    }
+
+    // Returns the body unchanged when it is not a JSON object or array
+    public static String format(String body) {
+        try {
+            if (body.startsWith("[")) {
+                return new JSONArray(body).toString(INDENT);
+            } else if (body.startsWith("{")) {
+                return new JSONObject(body).toString(INDENT);
+            }
+            return body;
+        } catch (JSONException e) {
+            return body;
+        }
+    }
+}
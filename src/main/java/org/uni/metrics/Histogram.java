@@ -0,0 +1,114 @@
+package org.uni.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free latency histogram with log-linear buckets: every power of two is split into
+// 8 sub-buckets, so recorded values keep about 12% relative precision at any magnitude.
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), capped at the maximum
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), max());
+            }
+        }
+        return max();
+    }
+
+    // A copy of what has been recorded so far
+    Histogram snapshot() {
+        Histogram copy = new Histogram();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy.counts.set(bucket, counts.get(bucket));
+        }
+        copy.count.add(count());
+        copy.sum.add(sum());
+        copy.max.set(max());
+        return copy;
+    }
+
+    // What was recorded after earlier, a snapshot of this histogram. The maximum of just that
+    // part is not known, so it is the upper bound of its highest bucket, capped at the overall one.
+    Histogram since(Histogram earlier) {
+        Histogram delta = new Histogram();
+        int highest = -1;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long n = counts.get(bucket) - earlier.counts.get(bucket);
+            if (n > 0) {
+                delta.counts.set(bucket, n);
+                highest = bucket;
+            }
+        }
+        delta.count.add(count() - earlier.count());
+        delta.sum.add(sum() - earlier.sum());
+        delta.max.set(highest < 0 ? 0 : Math.min(upperBoundOf(highest), max()));
+        return delta;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        if (exponent >= 62) {
+            return Long.MAX_VALUE;
+        }
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+    }
+}
@@ -0,0 +1,77 @@
+package org.uni.metrics;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+// Diagnostic messages go to stderr so they never mix with the fetched content on stdout.
+// The level comes from -Dgo2web.log=error|warn|info|debug (default warn) or the -v flag.
+public final class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static volatile Level level = parse(System.getProperty("go2web.log"), Level.WARN);
+    private static volatile PrintStream out = System.err;
+
+    private Log() {
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    // The message is only built when debug logging is on
+    public static void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, message.get());
+        }
+    }
+
+    public static Level parse(String value, Level fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    private static void log(Level messageLevel, String message) {
+        if (isEnabled(messageLevel)) {
+            out.println("[" + messageLevel.name().toLowerCase(Locale.ROOT) + "] " + message);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.uni.metrics;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms. Recording is a map lookup plus a few atomic
+// adds, cheap enough to stay enabled on every request; the report is only built on demand.
+public class Metrics {
+    // Latency histograms, all in nanoseconds
+    public static final String FETCH_TOTAL = "fetch.total";
+    public static final String DNS = "http.dns";
+    public static final String CONNECT = "http.connect";
+    public static final String TLS_HANDSHAKE = "http.tls.full";
+    public static final String TLS_RESUMPTION = "http.tls.resumed";
+    public static final String TIME_TO_FIRST_BYTE = "http.ttfb";
+    public static final String BODY_TRANSFER = "http.body";
+    public static final String HTML_RENDER = "html.render";
+    public static final String JSON_FORMAT = "json.format";
+    public static final String CACHE_DISK_READ = "cache.disk.read";
+    public static final String CACHE_DISK_WRITE = "cache.disk.write";
+    public static final String SEARCH_PARSE = "search.parse";
+
+    // Counters
+    public static final String REQUESTS = "http.requests";
+    public static final String BYTES_READ = "http.bytes.read";
+    public static final String BYTES_WRITTEN = "http.bytes.written";
+    public static final String BYTES_STREAMED = "http.bytes.streamed";
+    public static final String REDIRECTS = "http.redirects";
+    public static final String CONNECTIONS_OPENED = "http.connections.opened";
+    public static final String CONNECTIONS_REUSED = "http.connections.reused";
+    public static final String CONNECTION_RETRIES = "http.connections.retried";
+    public static final String TLS_FULL_HANDSHAKES = "http.tls.full_handshakes";
+    public static final String TLS_RESUMED = "http.tls.resumed_sessions";
+    public static final String CONNECT_FALLBACKS = "http.connect.fallbacks";
+    public static final String DNS_CACHE_HITS = "dns.cache.hits";
+    public static final String DNS_CACHE_MISSES = "dns.cache.misses";
+    public static final String HTTP2_CONNECTIONS = "http2.connections";
+    public static final String HTTP2_STREAMS = "http2.streams";
+    public static final String NOT_MODIFIED = "http.not_modified";
+    public static final String COALESCED = "fetch.coalesced";
+    public static final String CACHE_MEMORY_HITS = "cache.memory.hits";
+    public static final String CACHE_MEMORY_MISSES = "cache.memory.misses";
+    public static final String CACHE_DISK_HITS = "cache.disk.hits";
+    public static final String CACHE_DISK_MISSES = "cache.disk.misses";
+    public static final String CACHE_DISK_EVICTIONS = "cache.disk.evicted_segments";
+    public static final String CACHE_FRESH_HITS = "cache.fresh_hits";
+    public static final String CACHE_STALE_HITS = "cache.stale_hits";
+    public static final String SEARCH_PAGES_FETCHED = "search.pages.fetched";
+    public static final String SEARCH_CACHE_HITS = "search.cache.hits";
+    public static final String SEARCH_DUPLICATES = "search.duplicates";
+    public static final String DOWNLOAD_SEGMENTS = "download.segments";
+    public static final String DOWNLOAD_RESUMED_BYTES = "download.resumed_bytes";
+    public static final String CRAWL_PAGES = "crawl.pages";
+    public static final String CRAWL_DISALLOWED = "crawl.robots_disallowed";
+    public static final String PREFETCH_FETCHED = "prefetch.fetched";
+    public static final String PREFETCH_BYTES = "prefetch.bytes";
+    public static final String PREFETCH_HITS = "prefetch.hits";
+    public static final String PREFETCH_DROPPED = "prefetch.dropped";
+
+    private static final Metrics GLOBAL = new Metrics();
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public void increment(String counter) {
+        counter(counter).increment();
+    }
+
+    public void add(String counter, long amount) {
+        counter(counter).add(amount);
+    }
+
+    public void recordNanos(String histogram, long nanos) {
+        histogram(histogram).record(nanos);
+    }
+
+    // Records the time elapsed since startNanos (a System.nanoTime() value) and returns now
+    public long recordSince(String histogram, long startNanos) {
+        long now = System.nanoTime();
+        histogram(histogram).record(now - startNanos);
+        return now;
+    }
+
+    public long count(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    // A copy of the current values, to report only what happens after it with since()
+    public Metrics snapshot() {
+        Metrics copy = new Metrics();
+        counters.forEach((name, adder) -> copy.add(name, adder.sum()));
+        histograms.forEach((name, histogram) -> copy.histograms.put(name, histogram.snapshot()));
+        return copy;
+    }
+
+    // Counters and histograms that changed after earlier, with just the change. Anything else
+    // running in the process at the same time is included.
+    public Metrics since(Metrics earlier) {
+        Metrics delta = new Metrics();
+        counters.forEach((name, adder) -> {
+            long change = adder.sum() - earlier.count(name);
+            if (change != 0) {
+                delta.add(name, change);
+            }
+        });
+        histograms.forEach((name, histogram) -> {
+            Histogram before = earlier.histograms.get(name);
+            Histogram change = before == null ? histogram.snapshot() : histogram.since(before);
+            if (change.count() > 0) {
+                delta.histograms.put(name, change);
+            }
+        });
+        return delta;
+    }
+
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    public void printReport(PrintStream out) {
+        Map<String, Histogram> sortedHistograms = new TreeMap<>(histograms);
+        if (!sortedHistograms.isEmpty()) {
+            out.printf("%-20s %8s %10s %10s %10s %10s %10s%n", "phase (ms)", "count", "mean", "p50", "p90", "p99", "max");
+            for (Map.Entry<String, Histogram> entry : sortedHistograms.entrySet()) {
+                Histogram h = entry.getValue();
+                out.printf("%-20s %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), h.count(),
+                        h.mean() / NANOS_PER_MILLI, h.percentile(50) / NANOS_PER_MILLI,
+                        h.percentile(90) / NANOS_PER_MILLI, h.percentile(99) / NANOS_PER_MILLI,
+                        h.max() / NANOS_PER_MILLI);
+            }
+        }
+        for (Map.Entry<String, Long> entry : counterValues().entrySet()) {
+            out.printf("%-28s %12d%n", entry.getKey(), entry.getValue());
+        }
+        printRatio(out, "cache.memory.hit_ratio", CACHE_MEMORY_HITS, CACHE_MEMORY_MISSES);
+        printRatio(out, "cache.disk.hit_ratio", CACHE_DISK_HITS, CACHE_DISK_MISSES);
+        printRatio(out, "dns.cache.hit_ratio", DNS_CACHE_HITS, DNS_CACHE_MISSES);
+        long requests = count(REQUESTS);
+        if (requests > 0) {
+            out.printf("%-28s %12.3f%n", "http.connection_reuse_ratio", (double) count(CONNECTIONS_REUSED) / requests);
+        }
+    }
+
+    // Machine-readable dump: {"counters": {...}, "histograms": {"name": {"count": n, "mean_ms": ...}}}
+    public String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n  \"counters\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : counterValues().entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n  },\n").append("  \"histograms\": {");
+        first = true;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = entry.getValue();
+            json.append(first ? "\n" : ",\n").append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"count\": ").append(h.count())
+                    .append(", \"mean_ms\": ").append(millis(Math.round(h.mean())))
+                    .append(", \"p50_ms\": ").append(millis(h.percentile(50)))
+                    .append(", \"p90_ms\": ").append(millis(h.percentile(90)))
+                    .append(", \"p99_ms\": ").append(millis(h.percentile(99)))
+                    .append(", \"max_ms\": ").append(millis(h.max()))
+                    .append('}');
+            first = false;
+        }
+        json.append(first ? "}\n" : "\n  }\n").append("}\n");
+        return json.toString();
+    }
+
+    private Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    private void printRatio(PrintStream out, String name, String hits, String misses) {
+        long total = count(hits) + count(misses);
+        if (total > 0) {
+            out.printf("%-28s %12.3f%n", name, (double) count(hits) / total);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+}
@@ -0,0 +1,367 @@
+package org.uni.search;
+
+import org.uni.html.HtmlParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Single forward pass over a Bing results page. Tags are recognised in place; script, style
+// and comment bodies are skipped in one jump, and strings are only built for the href, title
+// and snippet of results that are kept, so the cost is linear in the page size. Each organic
+// result runs from its <li class="b_algo"> to the next one: the link inside its first <h2>
+// gives URL and title, the first <p> after that the snippet. Pages without such results fall
+// back to other <h2> links, then to any link, both gathered during the same pass.
+public class BingResultExtractor implements SearchResultExtractor {
+    private static final String RESULT_CLASS = "b_algo";
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    @Override
+    public String id() {
+        return "bing";
+    }
+
+    @Override
+    public List<SearchResult> extract(String page, int maxResults) {
+        List<SearchResult> results = new ArrayList<>();
+        List<SearchResult> headingLinks = new ArrayList<>();
+        List<SearchResult> links = new ArrayList<>();
+        boolean inResult = false;
+        boolean inHeading = false;
+        String href = null;
+        String title = null;
+        String snippet = null;
+        TagCursor anchorStarts = new TagCursor("a", false);
+        TagCursor anchorEnds = new TagCursor("a", true);
+
+        int pos = 0;
+        while (results.size() < maxResults) {
+            int lt = page.indexOf('<', pos);
+            if (lt < 0 || lt + 2 >= page.length()) {
+                break;
+            }
+            pos = lt + 1;
+            // Most tags are of no interest; those are passed over without finding their end
+            String tag;
+            switch (page.charAt(lt + 1)) {
+                case '!':
+                    if (page.startsWith("--", lt + 2)) {
+                        int close = page.indexOf("-->", lt + 4);
+                        if (close < 0) {
+                            return choose(results, headingLinks, links);
+                        }
+                        pos = close + 3;
+                    }
+                    continue;
+                case '/':
+                    if (isEndTag(page, lt, "h2")) {
+                        inHeading = false;
+                    }
+                    continue;
+                case 's': case 'S':
+                    tag = isStartTag(page, lt, "script") ? "script" : isStartTag(page, lt, "style") ? "style" : null;
+                    break;
+                case 'l': case 'L':
+                    tag = isStartTag(page, lt, "li") ? "li" : null;
+                    break;
+                case 'h': case 'H':
+                    tag = isStartTag(page, lt, "h2") ? "h2" : null;
+                    break;
+                case 'a': case 'A':
+                    tag = isStartTag(page, lt, "a") ? "a" : null;
+                    break;
+                case 'p': case 'P':
+                    tag = isStartTag(page, lt, "p") ? "p" : null;
+                    break;
+                default:
+                    tag = null;
+            }
+            if (tag == null) {
+                continue;
+            }
+            int gt = tagEnd(page, lt);
+            if (gt < 0) {
+                break;
+            }
+            pos = gt + 1;
+
+            switch (tag) {
+                case "script":
+                case "style": {
+                    // Raw text: nothing in it is markup
+                    int close = indexOfEndTag(page, tag, pos);
+                    if (close < 0) {
+                        return choose(results, headingLinks, links);
+                    }
+                    pos = close;
+                    break;
+                }
+                case "li":
+                    if (hasClass(page, lt, gt, RESULT_CLASS)) {
+                        addResult(results, href, title, snippet);
+                        inResult = true;
+                        href = null;
+                        title = null;
+                        snippet = null;
+                    }
+                    break;
+                case "h2":
+                    inHeading = true;
+                    break;
+                case "a": {
+                    boolean resultLink = inResult && inHeading && title == null;
+                    boolean fallback = results.isEmpty() && (inHeading ? headingLinks : links).size() < maxResults;
+                    if (!resultLink && !fallback) {
+                        break;
+                    }
+                    String linkHref = attribute(page, lt, gt, "href");
+                    if (!isValidUrl(linkHref)) {
+                        break;
+                    }
+                    // A link without its </a> ends where the next one starts
+                    int close = anchorEnds.next(page, pos);
+                    int nextAnchor = anchorStarts.next(page, pos);
+                    if (nextAnchor >= 0 && (close < 0 || nextAnchor < close)) {
+                        close = nextAnchor;
+                    }
+                    String linkText = text(page, pos, close < 0 ? pos : close);
+                    if (resultLink) {
+                        href = linkHref;
+                        title = linkText;
+                    } else if (!linkText.isEmpty() && !linkText.equals("Web")) {
+                        (inHeading ? headingLinks : links).add(new SearchResult(linkHref, linkText, ""));
+                    }
+                    break;
+                }
+                default:
+                    if (inResult && title != null && snippet == null) {
+                        int close = indexOfEndTag(page, "p", pos);
+                        if (close >= 0) {
+                            snippet = text(page, pos, close);
+                            pos = close;
+                        }
+                    }
+            }
+        }
+        addResult(results, href, title, snippet);
+        if (results.size() > maxResults) {
+            results.remove(results.size() - 1);
+        }
+        return choose(results, headingLinks, links);
+    }
+
+    private static List<SearchResult> choose(List<SearchResult> results, List<SearchResult> headingLinks,
+                                             List<SearchResult> links) {
+        if (!results.isEmpty()) {
+            return results;
+        }
+        return headingLinks.isEmpty() ? links : headingLinks;
+    }
+
+    private static void addResult(List<SearchResult> results, String href, String title, String snippet) {
+        if (href != null && !title.isEmpty()) {
+            results.add(new SearchResult(href, title, snippet != null ? snippet : ""));
+        }
+    }
+
+    // Index of the '>' that closes the tag opened at lt; a '>' inside a quoted attribute value
+    // does not count
+    private static int tagEnd(String page, int lt) {
+        char quote = 0;
+        boolean afterEquals = false;
+        for (int i = lt + 1; i < page.length(); i++) {
+            char c = page.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '>') {
+                return i;
+            } else if ((c == '"' || c == '\'') && afterEquals) {
+                quote = c;
+            } else if (!Character.isWhitespace(c)) {
+                afterEquals = c == '=';
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isStartTag(String page, int lt, String name) {
+        return page.regionMatches(true, lt + 1, name, 0, name.length()) && endsName(page, lt + 1 + name.length());
+    }
+
+    private static boolean isEndTag(String page, int lt, String name) {
+        return page.charAt(lt + 1) == '/' && page.regionMatches(true, lt + 2, name, 0, name.length())
+                && endsName(page, lt + 2 + name.length());
+    }
+
+    private static boolean endsName(String page, int index) {
+        if (index >= page.length()) {
+            return false;
+        }
+        char c = page.charAt(index);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    // Start of the next </name> at or after from, or -1
+    private static int indexOfEndTag(String page, String name, int from) {
+        for (int lt = page.indexOf("</", from); lt >= 0; lt = page.indexOf("</", lt + 2)) {
+            if (isEndTag(page, lt, name)) {
+                return lt;
+            }
+        }
+        return -1;
+    }
+
+    // Start of the next <name ...> at or after from, or -1
+    private static int indexOfStartTag(String page, String name, int from) {
+        for (int lt = page.indexOf('<', from); lt >= 0 && lt + 1 < page.length(); lt = page.indexOf('<', lt + 1)) {
+            if (isStartTag(page, lt, name)) {
+                return lt;
+            }
+        }
+        return -1;
+    }
+
+    // The next start or end tag of one name, asked for from positions that only move forward.
+    // The last answer is reused while it is still ahead, so anchors missing their </a> do not
+    // each rescan the rest of the page.
+    private static class TagCursor {
+        private final String name;
+        private final boolean endTag;
+        private int found = -2;
+
+        TagCursor(String name, boolean endTag) {
+            this.name = name;
+            this.endTag = endTag;
+        }
+
+        int next(String page, int from) {
+            if (found != -1 && found < from) {
+                found = endTag ? indexOfEndTag(page, name, from) : indexOfStartTag(page, name, from);
+            }
+            return found;
+        }
+    }
+
+    // Value of an attribute of the tag between lt and gt, or null. Returns start and end of the
+    // value packed into a long, so callers that only inspect it need not copy it.
+    private static long attributeRange(String page, int lt, int gt, String name) {
+        int i = lt + 1;
+        while (i < gt && !Character.isWhitespace(page.charAt(i))) {
+            i++;
+        }
+        while (i < gt) {
+            while (i < gt && (Character.isWhitespace(page.charAt(i)) || page.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < gt && page.charAt(i) != '=' && page.charAt(i) != '/' && !Character.isWhitespace(page.charAt(i))) {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < gt && Character.isWhitespace(page.charAt(i))) {
+                i++;
+            }
+            if (i >= gt || page.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < gt && Character.isWhitespace(page.charAt(i))) {
+                i++;
+            }
+            int valueStart;
+            int valueEnd;
+            if (i < gt && (page.charAt(i) == '"' || page.charAt(i) == '\'')) {
+                valueStart = i + 1;
+                valueEnd = page.indexOf(page.charAt(i), valueStart);
+                if (valueEnd < 0 || valueEnd > gt) {
+                    return -1;
+                }
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while (i < gt && !Character.isWhitespace(page.charAt(i))) {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            if (nameEnd - nameStart == name.length() && page.regionMatches(true, nameStart, name, 0, name.length())) {
+                return ((long) valueStart << 32) | valueEnd;
+            }
+        }
+        return -1;
+    }
+
+    private static String attribute(String page, int lt, int gt, String name) {
+        long range = attributeRange(page, lt, gt, name);
+        return range < 0 ? null : HtmlParser.decodeEntities(page.substring((int) (range >>> 32), (int) range));
+    }
+
+    private static boolean hasClass(String page, int lt, int gt, String className) {
+        long range = attributeRange(page, lt, gt, "class");
+        if (range < 0) {
+            return false;
+        }
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        for (int i = start; i + className.length() <= end; i++) {
+            if (page.startsWith(className, i)
+                    && (i == start || Character.isWhitespace(page.charAt(i - 1)))
+                    && (i + className.length() == end || Character.isWhitespace(page.charAt(i + className.length())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Text between from and to with tags removed, entities decoded and whitespace collapsed
+    private static String text(String page, int from, int to) {
+        StringBuilder text = new StringBuilder(Math.min(to - from, 256));
+        for (int i = from; i < to; i++) {
+            char c = page.charAt(i);
+            if (c == '<') {
+                int end = tagEnd(page, i);
+                if (end < 0 || end >= to) {
+                    break;
+                }
+                i = end;
+            } else if (c == '&') {
+                int semicolon = -1;
+                for (int j = i + 1; j < Math.min(to, i + MAX_ENTITY_LENGTH + 1); j++) {
+                    if (page.charAt(j) == ';') {
+                        semicolon = j;
+                        break;
+                    }
+                }
+                String decoded = semicolon < 0 ? "&" : HtmlParser.decodeEntities(page.substring(i, semicolon + 1));
+                for (int k = 0; k < decoded.length(); k++) {
+                    appendCollapsed(text, decoded.charAt(k));
+                }
+                if (semicolon >= 0) {
+                    i = semicolon;
+                }
+            } else {
+                appendCollapsed(text, c);
+            }
+        }
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) == ' ') {
+            text.setLength(length - 1);
+        }
+        return text.toString();
+    }
+
+    private static void appendCollapsed(StringBuilder text, char c) {
+        if (Character.isWhitespace(c)) {
+            if (text.length() > 0 && text.charAt(text.length() - 1) != ' ') {
+                text.append(' ');
+            }
+        } else {
+            text.append(c);
+        }
+    }
+
+    private static boolean isValidUrl(String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+}
@@ -0,0 +1,86 @@
+package org.uni.search;
+
+import org.uni.html.HtmlParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Original regex extractor, kept as the reference output for parity checks and benchmarks.
+// Every fallback pattern runs over the whole page with DOTALL .*?, and the last resort scans
+// it for any URL at all.
+public class RegexResultExtractor implements SearchResultExtractor {
+    private static final String RESULT_BLOCK_START = "<li class=\"b_algo\"";
+    private static final Pattern RESULT_LINK = Pattern.compile("<h2[^>]*><a href=\"([^\"]+)\"[^>]*>(.*?)</a></h2>", Pattern.DOTALL);
+    private static final Pattern RESULT_SNIPPET = Pattern.compile("<p[^>]*>(.*?)</p>", Pattern.DOTALL);
+    private static final Pattern[] SEARCH_PATTERNS = {
+            Pattern.compile("<h2><a href=\"([^\"]+)\"[^>]*>(.*?)</a></h2>", Pattern.DOTALL),
+            Pattern.compile("<a href=\"([^\"]+)\"[^>]*>(.*?)</a>", Pattern.DOTALL)
+    };
+    private static final Pattern TAG = Pattern.compile("<[^>]+>");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Override
+    public String id() {
+        return "bing-regex";
+    }
+
+    @Override
+    public List<SearchResult> extract(String response, int maxResults) {
+        List<SearchResult> results = new ArrayList<>();
+
+        // Each organic result runs from its <li class="b_algo"> to the next one (results nest
+        // their own lists, so the closing </li> is not a reliable end)
+        int start = response.indexOf(RESULT_BLOCK_START);
+        while (start >= 0 && results.size() < maxResults) {
+            int next = response.indexOf(RESULT_BLOCK_START, start + RESULT_BLOCK_START.length());
+            String block = response.substring(start, next >= 0 ? next : response.length());
+            Matcher link = RESULT_LINK.matcher(block);
+            if (link.find()) {
+                String href = HtmlParser.decodeEntities(link.group(1));
+                String title = text(link.group(2));
+                Matcher snippet = RESULT_SNIPPET.matcher(block);
+                if (isValidUrl(href) && !title.isEmpty()) {
+                    results.add(new SearchResult(href, title, snippet.find(link.end()) ? text(snippet.group(1)) : ""));
+                }
+            }
+            start = next;
+        }
+
+        for (int i = 0; i < SEARCH_PATTERNS.length && results.isEmpty(); i++) {
+            Matcher matcher = SEARCH_PATTERNS[i].matcher(response);
+            while (matcher.find() && results.size() < maxResults) {
+                String href = HtmlParser.decodeEntities(matcher.group(1));
+                String title = text(matcher.group(2));
+
+                if (isValidUrl(href) && !title.isEmpty() && !title.equals("Web")) {
+                    results.add(new SearchResult(href, title, ""));
+                }
+            }
+        }
+
+        if (results.isEmpty()) {
+            Pattern urlPattern = Pattern.compile("https?://[^\\s\"><]+");
+            Matcher urlMatcher = urlPattern.matcher(response);
+            while (urlMatcher.find() && results.size() < maxResults) {
+                String url2 = urlMatcher.group();
+                if (isValidUrl(url2) && !url2.contains("bing.com") && !url2.contains("microsoft.com")) {
+                    results.add(new SearchResult(url2, "", ""));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    // Markup stripped, entities decoded and whitespace collapsed, so the text fits on one line
+    private static String text(String html) {
+        String plain = HtmlParser.decodeEntities(TAG.matcher(html).replaceAll(""));
+        return WHITESPACE.matcher(plain).replaceAll(" ").trim();
+    }
+
+    private static boolean isValidUrl(String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+}
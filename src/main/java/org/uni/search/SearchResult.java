@@ -0,0 +1,31 @@
+package org.uni.search;
+
+public class SearchResult {
+    private final String url;
+    private final String title;
+    private final String snippet;
+
+    public SearchResult(String url, String title, String snippet) {
+        this.url = url;
+        this.title = title;
+        this.snippet = snippet;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    // Empty when the page had no description for the result
+    public String getSnippet() {
+        return snippet;
+    }
+
+    @Override
+    public String toString() {
+        return title.isEmpty() ? url : url + " - " + title;
+    }
+}
@@ -0,0 +1,15 @@
+package org.uni.search;
+
+import java.util.List;
+
+// Turns a search engine's results page into results, best first. One implementation per
+// page layout; SearchService uses BingResultExtractor unless given another.
+public interface SearchResultExtractor {
+    List<SearchResult> extract(String page, int maxResults);
+
+    // Names the extracted results in cache keys, so extractors that read a page differently
+    // never share cached results
+    default String id() {
+        return getClass().getName();
+    }
+}
@@ -1,79 +1,207 @@
 package org.uni.search;
 
+import org.uni.http.CacheEntry;
+import org.uni.http.CacheManager;
 import org.uni.http.HttpClient;
+import org.uni.metrics.Log;
+import org.uni.metrics.Metrics;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 public class SearchService {
+    public static final int RESULTS_PER_PAGE = 10;
+    public static final int DEFAULT_RESULT_COUNT = 10;
+    public static final int DEFAULT_RESULT_CACHE_SECONDS = 3600;
+    private static final int MAX_CONCURRENT_PAGES = 4;
+    // Parsed results are cached next to HTTP responses under a key no URL can have, one
+    // namespace per extractor
+    private static final String RESULT_CACHE_KEY_PREFIX = "search:";
+    private static final String RESULTS_CONTENT_TYPE = "application/x-go2web-search-results";
+    private static final int RESULT_CACHE_SECONDS = Integer.getInteger("go2web.search.cacheSeconds", DEFAULT_RESULT_CACHE_SECONDS);
+    private static final ExecutorService PAGE_FETCHES = Executors.newFixedThreadPool(MAX_CONCURRENT_PAGES, task -> {
+        Thread thread = new Thread(task, "go2web-search");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final HttpClient httpClient;
+    private final CacheManager cacheManager;
+    private final SearchResultExtractor extractor;
+    private final Metrics metrics = Metrics.global();
     private static final String BING_SEARCH_URL = "https://www.bing.com/search?q=";
-    private static final Pattern[] SEARCH_PATTERNS = {
-            Pattern.compile("<li class=\"b_algo\"[^>]*>.*?<h2><a href=\"([^\"]+)\"[^>]*>(.*?)</a></h2>", Pattern.DOTALL),
-            Pattern.compile("<h2><a href=\"([^\"]+)\"[^>]*>(.*?)</a></h2>", Pattern.DOTALL),
-            Pattern.compile("<a href=\"([^\"]+)\"[^>]*>(.*?)</a>", Pattern.DOTALL)
-    };
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
     public SearchService() {
-        this.httpClient = new HttpClient(true);
+        this(new HttpClient(true));
     }
 
-    public List<String> search(String query) throws IOException {
-        HttpClient httpClient = new HttpClient(true);
-        String encodedQuery = httpClient.encodeUrl(query);
-        String searchUrl = String.format("https://www.bing.com/search?q=%s", encodedQuery);
-        
-        String response = httpClient.makeSocketRequest(searchUrl, "text/html");
-        
-        List<String> results = extractSearchResults(response);
-        if (results.isEmpty()) {
-            throw new IOException("No search results found. Please try a different search term.");
-        }
-        
-        return results;
+    public SearchService(HttpClient httpClient) {
+        this(httpClient, new BingResultExtractor());
+    }
+
+    public SearchService(HttpClient httpClient, SearchResultExtractor extractor) {
+        this.httpClient = httpClient;
+        this.cacheManager = httpClient.getCacheManager();
+        this.extractor = extractor;
     }
 
-    private List<String> extractSearchResults(String response) {
-        List<String> results = new ArrayList<>();
+    public List<SearchResult> search(String query) throws IOException {
+        List<SearchResult> results = new ArrayList<>();
+        search(query, DEFAULT_RESULT_COUNT, results::add);
+        return results;
+    }
 
-        for (Pattern pattern : SEARCH_PATTERNS) {
-            Matcher matcher = pattern.matcher(response);
-            while (matcher.find() && results.size() < 10) {
-                if (matcher.groupCount() >= 2) {
-                    String href = matcher.group(1);
-                    String title = matcher.group(2).replaceAll("<[^>]+>", "").trim();
+    // Fetches enough result pages for count results, all at once, and hands results to the
+    // consumer in rank order as soon as each page and every page before it have arrived.
+    // Results already seen on an earlier page (by normalized URL) are skipped. Returns the
+    // number of results delivered.
+    public int search(String query, int count, Consumer<SearchResult> consumer) throws IOException {
+        String normalizedQuery = normalizeQuery(query);
+        int pages = (count + RESULTS_PER_PAGE - 1) / RESULTS_PER_PAGE;
+        List<Future<List<SearchResult>>> pageFetches = new ArrayList<>(pages);
+        for (int page = 0; page < pages; page++) {
+            int first = page * RESULTS_PER_PAGE + 1;
+            pageFetches.add(PAGE_FETCHES.submit(() -> fetchPage(normalizedQuery, first)));
+        }
 
-                    if (isValidUrl(href) && !title.isEmpty() && !title.equals("Web")) {
-                        results.add(href + " - " + title);
+        Set<String> seen = new HashSet<>();
+        int delivered = 0;
+        IOException firstPageFailure = null;
+        try {
+            for (int page = 0; page < pages && delivered < count; page++) {
+                List<SearchResult> results;
+                try {
+                    results = pageFetches.get(page).get();
+                } catch (ExecutionException e) {
+                    IOException failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                    if (page == 0) {
+                        firstPageFailure = failure;
+                    } else {
+                        Log.warn("Search result page " + (page + 1) + " failed: " + failure.getMessage());
+                    }
+                    continue;
+                }
+                for (SearchResult result : results) {
+                    if (delivered == count) {
+                        break;
+                    }
+                    if (seen.add(normalizeUrl(result.getUrl()))) {
+                        consumer.accept(result);
+                        delivered++;
+                    } else {
+                        metrics.increment(Metrics.SEARCH_DUPLICATES);
                     }
                 }
             }
-
-            if (!results.isEmpty()) {
-                break;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching");
+        } finally {
+            for (Future<List<SearchResult>> pageFetch : pageFetches) {
+                pageFetch.cancel(true);
             }
         }
 
-        if (results.isEmpty()) {
-            Pattern urlPattern = Pattern.compile("https?://[^\\s\"><]+");
-            Matcher urlMatcher = urlPattern.matcher(response);
-            int count = 0;
-            while (urlMatcher.find() && count < 10) {
-                String url2 = urlMatcher.group();
-                if (isValidUrl(url2) && !url2.contains("bing.com") && !url2.contains("microsoft.com")) {
-                    results.add(url2);
-                    count++;
-                }
+        if (delivered == 0) {
+            if (firstPageFailure != null) {
+                throw firstPageFailure;
             }
+            throw new IOException("No search results found. Please try a different search term.");
         }
+        return delivered;
+    }
+
+    private List<SearchResult> fetchPage(String normalizedQuery, int first) throws IOException {
+        String cacheKey = RESULT_CACHE_KEY_PREFIX + extractor.id() + ":" + normalizedQuery + "#" + first;
+        CacheEntry cached = cacheManager.get(cacheKey);
+        if (cached != null && !cached.isExpired() && RESULTS_CONTENT_TYPE.equals(cached.getContentType())) {
+            metrics.increment(Metrics.SEARCH_CACHE_HITS);
+            return decodeResults(cached.getContent());
+        }
+
+        String searchUrl = BING_SEARCH_URL + httpClient.encodeUrl(normalizedQuery) + (first > 1 ? "&first=" + first : "");
+        String response = httpClient.makeSocketRequest(searchUrl, "text/html");
+        metrics.increment(Metrics.SEARCH_PAGES_FETCHED);
 
+        long start = System.nanoTime();
+        List<SearchResult> results = extractSearchResults(response);
+        metrics.recordSince(Metrics.SEARCH_PARSE, start);
+        // An empty page may just be a consent or captcha page, so it is not remembered
+        if (!results.isEmpty() && RESULT_CACHE_SECONDS > 0) {
+            cacheManager.put(cacheKey, new CacheEntry(encodeResults(results), RESULTS_CONTENT_TYPE, null, RESULT_CACHE_SECONDS));
+        }
         return results;
     }
 
-    private boolean isValidUrl(String url) {
-        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    List<SearchResult> extractSearchResults(String response) {
+        return extractor.extract(response, RESULTS_PER_PAGE);
+    }
+
+    // Queries that differ only in case or spacing share one cache entry
+    static String normalizeQuery(String query) {
+        return WHITESPACE.matcher(query.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    // Scheme and host case, default ports, fragments and a trailing slash do not make a result different
+    static String normalizeUrl(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() == null) {
+                return url;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+                port = -1;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().equals("/") ? "" : uri.getRawPath();
+            if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + (port == -1 ? "" : ":" + port) + path
+                    + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    // One result per line, fields separated by tabs
+    private static String encodeResults(List<SearchResult> results) {
+        StringBuilder encoded = new StringBuilder();
+        for (SearchResult result : results) {
+            encoded.append(field(result.getUrl())).append('\t').append(field(result.getTitle())).append('\t')
+                    .append(field(result.getSnippet())).append('\n');
+        }
+        return encoded.toString();
+    }
+
+    private static String field(String value) {
+        return value.indexOf('\t') < 0 && value.indexOf('\n') < 0 ? value : WHITESPACE.matcher(value).replaceAll(" ");
+    }
+
+    private static List<SearchResult> decodeResults(String encoded) {
+        List<SearchResult> results = new ArrayList<>();
+        for (String line : encoded.split("\n")) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length == 3) {
+                results.add(new SearchResult(fields[0], fields[1], fields[2]));
+            }
+        }
+        return results;
     }
-} 
\ No newline at end of file
+
+}
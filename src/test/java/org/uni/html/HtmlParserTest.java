@@ -0,0 +1,38 @@
+package org.uni.html;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HtmlParserTest {
+    @Test
+    void decodesEntitiesAfterABareAmpersand() {
+        assertEquals("AT&T reports: \"growth\" & more",
+                HtmlParser.decodeEntities("AT&T reports: &quot;growth&quot; &amp; more"));
+    }
+
+    @Test
+    void decodesEntitiesInQueryStrings() {
+        assertEquals("?page=2&sort=date&x=1", HtmlParser.decodeEntities("?page=2&sort=date&amp;x=1"));
+    }
+
+    @Test
+    void leavesUnknownAndUnterminatedEntities() {
+        assertEquals("&bogus; &#8212 — &", HtmlParser.decodeEntities("&bogus; &#8212 &#x2014; &"));
+    }
+
+    @Test
+    void linksResolveWithDecodedAmpersands() {
+        assertEquals(List.of("http://example.com/list?page=2&sort=date&x=1"),
+                LinkExtractor.extract("<a href=\"list?page=2&sort=date&amp;x=1\">next</a>", "http://example.com/list"));
+    }
+
+    @Test
+    void queryOnlyLinksKeepThePagePath() {
+        assertEquals(List.of("http://example.com/list?page=2", "http://example.com/list?page=3"),
+                LinkExtractor.extract("<a href=\"?page=2\">2</a><a href=\"?page=3#top\">3</a>",
+                        "http://example.com/list?page=1"));
+    }
+}
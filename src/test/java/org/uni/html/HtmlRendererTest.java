@@ -0,0 +1,91 @@
+package org.uni.html;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+// HtmlRenderer against the regex chain it replaced, which is kept as
+// HtmlParser.parseHtmlContentLegacy. Where the chain was wrong the renderer differs on purpose;
+// those cases are listed at the end with the output now expected.
+class HtmlRendererTest {
+    private static final String[] FIXTURES = {"sample.html", "article.html"};
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sample.html", "article.html"})
+    void matchesLegacyOutput(String fixture) throws IOException {
+        String html = fixture(fixture);
+        assertEquals(HtmlParser.parseHtmlContentLegacy(html), HtmlRenderer.render(html));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 7, 64, 1000})
+    void sameOutputWhenFedInChunks(int chunkSize) throws IOException {
+        for (String fixture : FIXTURES) {
+            String html = fixture(fixture);
+            StringBuilder out = new StringBuilder();
+            HtmlRenderer renderer = new HtmlRenderer(out);
+            for (int start = 0; start < html.length(); start += chunkSize) {
+                renderer.feed(html.subSequence(start, Math.min(html.length(), start + chunkSize)));
+            }
+            renderer.finish();
+            assertEquals(HtmlParser.parseHtmlContentLegacy(html), out.toString(), fixture);
+        }
+    }
+
+    @Test
+    void sameOutputForEverySplitPoint() throws IOException {
+        String html = fixture("article.html");
+        String expected = HtmlRenderer.render(html);
+        char[] chars = html.toCharArray();
+        for (int split = 0; split <= chars.length; split++) {
+            StringBuilder out = new StringBuilder();
+            HtmlRenderer renderer = new HtmlRenderer(out);
+            renderer.feed(chars, 0, split);
+            renderer.feed(chars, split, chars.length - split);
+            renderer.finish();
+            assertEquals(expected, out.toString(), "split at " + split);
+        }
+    }
+
+    // The chain's <b> pattern also matched <body> and bolded the whole page
+    @Test
+    void bodyIsNotBold() {
+        assertFixed("<body><p>Hello <b>there</b></p></body>", "Hello \033[1mthere\033[0m");
+    }
+
+    // The chain's <i> pattern also matched <img> and ran the italics up to the next </i>
+    @Test
+    void imageIsNotItalic() {
+        assertFixed("<p>Logo <img src=\"a.png\"> here</p><p>Now <i>it</i></p>", "Logo  here\n\nNow \033[3mit\033[0m");
+    }
+
+    // The chain's <p> pattern also matched <pre> and put the block on lines of its own
+    @Test
+    void preformattedIsNotAParagraph() {
+        assertFixed("<pre>line one\n  line two</pre><p>after</p>", "\033[36mline one\n  line two\033[0m\n\nafter");
+    }
+
+    // The chain only removed the comment delimiters' tags, leaving commented-out markup as text
+    @Test
+    void commentsAreSkippedWhole() {
+        assertFixed("<p>Before</p><!-- <p>hidden</p> --><p>After</p>", "Before\n\nAfter");
+    }
+
+    private static void assertFixed(String html, String expected) {
+        assertNotEquals(expected, HtmlParser.parseHtmlContentLegacy(html));
+        assertEquals(expected, HtmlRenderer.render(html));
+    }
+
+    private static String fixture(String name) throws IOException {
+        try (InputStream in = HtmlRendererTest.class.getResourceAsStream("/html/" + name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}